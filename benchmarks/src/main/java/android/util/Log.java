@@ -0,0 +1,39 @@
+package android.util;
+
+/**
+ * Plain JVM stand-in for the Android Log, the benchmarks are built without debug logging anyway.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+public final class Log {
+
+	public static int d(String tag, String msg) {
+		return 0;
+	}
+
+	public static int i(String tag, String msg) {
+		return 0;
+	}
+
+	public static int w(String tag, String msg) {
+		return 0;
+	}
+
+	public static int e(String tag, String msg) {
+		return 0;
+	}
+}
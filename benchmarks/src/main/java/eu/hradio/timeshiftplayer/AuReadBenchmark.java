@@ -0,0 +1,136 @@
+package eu.hradio.timeshiftplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading the next AU from a recording like the play loop does, {@link MappedAuReader#nextAu()} checks the
+ * record header in the mapped segment and returns a view of the AU. {@link #nextAuCopy()} additionally copies the AU
+ * into an array like the AAC decoder feed does. {@link #nextFrameCopy()} and {@link #readFrameBatch()} read the
+ * constant-size frames of a MPEG-1 Layer II recording into an array, one by one and in runs of
+ * {@link #FRAME_BATCH_SIZE} frames like the MPEG player does, both reported per frame.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuReadBenchmark {
+
+	private static final int FRAME_BATCH_SIZE = 16;
+	//a 192 kbit/s frame at 48 kHz
+	private static final int FRAME_SIZE = 576;
+
+	@Param({"288"})
+	public int auSize;
+
+	private BenchRecording mRecording;
+	private MappedAuReader mAuReader;
+	private final byte[] mAuCopy = new byte[0xFFFF];
+
+	private BenchRecording mFrameRecording;
+	private MappedAuReader mFrameReader;
+	private final byte[] mFrameBatch = new byte[FRAME_BATCH_SIZE * FRAME_SIZE];
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		//ten minutes, spans some segments
+		mRecording = BenchRecording.create(10 * 60 * 1000, auSize);
+		mAuReader = new MappedAuReader(mRecording.mFileWriter, mRecording.mAuIndex);
+
+		mFrameRecording = BenchRecording.createFrames(10 * 60 * 1000, FRAME_SIZE);
+		mFrameReader = new MappedAuReader(mFrameRecording.mFileWriter, mFrameRecording.mAuIndex);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mAuReader.close();
+		mRecording.delete();
+		mFrameReader.close();
+		mFrameRecording.delete();
+	}
+
+	@Benchmark
+	public int nextAu() throws IOException {
+		return nextAuView().remaining();
+	}
+
+	@Benchmark
+	public int nextAuCopy() throws IOException {
+		ByteBuffer au = nextAuView();
+		int auLen = au.remaining();
+		au.get(mAuCopy, 0, auLen);
+		return auLen;
+	}
+
+	@Benchmark
+	public int nextFrameCopy() throws IOException {
+		ByteBuffer frame = mFrameReader.nextFrame(FRAME_SIZE);
+		if(frame == null) {
+			mFrameReader.seekToAu(0);
+			frame = mFrameReader.nextFrame(FRAME_SIZE);
+		}
+
+		frame.get(mAuCopy, 0, FRAME_SIZE);
+		return FRAME_SIZE;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAME_BATCH_SIZE)
+	public int readFrameBatch() throws IOException {
+		int numFrames = 0;
+		while(numFrames < FRAME_BATCH_SIZE) {
+			int readFrames = mFrameReader.readFrames(mFrameBatch, FRAME_SIZE, FRAME_BATCH_SIZE - numFrames);
+			if(readFrames == 0) {
+				mFrameReader.seekToAu(0);
+			}
+			numFrames += readFrames;
+		}
+
+		return numFrames;
+	}
+
+	private ByteBuffer nextAuView() throws IOException {
+		ByteBuffer au = mAuReader.nextAu();
+		if(au == null) {
+			//end of the recording, start over
+			mAuReader.seekToAu(0);
+			au = mAuReader.nextAu();
+		}
+
+		return au;
+	}
+}
@@ -0,0 +1,105 @@
+package eu.hradio.timeshiftplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Synthetic DAB+ recording for the benchmarks. The AUs have random content and a random size around the given one,
+ * like the AUs of a variable bitrate AAC stream, or constant-size frames without record header like a DAB MPEG-1 Layer II stream.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class BenchRecording {
+
+	//one DAB+ AU holds 24 ms of audio at 48 kHz
+	static final long MS_AUDIO_PER_AU = 24;
+
+	final File mDir;
+	final AuOffsetIndex mAuIndex = new AuOffsetIndex();
+	final TimeshiftFileWriter mFileWriter;
+
+	/**
+	 * Creates an empty recording in a new temporary directory
+	 */
+	BenchRecording() throws IOException {
+		mDir = File.createTempFile("timeshiftbench", "");
+		if(!mDir.delete() || !mDir.mkdir()) {
+			throw new IOException("Could not create " + mDir);
+		}
+
+		mFileWriter = new TimeshiftFileWriter(mDir, "bench", mAuIndex);
+		mFileWriter.setAuDurationUs(MS_AUDIO_PER_AU * 1000);
+		mFileWriter.writeConfig(new AudioConfig(0, 48000, 2, false, false, (int)(MS_AUDIO_PER_AU * 1000)));
+	}
+
+	/**
+	 * Creates a recording of the given duration
+	 * @param durationMs the duration of the recording
+	 * @param auSize the mean size of the AUs
+	 */
+	static BenchRecording create(long durationMs, int auSize) throws IOException {
+		BenchRecording recording = new BenchRecording();
+		Random random = new Random(42);
+		byte[][] aus = createAus(random, 64, auSize);
+
+		long numAus = durationMs / MS_AUDIO_PER_AU;
+		for(long i = 0; i < numAus; i++) {
+			recording.mFileWriter.writeRecord(aus[random.nextInt(aus.length)]);
+		}
+
+		return recording;
+	}
+
+	/**
+	 * Creates a recording of constant-size frames of the given duration
+	 * @param durationMs the duration of the recording
+	 * @param frameSize the size of every frame
+	 */
+	static BenchRecording createFrames(long durationMs, int frameSize) throws IOException {
+		BenchRecording recording = new BenchRecording();
+		byte[] frame = new byte[frameSize];
+		new Random(42).nextBytes(frame);
+
+		long numFrames = durationMs / MS_AUDIO_PER_AU;
+		for(long i = 0; i < numFrames; i++) {
+			recording.mFileWriter.writeFrame(frame);
+		}
+
+		return recording;
+	}
+
+	/**
+	 * Creates AUs with random content and a size between 3/4 and 5/4 of the given mean size
+	 */
+	static byte[][] createAus(Random random, int count, int auSize) {
+		byte[][] aus = new byte[count][];
+		for(int i = 0; i < count; i++) {
+			aus[i] = new byte[auSize * 3 / 4 + random.nextInt(auSize / 2 + 1)];
+			random.nextBytes(aus[i]);
+		}
+
+		return aus;
+	}
+
+	void delete() {
+		mFileWriter.delete();
+		if(!mDir.delete()) {
+			mDir.deleteOnExit();
+		}
+	}
+}
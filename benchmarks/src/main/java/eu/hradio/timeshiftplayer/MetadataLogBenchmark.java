@@ -0,0 +1,161 @@
+package eu.hradio.timeshiftplayer;
+
+import org.omri.radioservice.metadata.Textual;
+import org.omri.radioservice.metadata.Visual;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures storing and restoring DLS labels and SLS slides in the {@link MetadataLog}.
+ * The append benchmarks trim the log like dropped segments do, so compaction is part of the measurement.
+ * The lookups run on the metadata of a two hour recording with a label every 10 and a slide every 30 seconds.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataLogBenchmark {
+
+	private static final long AUS_PER_LABEL = 10 * 1000 / BenchRecording.MS_AUDIO_PER_AU;
+	private static final long AUS_PER_SLIDE = 30 * 1000 / BenchRecording.MS_AUDIO_PER_AU;
+	private static final long RECORDING_AUS = 2 * 60 * 60 * 1000 / BenchRecording.MS_AUDIO_PER_AU;
+
+	//the number of AUs retained by the append benchmarks
+	private static final long RETAINED_AUS = 1000;
+
+	private static Textual createLabel(long auNum) {
+		return new BenchTextual("Now playing: Artist " + auNum + " - Title of the song that is on air at AU " + auNum);
+	}
+
+	private static Visual createSlide(Random random) {
+		//a typical 320x240 JPEG slide
+		byte[] jpegData = new byte[16 * 1024];
+		random.nextBytes(jpegData);
+		return new BenchVisual(jpegData);
+	}
+
+	private static MetadataLog createLog() throws IOException {
+		File logFile = File.createTempFile("timeshiftbench", ".meta");
+		logFile.deleteOnExit();
+		return new MetadataLog(logFile);
+	}
+
+	@State(Scope.Thread)
+	public static class Appending {
+
+		MetadataLog mLog;
+		Visual mSlide;
+		long mAuNum = 0;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			mLog = createLog();
+			mSlide = createSlide(new Random(42));
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			mLog.close();
+		}
+
+		long nextAu() {
+			long auNum = mAuNum++;
+			if(auNum % RETAINED_AUS == 0 && auNum > RETAINED_AUS) {
+				mLog.trimBefore(auNum - RETAINED_AUS);
+			}
+
+			return auNum;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Recorded {
+
+		MetadataLog mLog;
+		final Random mRandom = new Random(42);
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			mLog = createLog();
+			for(long auNum = 0; auNum < RECORDING_AUS; auNum++) {
+				if(auNum % AUS_PER_LABEL == 0) {
+					mLog.appendTextual(auNum, createLabel(auNum));
+				}
+				if(auNum % AUS_PER_SLIDE == 0) {
+					mLog.appendVisual(auNum, createSlide(mRandom));
+				}
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			mLog.close();
+		}
+
+		long randomAu() {
+			return (long)(mRandom.nextDouble() * RECORDING_AUS);
+		}
+	}
+
+	@Benchmark
+	public boolean appendTextual(Appending appending) {
+		long auNum = appending.nextAu();
+		return appending.mLog.appendTextual(auNum, createLabel(auNum));
+	}
+
+	@Benchmark
+	public boolean appendVisual(Appending appending) {
+		return appending.mLog.appendVisual(appending.nextAu(), appending.mSlide);
+	}
+
+	@Benchmark
+	public Textual getTextual(Recorded recorded) {
+		//the AU of a label as the play loop asks when crossing it
+		long auNum = recorded.randomAu() / AUS_PER_LABEL * AUS_PER_LABEL;
+		return recorded.mLog.getTextual(auNum);
+	}
+
+	@Benchmark
+	public Visual getLatestVisual(Recorded recorded) {
+		//the slide valid at a seek position
+		return recorded.mLog.getLatestVisual(recorded.randomAu());
+	}
+
+	@Benchmark
+	public long pendingAu(Recorded recorded) {
+		//the check the play loop does for every AU
+		return recorded.mLog.getPendingAu();
+	}
+}
@@ -0,0 +1,96 @@
+package eu.hradio.timeshiftplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the .dab record write path, {@link TimeshiftFileWriter#writeRecord(byte[])} writes the sync header,
+ * the AU length and the AU with one gathering write and updates the {@link AuOffsetIndex}.
+ * {@link #writeRecordsBatched()} writes the AUs in batches like the {@link RecordingWriteScheduler} does, the time
+ * is reported per AU. The retained depth is bounded, so the benchmark includes starting and dropping segments.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordWriteBenchmark {
+
+	//DAB+ AUs of 48, 96 and 192 kbit/s services
+	@Param({"144", "288", "576"})
+	public int auSize;
+
+	private BenchRecording mRecording;
+	private byte[][] mAus;
+	private int mNextAu = 0;
+
+	//AUs the shared writer thread typically collects from the services of an ensemble
+	private static final int BATCH_SIZE = 8;
+	private final List<byte[]> mBatch = new ArrayList<>();
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		mRecording = new BenchRecording();
+		//keeps about 8 segments on disk
+		mRecording.mFileWriter.setMaxRetainedAus(8 * TimeshiftFileWriter.SEGMENT_SIZE / auSize);
+		mAus = BenchRecording.createAus(new Random(42), 64, auSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mRecording.delete();
+	}
+
+	@Benchmark
+	public long writeRecord() throws IOException {
+		mRecording.mFileWriter.writeRecord(mAus[mNextAu++ & 63]);
+		return mRecording.mFileWriter.getCommittedLength();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public long writeRecordsBatched() throws IOException {
+		mBatch.clear();
+		for(int i = 0; i < BATCH_SIZE; i++) {
+			mBatch.add(mAus[mNextAu++ & 63]);
+		}
+
+		mRecording.mFileWriter.writeRecords(mBatch);
+		return mRecording.mFileWriter.getCommittedLength();
+	}
+}
@@ -0,0 +1,99 @@
+package eu.hradio.timeshiftplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures finding all AU records of a two hour recording without an index, like the recovery of a recording does.
+ * Every segment is scanned by the {@link RecordingScanner} in chunks on the given number of threads,
+ * a parallelism of 1 is the sequential scan.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecoveryScanBenchmark {
+
+	private static final long DURATION_MS = 2 * 60 * 60 * 1000;
+
+	//DAB+ superframe sizes
+	private static final int MIN_AU_LENGTH = 110;
+	private static final int MAX_AU_LENGTH = 2640;
+
+	@Param({"1", "2", "4"})
+	public int parallelism;
+
+	private BenchRecording mRecording;
+	private RecordingScanner mScanner;
+	private final List<ByteBuffer> mSegments = new ArrayList<>();
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		mRecording = BenchRecording.create(DURATION_MS, 288);
+		mScanner = new RecordingScanner(MIN_AU_LENGTH, MAX_AU_LENGTH, parallelism);
+
+		long lastSegmentNum = (mRecording.mFileWriter.getCommittedLength() - 1) / TimeshiftFileWriter.SEGMENT_SIZE;
+		for(long segmentNum = 0; segmentNum <= lastSegmentNum; segmentNum++) {
+			RandomAccessFile segmentFile = new RandomAccessFile(mRecording.mFileWriter.getSegmentFile(segmentNum), "r");
+			try {
+				mSegments.add(segmentFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, TimeshiftFileWriter.SEGMENT_SIZE));
+			} finally {
+				segmentFile.close();
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mScanner.shutDown();
+		mRecording.delete();
+	}
+
+	@Benchmark
+	public long scanRecording() throws IOException {
+		long numAus = 0;
+		for(int i = 0; i < mSegments.size(); i++) {
+			ByteBuffer segment = mSegments.get(i);
+			numAus += mScanner.scan(segment, i * TimeshiftFileWriter.SEGMENT_SIZE, SegmentHeader.read(segment).getLength()).size();
+		}
+
+		return numAus;
+	}
+}
@@ -0,0 +1,135 @@
+package eu.hradio.timeshiftplayer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the PCM throughput of the synchronized {@link CircularByteBuffer} and the {@link SpscByteRingBuffer}.
+ * The single threaded benchmarks show the cost of the monitors alone, the grouped ones run a producer and a
+ * consumer thread like the PCM players do and count the moved bytes in the {@code bytes} counter.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBufferBenchmark {
+
+	//the PCM players buffer 10 AAC frames of 1024 samples 16 bit stereo
+	private static final int CAPACITY = 10 * 4096;
+
+	@State(Scope.Group)
+	public static class Buffers {
+
+		//the decoder delivers 4096 bytes per AAC frame, the encoder input takes up to 4096 bytes
+		@Param({"256", "4096"})
+		public int chunkSize;
+
+		CircularByteBuffer mCircular;
+		SpscByteRingBuffer mSpsc;
+
+		byte[] mProducerChunk;
+		byte[] mConsumerChunk;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			mCircular = new CircularByteBuffer(CAPACITY);
+			mSpsc = new SpscByteRingBuffer(CAPACITY);
+			mProducerChunk = new byte[chunkSize];
+			mConsumerChunk = new byte[chunkSize];
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Moved {
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+	}
+
+	@Benchmark
+	public int circularSingleThread(Buffers buffers) {
+		buffers.mCircular.put(buffers.mProducerChunk);
+		while(buffers.mCircular.available() > 0) {
+			buffers.mCircular.get(buffers.mConsumerChunk);
+		}
+		return buffers.mCircular.available();
+	}
+
+	@Benchmark
+	public int spscSingleThread(Buffers buffers) {
+		buffers.mSpsc.put(buffers.mProducerChunk);
+		while(buffers.mSpsc.available() > 0) {
+			buffers.mSpsc.get(buffers.mConsumerChunk);
+		}
+		return buffers.mSpsc.available();
+	}
+
+	@Benchmark
+	@Group("circular")
+	@GroupThreads(1)
+	public void circularPut(Buffers buffers, Moved moved) {
+		moved.bytes += buffers.mCircular.put(buffers.mProducerChunk);
+	}
+
+	@Benchmark
+	@Group("circular")
+	@GroupThreads(1)
+	public void circularGet(Buffers buffers, Moved moved) {
+		//same polling pattern as the encoder feed
+		if(buffers.mCircular.available() >= buffers.chunkSize) {
+			moved.bytes += buffers.mCircular.get(buffers.mConsumerChunk);
+		}
+	}
+
+	@Benchmark
+	@Group("spsc")
+	@GroupThreads(1)
+	public void spscPut(Buffers buffers, Moved moved) {
+		moved.bytes += buffers.mSpsc.put(buffers.mProducerChunk);
+	}
+
+	@Benchmark
+	@Group("spsc")
+	@GroupThreads(1)
+	public void spscGet(Buffers buffers, Moved moved) {
+		if(buffers.mSpsc.available() >= buffers.chunkSize) {
+			moved.bytes += buffers.mSpsc.get(buffers.mConsumerChunk);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package eu.hradio.timeshiftplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures seeking to a random position of a two hour recording like seekToMs does.
+ * {@link #indexSeek()} resolves the position with the presentation times and offsets of the {@link AuOffsetIndex}
+ * and reads the AU there,
+ * {@link #syncScan()} is the reference without an index, it hops from sync header to sync header from the
+ * beginning of the recording and counts the AUs.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeekBenchmark {
+
+	private static final long DURATION_MS = 2 * 60 * 60 * 1000;
+
+	private BenchRecording mRecording;
+	private MappedAuReader mAuReader;
+	private long mNumAus;
+	private final Random mRandom = new Random(42);
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		mRecording = BenchRecording.create(DURATION_MS, 288);
+		mAuReader = new MappedAuReader(mRecording.mFileWriter, mRecording.mAuIndex);
+		mNumAus = mRecording.mFileWriter.getCommittedAus();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mAuReader.close();
+		mRecording.delete();
+	}
+
+	@Benchmark
+	public int indexSeek() throws IOException {
+		long seekMs = (long)(mRandom.nextDouble() * DURATION_MS);
+		mAuReader.seekToAu(mRecording.mAuIndex.findAu(seekMs * 1000));
+		return mAuReader.nextAu().remaining();
+	}
+
+	@Benchmark
+	public long syncScan() throws IOException {
+		long seekMs = (long)(mRandom.nextDouble() * DURATION_MS);
+		return scanToAu(seekMs / BenchRecording.MS_AUDIO_PER_AU);
+	}
+
+	/**
+	 * Finds the offset of the given AU by reading the record headers from the beginning of the recording
+	 */
+	private long scanToAu(long auNum) throws IOException {
+		long auCnt = 0;
+		for(long segmentNum = 0; ; segmentNum++) {
+			DataInputStream segmentIn = new DataInputStream(new BufferedInputStream(new FileInputStream(mRecording.mFileWriter.getSegmentFile(segmentNum)), 64 * 1024));
+			try {
+				segmentIn.skipBytes(SegmentHeader.LENGTH_POS);
+				int headerLength = segmentIn.readUnsignedShort();
+				segmentIn.skipBytes(headerLength - SegmentHeader.LENGTH_POS - 2);
+				long segmentPos = headerLength;
+				while(true) {
+					if(segmentIn.readUnsignedByte() != (TimeshiftFileWriter.SYNC_HDR[0] & 0xFF)
+							|| segmentIn.readUnsignedByte() != (TimeshiftFileWriter.SYNC_HDR[1] & 0xFF)
+							|| segmentIn.readUnsignedByte() != (TimeshiftFileWriter.SYNC_HDR[2] & 0xFF)) {
+						//zero filled rest of the segment
+						break;
+					}
+
+					if(auCnt++ == auNum) {
+						return segmentNum * TimeshiftFileWriter.SEGMENT_SIZE + segmentPos;
+					}
+
+					int auSize = segmentIn.readUnsignedShort();
+					segmentIn.skipBytes(auSize);
+					segmentPos += TimeshiftFileWriter.RECORD_HEADER_SIZE + auSize;
+				}
+			} catch(EOFException eofExc) {
+				if(auCnt >= mNumAus) {
+					return -1;
+				}
+			} finally {
+				segmentIn.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package eu.hradio.timeshiftplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link TimeStretcher} on the decoder output of catch-up playback: one AAC frame of 1024 samples
+ * 16 bit per call, 21.3 ms of audio at 48 kHz. The time per call against these 21.3 ms is the share of one core
+ * the stretching takes, it runs single threaded like on the decoder thread. Run it with {@code -prof gc} to see
+ * that processing allocates nothing.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(1)
+@Fork(1)
+public class TimeStretchBenchmark {
+
+	private static final int SAMPLE_RATE = 48000;
+	private static final int FRAME_SAMPLES = 1024;
+	//one second of input, the frames are taken from it in turn
+	private static final int NUM_FRAMES = SAMPLE_RATE / FRAME_SAMPLES;
+
+	@Param({"1.05", "1.25", "1.5"})
+	public float rate;
+
+	@Param({"1", "2"})
+	public int channels;
+
+	private TimeStretcher mStretcher;
+	private ByteBuffer[] mFrames;
+	private int mFrameIdx = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		mStretcher = new TimeStretcher();
+		mStretcher.configure(SAMPLE_RATE, channels);
+		mStretcher.setRate(rate);
+
+		//tones with noise, the correlation search does not find a trivial match
+		Random random = new Random(0);
+		mFrames = new ByteBuffer[NUM_FRAMES];
+		long sampleNum = 0;
+		for(int i = 0; i < NUM_FRAMES; i++) {
+			ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_SAMPLES * channels * 2).order(ByteOrder.nativeOrder());
+			for(int j = 0; j < FRAME_SAMPLES; j++, sampleNum++) {
+				double tone = Math.sin(2 * Math.PI * 220 * sampleNum / SAMPLE_RATE) + 0.5 * Math.sin(2 * Math.PI * 1330 * sampleNum / SAMPLE_RATE);
+				for(int c = 0; c < channels; c++) {
+					frame.putShort((short)(tone * 8000 + random.nextGaussian() * 1000));
+				}
+			}
+			frame.flip();
+			mFrames[i] = frame;
+		}
+	}
+
+	@Benchmark
+	public int process() {
+		ByteBuffer frame = mFrames[mFrameIdx];
+		mFrameIdx = (mFrameIdx + 1) % NUM_FRAMES;
+		return mStretcher.process(frame).remaining();
+	}
+}
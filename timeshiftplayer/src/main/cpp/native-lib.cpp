@@ -1,5 +1,6 @@
 #include <jni.h>
 #include <android/log.h>
+#include <stdint.h>
 
 extern "C" {
 
@@ -7,6 +8,7 @@ extern "C" {
 #include <libavutil/opt.h>
 #include <libavutil/channel_layout.h>
 #include <libavutil/samplefmt.h>
+#include <libavutil/mem.h>
 #include <libswresample/swresample.h>
 
 JavaVM* m_javaVm;
@@ -24,19 +26,38 @@ JNIEXPORT void JNICALL Java_eu_hradio_timeshiftplayer_PcmResampler_info(JNIEnv*
     __android_log_print(ANDROID_LOG_DEBUG, "FFmpeg", "%s", avcodec_configuration());
 }
 
-struct SwrContext *swr_ctx;
-int src_rate;
-int dst_rate;
-int src_nb_channels;
-JNIEXPORT jint JNICALL Java_eu_hradio_timeshiftplayer_PcmResampler_init(JNIEnv* env, jobject thiz, jint srcRate, jint dstRate, jint srcChans) {
-
-    uint8_t **src_data = NULL;
-    uint8_t **dst_data = NULL;
-
-    int src_linesize;
-    int dst_linesize;
-
-    swr_ctx = swr_alloc();
+/*
+ * The resampler state of one PcmResampler, the Java object holds the pointer as handle.
+ * Nothing is shared between instances, so several resamplers can be used on different threads.
+ */
+struct ResamplerContext {
+    struct SwrContext *swr_ctx;
+    int src_rate;
+    int dst_rate;
+    int src_nb_channels;
+    //reused by the array based resample, grown on demand
+    uint8_t* in_buf;
+    unsigned int in_buf_size;
+    uint8_t* out_buf;
+    unsigned int out_buf_size;
+};
+
+//output is always 16 bit stereo
+#define DST_BYTES_PER_SAMPLE 4
+
+JNIEXPORT jlong JNICALL Java_eu_hradio_timeshiftplayer_PcmResampler_init(JNIEnv* env, jclass clazz, jint srcRate, jint dstRate, jint srcChans) {
+
+    ResamplerContext* ctx = new ResamplerContext();
+    ctx->in_buf = NULL;
+    ctx->in_buf_size = 0;
+    ctx->out_buf = NULL;
+    ctx->out_buf_size = 0;
+    ctx->swr_ctx = swr_alloc();
+    if(ctx->swr_ctx == NULL) {
+        __android_log_print(ANDROID_LOG_ERROR, "FFmpeg", "swr_alloc failed");
+        delete ctx;
+        return 0;
+    }
 
     int64_t src_ch_layout;
     if(srcChans == 1) {
@@ -46,51 +67,89 @@ JNIEXPORT jint JNICALL Java_eu_hradio_timeshiftplayer_PcmResampler_init(JNIEnv*
     }
     int64_t dst_ch_layout = AV_CH_LAYOUT_STEREO;
 
-    src_rate = srcRate;
-    dst_rate = dstRate;
-
-    src_nb_channels = srcChans;
-    int dst_nb_channels = 0;
+    ctx->src_rate = srcRate;
+    ctx->dst_rate = dstRate;
+    ctx->src_nb_channels = srcChans;
 
     enum AVSampleFormat src_sample_fmt = AV_SAMPLE_FMT_S16;
     enum AVSampleFormat dst_sample_fmt = AV_SAMPLE_FMT_S16;
 
-    av_opt_set_int(swr_ctx, "in_channel_layout",    src_ch_layout, 0);
-    av_opt_set_int(swr_ctx, "in_sample_rate",       src_rate, 0);
-    av_opt_set_sample_fmt(swr_ctx, "in_sample_fmt", src_sample_fmt, 0);
+    av_opt_set_int(ctx->swr_ctx, "in_channel_layout",    src_ch_layout, 0);
+    av_opt_set_int(ctx->swr_ctx, "in_sample_rate",       ctx->src_rate, 0);
+    av_opt_set_sample_fmt(ctx->swr_ctx, "in_sample_fmt", src_sample_fmt, 0);
 
-    av_opt_set_int(swr_ctx, "out_channel_layout",    dst_ch_layout, 0);
-    av_opt_set_int(swr_ctx, "out_sample_rate",       dst_rate, 0);
-    av_opt_set_sample_fmt(swr_ctx, "out_sample_fmt", dst_sample_fmt, 0);
+    av_opt_set_int(ctx->swr_ctx, "out_channel_layout",    dst_ch_layout, 0);
+    av_opt_set_int(ctx->swr_ctx, "out_sample_rate",       ctx->dst_rate, 0);
+    av_opt_set_sample_fmt(ctx->swr_ctx, "out_sample_fmt", dst_sample_fmt, 0);
 
-    int ret = -1;
-    ret = swr_init(swr_ctx);
+    int ret = swr_init(ctx->swr_ctx);
     __android_log_print(ANDROID_LOG_DEBUG, "FFmpeg", "swr_init %d", ret);
+    if(ret < 0) {
+        swr_free(&ctx->swr_ctx);
+        delete ctx;
+        return 0;
+    }
 
-    return ret;
+    return (jlong)(intptr_t)ctx;
 }
 
-JNIEXPORT void JNICALL Java_eu_hradio_timeshiftplayer_PcmResampler_deInit(JNIEnv* env, jobject thiz) {
+JNIEXPORT void JNICALL Java_eu_hradio_timeshiftplayer_PcmResampler_deInit(JNIEnv* env, jclass clazz, jlong handle) {
     __android_log_print(ANDROID_LOG_DEBUG, "FFmpeg", "Resampler native deInit");
-    swr_free(&swr_ctx);
+    ResamplerContext* ctx = (ResamplerContext*)(intptr_t)handle;
+    swr_free(&ctx->swr_ctx);
+    av_freep(&ctx->in_buf);
+    av_freep(&ctx->out_buf);
+    delete ctx;
+}
+
+JNIEXPORT jint JNICALL Java_eu_hradio_timeshiftplayer_PcmResampler_maxResampledSize(JNIEnv* env, jclass clazz, jlong handle, jint pcmDataLen) {
+    ResamplerContext* ctx = (ResamplerContext*)(intptr_t)handle;
+
+    int in_num_samples = pcmDataLen / 2 / ctx->src_nb_channels;
+    int out_num_samples = swr_get_out_samples(ctx->swr_ctx, in_num_samples);
+
+    return out_num_samples < 0 ? 0 : out_num_samples * DST_BYTES_PER_SAMPLE;
 }
 
-JNIEXPORT jbyteArray JNICALL Java_eu_hradio_timeshiftplayer_PcmResampler_resample(JNIEnv* env, jobject thiz, jbyteArray pcmData, jint pcmDataLen) {
+JNIEXPORT jint JNICALL Java_eu_hradio_timeshiftplayer_PcmResampler_resampleDirect(JNIEnv* env, jclass clazz, jlong handle, jobject src, jint srcPos, jint srcLen, jobject dst, jint dstPos, jint dstLen) {
+    ResamplerContext* ctx = (ResamplerContext*)(intptr_t)handle;
 
-    const u_int8_t* in_samples = new u_int8_t[pcmDataLen];
-    env->GetByteArrayRegion(pcmData, 0, pcmDataLen, (jbyte*)in_samples);
+    const uint8_t* in_samples = (const uint8_t*)env->GetDirectBufferAddress(src) + srcPos;
+    uint8_t* out_samples = (uint8_t*)env->GetDirectBufferAddress(dst) + dstPos;
 
-    int in_num_samples = pcmDataLen / 2 / src_nb_channels;
-    uint8_t* out_samples;
-    int out_num_samples = av_rescale_rnd(swr_get_delay(swr_ctx, src_rate) + in_num_samples, dst_rate, src_rate, AV_ROUND_UP);
-    av_samples_alloc(&out_samples, nullptr, 2, out_num_samples, AV_SAMPLE_FMT_S16, 0);
-    out_num_samples = swr_convert(swr_ctx, &out_samples, out_num_samples, &in_samples, in_num_samples);
+    //what doesn't fit into dst stays buffered in the swr context for the next call
+    int out_num_samples = swr_convert(ctx->swr_ctx, &out_samples, dstLen / DST_BYTES_PER_SAMPLE, &in_samples, srcLen / 2 / ctx->src_nb_channels);
+
+    return out_num_samples < 0 ? out_num_samples : out_num_samples * DST_BYTES_PER_SAMPLE;
+}
+
+JNIEXPORT jbyteArray JNICALL Java_eu_hradio_timeshiftplayer_PcmResampler_resample(JNIEnv* env, jclass clazz, jlong handle, jbyteArray pcmData, jint pcmDataLen) {
+
+    ResamplerContext* ctx = (ResamplerContext*)(intptr_t)handle;
+
+    av_fast_malloc(&ctx->in_buf, &ctx->in_buf_size, pcmDataLen);
+    if(ctx->in_buf == NULL) {
+        return env->NewByteArray(0);
+    }
+    env->GetByteArrayRegion(pcmData, 0, pcmDataLen, (jbyte*)ctx->in_buf);
+    const uint8_t* in_samples = ctx->in_buf;
+
+    int in_num_samples = pcmDataLen / 2 / ctx->src_nb_channels;
+    int out_num_samples = swr_get_out_samples(ctx->swr_ctx, in_num_samples);
+    if(out_num_samples < 0) {
+        return env->NewByteArray(0);
+    }
+    av_fast_malloc(&ctx->out_buf, &ctx->out_buf_size, out_num_samples * DST_BYTES_PER_SAMPLE + 1);
+    if(ctx->out_buf == NULL) {
+        return env->NewByteArray(0);
+    }
+    uint8_t* out_samples = ctx->out_buf;
+    out_num_samples = swr_convert(ctx->swr_ctx, &out_samples, out_num_samples, &in_samples, in_num_samples);
     //__android_log_print(ANDROID_LOG_DEBUG, "FFmpeg", "Resampled %d", out_num_samples);
 
-    int sampleDataSize = out_num_samples*4;
+    int sampleDataSize = out_num_samples < 0 ? 0 : out_num_samples * DST_BYTES_PER_SAMPLE;
     jbyteArray decData = env->NewByteArray(sampleDataSize);
     env->SetByteArrayRegion (decData, 0, sampleDataSize, (jbyte*)out_samples);
-    av_freep(&out_samples);
 
     return decData;
 }
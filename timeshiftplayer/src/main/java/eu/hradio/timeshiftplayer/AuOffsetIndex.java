@@ -0,0 +1,195 @@
+package eu.hradio.timeshiftplayer;
+
+/**
+ * Maps the number of an AU in the timeshift file to the file offset of its record and its presentation time.
+ * The write path appends one entry per written AU, the play thread resolves seek and skip positions
+ * with it without touching the file. AU numbers and presentation times stay absolute when the oldest
+ * entries are trimmed, positions are reported relative to the first retained AU.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class AuOffsetIndex {
+
+	private static final int INITIAL_CAPACITY = 4096;
+
+	private long[] mOffsets = new long[INITIAL_CAPACITY];
+	//presentation time of every AU in microseconds, the sum of the durations of all AUs before
+	private long[] mPtsUs = new long[INITIAL_CAPACITY];
+	//array position of the first retained AU
+	private int mStart = 0;
+	private int mCount = 0;
+	//number of the first retained AU
+	private long mFirstAu = 0;
+	//presentation time of the end of the last AU
+	private long mEndPtsUs = 0;
+
+	/**
+	 * Appends the file offset and the duration of the next AU
+	 * @param fileOffset the offset of the AUs record in the timeshift file
+	 * @param durationUs the duration of the AU in microseconds
+	 */
+	synchronized void append(long fileOffset, long durationUs) {
+		if(mStart + mCount == mOffsets.length) {
+			if(mStart >= mOffsets.length / 2) {
+				//the trimmed front is large enough, compact instead of growing
+				System.arraycopy(mOffsets, mStart, mOffsets, 0, mCount);
+				System.arraycopy(mPtsUs, mStart, mPtsUs, 0, mCount);
+			} else {
+				long[] grownOffsets = new long[mOffsets.length * 2];
+				System.arraycopy(mOffsets, mStart, grownOffsets, 0, mCount);
+				mOffsets = grownOffsets;
+
+				long[] grownPts = new long[mPtsUs.length * 2];
+				System.arraycopy(mPtsUs, mStart, grownPts, 0, mCount);
+				mPtsUs = grownPts;
+			}
+			mStart = 0;
+		}
+
+		mOffsets[mStart + mCount] = fileOffset;
+		mPtsUs[mStart + mCount] = mEndPtsUs;
+		++mCount;
+		mEndPtsUs += durationUs;
+	}
+
+	/**
+	 * Returns the file offset of the given AU
+	 * @param auNum the number of the AU, starting with 0 for the first written AU
+	 * @return the file offset of the AU or {@code -1} if the AU is not indexed (yet or anymore)
+	 */
+	synchronized long getOffset(long auNum) {
+		if(auNum < mFirstAu || auNum >= mFirstAu + mCount) {
+			return -1;
+		}
+
+		return mOffsets[mStart + (int)(auNum - mFirstAu)];
+	}
+
+	/**
+	 * Returns the presentation time of the given AU
+	 * @param auNum the number of the AU, the number following the last indexed AU for the end of the recording
+	 * @return the presentation time of the AU in microseconds or {@code -1} if the AU is not indexed (yet or anymore)
+	 */
+	synchronized long getPtsUs(long auNum) {
+		if(auNum == mFirstAu + mCount) {
+			return mEndPtsUs;
+		}
+		if(auNum < mFirstAu || auNum > mFirstAu + mCount) {
+			return -1;
+		}
+
+		return mPtsUs[mStart + (int)(auNum - mFirstAu)];
+	}
+
+	/**
+	 * Returns the position of the given AU relative to the first retained AU
+	 * @param auNum the number of the AU, the number following the last indexed AU for the end of the recording
+	 * @return the position of the AU in microseconds or {@code -1} if the AU is not indexed (yet or anymore)
+	 */
+	synchronized long getPositionUs(long auNum) {
+		long ptsUs = getPtsUs(auNum);
+		return ptsUs < 0 ? -1 : ptsUs - getPtsUs(mFirstAu);
+	}
+
+	/**
+	 * Returns the duration of all retained AUs
+	 * @return the duration in microseconds
+	 */
+	synchronized long getDurationUs() {
+		return mEndPtsUs - getPtsUs(mFirstAu);
+	}
+
+	/**
+	 * Finds the AU playing at the given position with a binary search over the presentation times
+	 * @param positionUs the position in microseconds relative to the first retained AU
+	 * @return the number of the AU or {@code -1} if the position is beyond the indexed AUs
+	 */
+	synchronized long findAu(long positionUs) {
+		if(mCount == 0) {
+			return -1;
+		}
+
+		long ptsUs = mPtsUs[mStart] + Math.max(positionUs, 0);
+		if(ptsUs >= mEndPtsUs) {
+			return -1;
+		}
+
+		//the last AU starting at or before the presentation time
+		int low = mStart;
+		int high = mStart + mCount - 1;
+		while(low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if(mPtsUs[mid] <= ptsUs) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		return mFirstAu + (low - mStart);
+	}
+
+	/**
+	 * Returns the number of the first retained AU
+	 * @return the number of the first retained AU
+	 */
+	synchronized long getFirstAu() {
+		return mFirstAu;
+	}
+
+	/**
+	 * Returns the number of indexed AUs
+	 * @return the number of indexed AUs
+	 */
+	synchronized long size() {
+		return mCount;
+	}
+
+	/**
+	 * Removes the entries of all AUs before the given AU
+	 * @param firstAu the number of the first AU to retain
+	 */
+	synchronized void trimBefore(long firstAu) {
+		if(firstAu <= mFirstAu) {
+			return;
+		}
+
+		int trimCount = (int)Math.min(firstAu - mFirstAu, mCount);
+		mStart += trimCount;
+		mCount -= trimCount;
+		mFirstAu = firstAu;
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	synchronized void clear() {
+		reset(0, 0);
+	}
+
+	/**
+	 * Removes all entries, the next appended AU gets the given number and presentation time
+	 * @param firstAu the number of the next appended AU
+	 * @param firstPtsUs the presentation time of the next appended AU in microseconds
+	 */
+	synchronized void reset(long firstAu, long firstPtsUs) {
+		mStart = 0;
+		mCount = 0;
+		mFirstAu = firstAu;
+		mEndPtsUs = firstPtsUs;
+	}
+}
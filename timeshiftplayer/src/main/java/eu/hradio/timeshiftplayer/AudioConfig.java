@@ -0,0 +1,167 @@
+package eu.hradio.timeshiftplayer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The codec configuration of recorded AUs. It is stored in the {@link SegmentHeader} of every segment and in a
+ * configuration record in front of the first AU with a changed configuration, so a recording can be decoded
+ * without the state of the live service.
+ *
+ * Serialized as 1 byte codec, the DAB audio service component type (0 MPEG-1 Layer II, 63 DAB+ AAC),
+ * 4 bytes sample rate, 1 byte channels, 1 byte flags (bit 0 SBR, bit 1 PS) and 4 bytes AU duration in microseconds.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class AudioConfig {
+
+	static final int SIZE = 11;
+
+	private static final int FLAG_SBR = 0x01;
+	private static final int FLAG_PS = 0x02;
+
+	private static final int MIN_SAMPLE_RATE = 8000;
+	private static final int MAX_SAMPLE_RATE = 96000;
+	private static final int MAX_CHANNELS = 2;
+	private static final int MAX_AU_DURATION_US = 1000000;
+
+	private final int mCodec;
+	private final int mSampleRate;
+	private final int mChannels;
+	private final boolean mSbr;
+	private final boolean mPs;
+	private final int mAuDurationUs;
+
+	/**
+	 * Creates an {@link AudioConfig}
+	 * @param codec the DAB audio service component type, see {@link org.omri.radioservice.RadioServiceMimeType#getContententTypeId()}
+	 * @param sampleRate the output sample rate in Hz
+	 * @param channels the number of channels
+	 * @param sbr {@code true} if SBR is used
+	 * @param ps {@code true} if parametric stereo is used
+	 * @param auDurationUs the duration of an AU in microseconds
+	 */
+	AudioConfig(int codec, int sampleRate, int channels, boolean sbr, boolean ps, int auDurationUs) {
+		mCodec = codec;
+		mSampleRate = sampleRate;
+		mChannels = channels;
+		mSbr = sbr;
+		mPs = ps;
+		mAuDurationUs = auDurationUs;
+	}
+
+	/**
+	 * Reads a serialized {@link AudioConfig}
+	 * @param data the data
+	 * @param pos the position of the configuration
+	 * @return the {@link AudioConfig} or {@code null} if there is no complete valid configuration
+	 */
+	static AudioConfig read(ByteBuffer data, int pos) {
+		if(!isValidAt(data, pos)) {
+			return null;
+		}
+
+		int flags = data.get(pos + 6);
+		return new AudioConfig(data.get(pos) & 0xFF, data.getInt(pos + 1), data.get(pos + 5) & 0xFF, (flags & FLAG_SBR) != 0, (flags & FLAG_PS) != 0, data.getInt(pos + 7));
+	}
+
+	/**
+	 * Indicates if a complete valid configuration is serialized at the given position
+	 * @param data the data
+	 * @param pos the position of the configuration
+	 * @return {@code true} if the configuration is valid
+	 */
+	static boolean isValidAt(ByteBuffer data, int pos) {
+		if(pos < 0 || pos + SIZE > data.limit()) {
+			return false;
+		}
+
+		int sampleRate = data.getInt(pos + 1);
+		int channels = data.get(pos + 5) & 0xFF;
+		int auDurationUs = data.getInt(pos + 7);
+
+		return sampleRate >= MIN_SAMPLE_RATE && sampleRate <= MAX_SAMPLE_RATE && channels > 0 && channels <= MAX_CHANNELS && auDurationUs > 0 && auDurationUs <= MAX_AU_DURATION_US;
+	}
+
+	/**
+	 * Serializes the configuration at the position of the buffer
+	 * @param buffer the buffer with at least {@link #SIZE} bytes remaining
+	 */
+	void write(ByteBuffer buffer) {
+		buffer.put((byte)mCodec);
+		buffer.putInt(mSampleRate);
+		buffer.put((byte)mChannels);
+		buffer.put((byte)((mSbr ? FLAG_SBR : 0) | (mPs ? FLAG_PS : 0)));
+		buffer.putInt(mAuDurationUs);
+	}
+
+	/**
+	 * Indicates if the configuration equals the given parameters, without creating a configuration to compare with
+	 * @return {@code true} if all parameters are equal
+	 */
+	boolean matches(int codec, int sampleRate, int channels, boolean sbr, boolean ps) {
+		return mCodec == codec && mSampleRate == sampleRate && mChannels == channels && mSbr == sbr && mPs == ps;
+	}
+
+	int getCodec() {
+		return mCodec;
+	}
+
+	int getSampleRate() {
+		return mSampleRate;
+	}
+
+	int getChannels() {
+		return mChannels;
+	}
+
+	boolean isSbr() {
+		return mSbr;
+	}
+
+	boolean isPs() {
+		return mPs;
+	}
+
+	int getAuDurationUs() {
+		return mAuDurationUs;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if(!(other instanceof AudioConfig)) {
+			return false;
+		}
+
+		AudioConfig otherConfig = (AudioConfig)other;
+		return matches(otherConfig.mCodec, otherConfig.mSampleRate, otherConfig.mChannels, otherConfig.mSbr, otherConfig.mPs) && mAuDurationUs == otherConfig.mAuDurationUs;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = mCodec;
+		hash = 31 * hash + mSampleRate;
+		hash = 31 * hash + mChannels;
+		hash = 31 * hash + (mSbr ? 1 : 0);
+		hash = 31 * hash + (mPs ? 1 : 0);
+		return 31 * hash + mAuDurationUs;
+	}
+
+	@Override
+	public String toString() {
+		return "Codec: " + mCodec + ", Sampling: " + mSampleRate + ", Chans: " + mChannels + ", SBR: " + mSbr + ", PS: " + mPs + ", AU duration: " + mAuDurationUs + " us";
+	}
+}
@@ -0,0 +1,145 @@
+package eu.hradio.timeshiftplayer;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+import static eu.hradio.timeshiftplayer.BuildConfig.DEBUG;
+
+/**
+ * The PCM frames of the re-encode path waiting for the encoder. The {@link PcmPipeline} puts whole frames on the
+ * audio callback thread, the thread driving the encoder takes them one by one. The queue is bounded to
+ * {@link #QUEUE_FRAMES}, a frame arriving at a full queue is dropped instead of blocking the audio callback.
+ *
+ * The presentation times of the encoder input and the durations of the encoded AUs are derived from the sample
+ * counts, so the timeline of the recording never drifts. The counters are reported as {@link EncoderStatistics}.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class EncoderQueue implements PcmPipeline.PcmSink {
+
+	private static final String TAG = "EncoderQueue";
+
+	//the format of the re-encoded recording
+	static final int SAMPLING_RATE = 48000;
+	static final int CHANNELS = 2;
+	static final int AAC_FRAME_SAMPLES = 1024;
+	//16 bit PCM of one encoder frame
+	static final int FRAME_SIZE = AAC_FRAME_SAMPLES * CHANNELS * 2;
+	//PCM frames waiting for the encoder before new ones are dropped
+	static final int QUEUE_FRAMES = 10;
+
+	//rounded up to a power of two, the queue is bounded to QUEUE_FRAMES by pcmChunk()
+	private final SpscByteRingBuffer mRingBuffer;
+
+	//samples fed to and encoded by the encoder, only used by the encoder thread
+	private long mInputSamples = 0;
+	private long mOutputSamples = 0;
+
+	//written by the encoder thread only
+	private volatile long mEncodedFrames = 0;
+	private volatile long mEncoderStalls = 0;
+	//written by the audio callback only
+	private volatile long mDroppedFrames = 0;
+	private volatile int mMaxQueuedFrames = 0;
+
+	EncoderQueue() {
+		if(DEBUG)Log.d(TAG, "Creating queue with " + (QUEUE_FRAMES * FRAME_SIZE) + " bytes of buffer");
+		mRingBuffer = new SpscByteRingBuffer(QUEUE_FRAMES * FRAME_SIZE);
+	}
+
+	@Override
+	public void pcmChunk(ByteBuffer pcmChunk) {
+		//only whole frames are queued, so the encoder input stays frame aligned
+		if(mRingBuffer.available() + pcmChunk.remaining() <= QUEUE_FRAMES * FRAME_SIZE) {
+			mRingBuffer.put(pcmChunk);
+
+			int queuedFrames = mRingBuffer.available() / FRAME_SIZE;
+			if(queuedFrames > mMaxQueuedFrames) {
+				mMaxQueuedFrames = queuedFrames;
+			}
+		} else {
+			//the encoder is behind, newer PCM is dropped instead of blocking the audio callback
+			++mDroppedFrames;
+			if(DEBUG)Log.w(TAG, "Encoder input full, dropping PCM frame");
+		}
+	}
+
+	/**
+	 * Indicates if a whole frame waits for the encoder
+	 * @return {@code true} if {@link #takeFrame(ByteBuffer)} returns a frame
+	 */
+	boolean hasFrame() {
+		return mRingBuffer.available() >= FRAME_SIZE;
+	}
+
+	/**
+	 * Returns the presentation time of the frame {@link #takeFrame(ByteBuffer)} returns next
+	 * @return the presentation time of its first sample in microseconds
+	 */
+	long nextInputPtsUs() {
+		return mInputSamples * 1000000L / SAMPLING_RATE;
+	}
+
+	/**
+	 * Copies the next frame into the encoder input
+	 * @param encoderInput the input buffer of the encoder, filled from position 0 on
+	 * @return the number of bytes copied
+	 */
+	int takeFrame(ByteBuffer encoderInput) {
+		encoderInput.clear();
+		//one encoder frame per input buffer
+		encoderInput.limit(Math.min(encoderInput.capacity(), FRAME_SIZE));
+		int bytesRed = mRingBuffer.get(encoderInput);
+		mInputSamples += bytesRed * AAC_FRAME_SAMPLES / FRAME_SIZE;
+
+		return bytesRed;
+	}
+
+	/**
+	 * Counts a frame that waited while the encoder had no free input buffer
+	 */
+	void encoderStalled() {
+		++mEncoderStalls;
+	}
+
+	/**
+	 * Counts an encoded frame written to the recording
+	 */
+	void frameWritten() {
+		++mEncodedFrames;
+	}
+
+	/**
+	 * Returns the exact duration of the next encoded AU. Every AU holds {@link #AAC_FRAME_SAMPLES} samples, the
+	 * durations are the differences of the rounded presentation times, so their sum never drifts from the sample count.
+	 * @return the duration of the AU in microseconds
+	 */
+	int nextAuDurationUs() {
+		long startUs = mOutputSamples * 1000000L / SAMPLING_RATE;
+		mOutputSamples += AAC_FRAME_SAMPLES;
+		return (int)(mOutputSamples * 1000000L / SAMPLING_RATE - startUs);
+	}
+
+	/**
+	 * Returns the counters of the queue
+	 * @return the {@link EncoderStatistics}
+	 */
+	EncoderStatistics getStatistics() {
+		return new EncoderStatistics(mEncodedFrames, mDroppedFrames, mEncoderStalls, mRingBuffer.available() / FRAME_SIZE, mMaxQueuedFrames, QUEUE_FRAMES);
+	}
+}
@@ -0,0 +1,93 @@
+package eu.hradio.timeshiftplayer;
+
+/**
+ * A snapshot of the counters of the PCM re-encoding. PCM frames wait in a bounded queue for the encoder,
+ * if the encoder falls behind and the queue is full new frames are dropped and are missing in the recording.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+public final class EncoderStatistics {
+
+	private final long mEncodedFrames;
+	private final long mDroppedFrames;
+	private final long mEncoderStalls;
+	private final int mQueuedFrames;
+	private final int mMaxQueuedFrames;
+	private final int mQueueCapacity;
+
+	EncoderStatistics(long encodedFrames, long droppedFrames, long encoderStalls, int queuedFrames, int maxQueuedFrames, int queueCapacity) {
+		mEncodedFrames = encodedFrames;
+		mDroppedFrames = droppedFrames;
+		mEncoderStalls = encoderStalls;
+		mQueuedFrames = queuedFrames;
+		mMaxQueuedFrames = maxQueuedFrames;
+		mQueueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Returns the number of frames written to the recording
+	 * @return the number of encoded frames
+	 */
+	public long getEncodedFrames() {
+		return mEncodedFrames;
+	}
+
+	/**
+	 * Returns the number of PCM frames dropped because the queue was full
+	 * @return the number of dropped frames
+	 */
+	public long getDroppedFrames() {
+		return mDroppedFrames;
+	}
+
+	/**
+	 * Returns how often PCM was waiting but the encoder had no free input buffer
+	 * @return the number of encoder stalls
+	 */
+	public long getEncoderStalls() {
+		return mEncoderStalls;
+	}
+
+	/**
+	 * Returns the number of PCM frames waiting for the encoder
+	 * @return the number of queued frames
+	 */
+	public int getQueuedFrames() {
+		return mQueuedFrames;
+	}
+
+	/**
+	 * Returns the highest number of PCM frames that were waiting for the encoder
+	 * @return the maximum number of queued frames
+	 */
+	public int getMaxQueuedFrames() {
+		return mMaxQueuedFrames;
+	}
+
+	/**
+	 * Returns the number of PCM frames the queue holds
+	 * @return the capacity of the queue in frames
+	 */
+	public int getQueueCapacity() {
+		return mQueueCapacity;
+	}
+
+	@Override
+	public String toString() {
+		return "EncoderStatistics{encoded=" + mEncodedFrames + ", dropped=" + mDroppedFrames + ", stalls=" + mEncoderStalls + ", queued=" + mQueuedFrames + "/" + mQueueCapacity + ", maxQueued=" + mMaxQueuedFrames + "}";
+	}
+}
@@ -0,0 +1,241 @@
+package eu.hradio.timeshiftplayer;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static eu.hradio.timeshiftplayer.BuildConfig.DEBUG;
+
+/**
+ * Reads the AUs of a growing timeshift recording through memory mapped segments.
+ * The record of the next AU is located with the {@link AuOffsetIndex}, its header is parsed directly
+ * from the mapping and the AU is handed out as a view of the mapping, so no data is copied and no
+ * system call is needed as long as the next record lies in the current segment.
+ *
+ * Frames of a constant size, e.g. DAB MPEG-1 Layer II frames, are copied in runs of consecutive frames with
+ * {@link #readFrames(byte[], int, int)}. The offsets within a run are computed from the first frame, the index
+ * only confirms the last frame of the run.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class MappedAuReader {
+
+	private static final String TAG = "MappedAuReader";
+
+	private final TimeshiftFileWriter mFileWriter;
+	private final AuOffsetIndex mAuIndex;
+
+	private MappedByteBuffer mSegment = null;
+	private ByteBuffer mAuView = null;
+	private long mSegmentNum = -1;
+
+	private long mNextAu = 0;
+
+	/**
+	 * Creates a {@link MappedAuReader}
+	 * @param fileWriter the {@link TimeshiftFileWriter} of the recording, bounds the reader to the committed AUs
+	 * @param auIndex the {@link AuOffsetIndex} of the recording
+	 */
+	MappedAuReader(TimeshiftFileWriter fileWriter, AuOffsetIndex auIndex) {
+		mFileWriter = fileWriter;
+		mAuIndex = auIndex;
+	}
+
+	/**
+	 * Sets the number of the next AU to read
+	 * @param auNum the number of the AU
+	 */
+	void seekToAu(long auNum) {
+		mNextAu = auNum;
+	}
+
+	/**
+	 * Returns the number of the next AU to read
+	 * @return the number of the next AU to read
+	 */
+	long getNextAu() {
+		return mNextAu;
+	}
+
+	/**
+	 * Returns the next AU record or {@code null} if no further AU is committed yet.
+	 * If the next AU was already dropped from the recording, reading continues at the first retained AU.
+	 * The returned buffer is a view into the mapped segment which is only valid until the next call.
+	 * @return the next AU between position and limit of the returned buffer or {@code null}
+	 * @throws IOException if mapping the segment fails
+	 */
+	ByteBuffer nextAu() throws IOException {
+		while(true) {
+			int recordPos = locateNext();
+			if(recordPos < 0) {
+				return null;
+			}
+
+			++mNextAu;
+			int headerSize = recordHeaderSizeAt(recordPos);
+			if(headerSize > 0) {
+				//the length follows the sync word in both record types
+				int auSize = mSegment.getShort(recordPos + TimeshiftFileWriter.SYNC_HDR.length) & 0xFFFF;
+				int auPos = recordPos + headerSize;
+
+				mAuView.limit(auPos + auSize);
+				mAuView.position(auPos);
+				return mAuView;
+			}
+
+			if(DEBUG)Log.w(TAG, "No sync for AU: " + (mNextAu - 1));
+		}
+	}
+
+	/**
+	 * Returns the next frame written without a record header or {@code null} if no further frame is committed yet
+	 * The returned buffer is a view into the mapped segment which is only valid until the next call.
+	 * @param frameSize the size of the frame
+	 * @return the next frame between position and limit of the returned buffer or {@code null}
+	 * @throws IOException if mapping the segment fails
+	 */
+	ByteBuffer nextFrame(int frameSize) throws IOException {
+		int framePos = locateNext();
+		if(framePos < 0) {
+			return null;
+		}
+
+		++mNextAu;
+		mAuView.limit(framePos + frameSize);
+		mAuView.position(framePos);
+		return mAuView;
+	}
+
+	/**
+	 * Copies the next run of consecutive frames of a constant size into the given array, up to the last committed frame.
+	 * A run ends at the end of a segment and at a record between two frames, e.g. a configuration record, so only
+	 * complete frames are copied and the frames are contiguous in the array.
+	 * @param frames the array to copy the frames to, from index 0 on
+	 * @param frameSize the size of every frame
+	 * @param maxFrames the maximum number of frames to copy
+	 * @return the number of frames copied, {@code 0} if no further frame is committed yet
+	 * @throws IOException if mapping the segment fails
+	 */
+	int readFrames(byte[] frames, int frameSize, int maxFrames) throws IOException {
+		int framePos = locateNext();
+		if(framePos < 0 || frameSize <= 0) {
+			return 0;
+		}
+
+		long numFrames = Math.min(Math.min(maxFrames, frames.length / frameSize), mFileWriter.getCommittedAus() - mNextAu);
+		//frames never span two segments
+		numFrames = Math.min(numFrames, (TimeshiftFileWriter.SEGMENT_SIZE - framePos) / frameSize);
+		if(numFrames <= 0) {
+			return 0;
+		}
+
+		//offsets are strictly increasing by at least the frame size, if the last frame is where the arithmetic puts it, all are
+		long firstOffset = mAuIndex.getOffset(mNextAu);
+		while(numFrames > 1 && mAuIndex.getOffset(mNextAu + numFrames - 1) != firstOffset + (numFrames - 1) * frameSize) {
+			numFrames /= 2;
+		}
+
+		int runLength = (int)numFrames * frameSize;
+		mAuView.limit(framePos + runLength);
+		mAuView.position(framePos);
+		mAuView.get(frames, 0, runLength);
+		mNextAu += numFrames;
+
+		return (int)numFrames;
+	}
+
+	void close() {
+		mSegment = null;
+		mAuView = null;
+		mSegmentNum = -1;
+	}
+
+	/**
+	 * Maps the segment of the next AU
+	 * @return the position of the next AU in the mapped segment or {@code -1} if it's not committed yet
+	 */
+	private int locateNext() throws IOException {
+		long offset = -1;
+		while(offset < 0) {
+			long firstAu = mAuIndex.getFirstAu();
+			if(mNextAu < firstAu) {
+				if(DEBUG)Log.d(TAG, "AU " + mNextAu + " was dropped, continuing at: " + firstAu);
+				mNextAu = firstAu;
+			}
+
+			if(mNextAu >= mFileWriter.getCommittedAus()) {
+				return -1;
+			}
+
+			offset = mAuIndex.getOffset(mNextAu);
+			//a committed AU without offset was dropped after the check above, it continues at the new first AU
+			if(offset < 0 && mNextAu >= mAuIndex.getFirstAu()) {
+				return -1;
+			}
+		}
+
+		long segmentNum = offset / TimeshiftFileWriter.SEGMENT_SIZE;
+		if(segmentNum != mSegmentNum) {
+			mapSegment(segmentNum);
+		}
+
+		return (int)(offset - segmentNum * TimeshiftFileWriter.SEGMENT_SIZE);
+	}
+
+	private void mapSegment(long segmentNum) throws IOException {
+		//the segment is created with its full size, so the whole segment can be mapped beyond the live edge
+		RandomAccessFile segmentFile = new RandomAccessFile(mFileWriter.getSegmentFile(segmentNum), "r");
+		try {
+			//the mapping stays valid after closing the file and even after the segment was dropped
+			mSegment = segmentFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, TimeshiftFileWriter.SEGMENT_SIZE);
+		} finally {
+			segmentFile.close();
+		}
+
+		mAuView = mSegment.duplicate();
+		mSegmentNum = segmentNum;
+	}
+
+	/**
+	 * Returns the header size of the record at the given position
+	 * @return the header size or {@code -1} if there is no sync word
+	 */
+	private int recordHeaderSizeAt(int segmentPos) {
+		if(isSyncAt(segmentPos, TimeshiftFileWriter.SYNC_HDR)) {
+			return TimeshiftFileWriter.RECORD_HEADER_SIZE;
+		}
+		if(isSyncAt(segmentPos, TimeshiftFileWriter.TIMED_SYNC_HDR)) {
+			return TimeshiftFileWriter.TIMED_RECORD_HEADER_SIZE;
+		}
+
+		return -1;
+	}
+
+	private boolean isSyncAt(int segmentPos, byte[] syncHdr) {
+		for(int i = 0; i < syncHdr.length; i++) {
+			if(mSegment.get(segmentPos + i) != syncHdr[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
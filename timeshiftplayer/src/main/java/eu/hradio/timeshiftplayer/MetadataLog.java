@@ -0,0 +1,500 @@
+package eu.hradio.timeshiftplayer;
+
+import android.util.Log;
+
+import org.omri.radioservice.metadata.Textual;
+import org.omri.radioservice.metadata.Visual;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static eu.hradio.timeshiftplayer.BuildConfig.DEBUG;
+
+/**
+ * Stores the DLS labels and SLS slides of a recording in a single append-only file.
+ * Every record consists of the AU number, the type and the length of the payload followed by the payload.
+ * The records are indexed in memory by AU number per type, so the file is only read when a label or slide
+ * is actually needed. The omri metadata types have no public binary form, their payload is the serialized object.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class MetadataLog {
+
+	private static final String TAG = "MetadataLog";
+
+	static final byte TYPE_DLS = 1;
+	static final byte TYPE_SLS = 2;
+
+	//8 bytes AU number, 1 byte type, 4 bytes payload length
+	static final int RECORD_HEADER_SIZE = 13;
+	private static final int TYPE_POS = 8;
+	private static final int LENGTH_POS = 9;
+
+	//the log is compacted when at least this many bytes are no longer referenced
+	private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+	private final File mLogFile;
+	private RandomAccessFile mLog;
+	private long mLength = 0;
+
+	private final RecordIndex mLabelIndex = new RecordIndex();
+	private final RecordIndex mSlideIndex = new RecordIndex();
+
+	//written under the lock, read without it by the play loop
+	private volatile long mPendingAu = Long.MAX_VALUE;
+
+	private final ByteArrayOutputStream mRecordStream = new ByteArrayOutputStream(4096);
+	private final DataOutputStream mRecordOut = new DataOutputStream(mRecordStream);
+
+	/**
+	 * Creates an empty {@link MetadataLog}
+	 * @param logFile the file of the log, an existing file is overwritten
+	 * @throws IOException if the file can't be created
+	 */
+	MetadataLog(File logFile) throws IOException {
+		this(logFile, true);
+	}
+
+	private MetadataLog(File logFile, boolean truncate) throws IOException {
+		mLogFile = logFile;
+		mLog = new RandomAccessFile(logFile, "rw");
+		if(truncate) {
+			mLog.setLength(0);
+		}
+	}
+
+	/**
+	 * Opens the log of a previous session and indexes its records in one pass over the record headers.
+	 * A torn record at the end and the records of AUs beyond the recording are discarded.
+	 * @param logFile the file of the log
+	 * @param endAu the number of AUs in the recording, records up to this AU are kept
+	 * @return the {@link MetadataLog} appending to the existing records
+	 * @throws IOException if the file can't be read
+	 */
+	static MetadataLog reopen(File logFile, long endAu) throws IOException {
+		MetadataLog metadataLog = new MetadataLog(logFile, false);
+		metadataLog.indexRecords(endAu);
+
+		return metadataLog;
+	}
+
+	/**
+	 * Appends a DLS label
+	 * @param auNum the number of the AU the label belongs to
+	 * @param textual the label
+	 * @return {@code true} if the label was written, {@code false} otherwise
+	 */
+	synchronized boolean appendTextual(long auNum, Textual textual) {
+		return append(TYPE_DLS, auNum, textual);
+	}
+
+	/**
+	 * Appends a SLS slide
+	 * @param auNum the number of the AU the slide belongs to
+	 * @param visual the slide
+	 * @return {@code true} if the slide was written, {@code false} otherwise
+	 */
+	synchronized boolean appendVisual(long auNum, Visual visual) {
+		return append(TYPE_SLS, auNum, visual);
+	}
+
+	/**
+	 * Returns the label of the given AU
+	 * @param auNum the number of the AU
+	 * @return the label or {@code null} if no label belongs to the AU
+	 */
+	synchronized Textual getTextual(long auNum) {
+		return (Textual)read(mLabelIndex, mLabelIndex.exact(auNum));
+	}
+
+	/**
+	 * Returns the slide of the given AU
+	 * @param auNum the number of the AU
+	 * @return the slide or {@code null} if no slide belongs to the AU
+	 */
+	synchronized Visual getVisual(long auNum) {
+		return (Visual)read(mSlideIndex, mSlideIndex.exact(auNum));
+	}
+
+	/**
+	 * Returns the label which is valid at the given AU
+	 * @param auNum the number of the AU
+	 * @return the most recent label at or before the AU or {@code null} if there is none
+	 */
+	synchronized Textual getLatestTextual(long auNum) {
+		return (Textual)read(mLabelIndex, mLabelIndex.floor(auNum));
+	}
+
+	/**
+	 * Returns the slide which is valid at the given AU
+	 * @param auNum the number of the AU
+	 * @return the most recent slide at or before the AU or {@code null} if there is none
+	 */
+	synchronized Visual getLatestVisual(long auNum) {
+		return (Visual)read(mSlideIndex, mSlideIndex.floor(auNum));
+	}
+
+	/**
+	 * Returns the most recent label within the given AU range
+	 * @param fromAu the number of the first AU of the range
+	 * @param toAu the number of the last AU of the range
+	 * @return the last label within the range or {@code null} if there is none
+	 */
+	synchronized Textual findTextual(long fromAu, long toAu) {
+		int idx = mLabelIndex.floor(toAu);
+		return (idx >= 0 && mLabelIndex.auNumAt(idx) >= fromAu) ? (Textual)read(mLabelIndex, idx) : null;
+	}
+
+	/**
+	 * Returns the most recent slide within the given AU range
+	 * @param fromAu the number of the first AU of the range
+	 * @param toAu the number of the last AU of the range
+	 * @return the last slide within the range or {@code null} if there is none
+	 */
+	synchronized Visual findVisual(long fromAu, long toAu) {
+		int idx = mSlideIndex.floor(toAu);
+		return (idx >= 0 && mSlideIndex.auNumAt(idx) >= fromAu) ? (Visual)read(mSlideIndex, idx) : null;
+	}
+
+	/**
+	 * Returns the number of the next AU with a label or slide the play position has not reached yet.
+	 * Does not lock, the play loop compares every AU against it and only touches the log when it is crossed.
+	 * @return the number of the next pending AU or {@link Long#MAX_VALUE} if there is none
+	 */
+	long getPendingAu() {
+		return mPendingAu;
+	}
+
+	/**
+	 * Moves the pending AU to the first label or slide at or after the given AU
+	 * @param auNum the number of the next AU the play position will reach
+	 */
+	synchronized void seekCursor(long auNum) {
+		mPendingAu = nextRecordAu(auNum);
+	}
+
+	/**
+	 * Removes the records before the given AU. The most recent label and slide before the AU are kept at the AU,
+	 * they are still valid at the beginning of the retained recording. The file is compacted when enough records were removed.
+	 * @param firstAu the number of the first AU to retain
+	 */
+	synchronized void trimBefore(long firstAu) {
+		mLabelIndex.trimBefore(firstAu);
+		mSlideIndex.trimBefore(firstAu);
+		if(mPendingAu != Long.MAX_VALUE) {
+			//records before the first AU were moved to it or removed
+			mPendingAu = nextRecordAu(Math.max(mPendingAu, firstAu));
+		}
+
+		long liveBytes = mLabelIndex.recordBytes() + mSlideIndex.recordBytes();
+		long deadBytes = mLength - liveBytes;
+		if(deadBytes >= MIN_COMPACTION_SIZE && deadBytes > liveBytes) {
+			try {
+				compact();
+			} catch(IOException ioExc) {
+				if(DEBUG)ioExc.printStackTrace();
+			}
+		}
+	}
+
+	synchronized void close() {
+		try {
+			mLog.close();
+		} catch(IOException ioExc) {
+			if(DEBUG)ioExc.printStackTrace();
+		}
+	}
+
+	private void indexRecords(long endAu) throws IOException {
+		byte[] header = new byte[RECORD_HEADER_SIZE];
+		ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+		long logLength = mLog.length();
+
+		while(mLength + RECORD_HEADER_SIZE <= logLength) {
+			mLog.seek(mLength);
+			mLog.readFully(header);
+
+			long auNum = headerBuffer.getLong(0);
+			byte type = header[TYPE_POS];
+			int payloadLength = headerBuffer.getInt(LENGTH_POS);
+			if((type != TYPE_DLS && type != TYPE_SLS) || payloadLength < 0 || mLength + RECORD_HEADER_SIZE + payloadLength > logLength || auNum > endAu) {
+				break;
+			}
+
+			((type == TYPE_DLS) ? mLabelIndex : mSlideIndex).append(auNum, mLength, RECORD_HEADER_SIZE + payloadLength);
+			mLength += RECORD_HEADER_SIZE + payloadLength;
+		}
+
+		//new records overwrite whatever follows
+		mLog.setLength(mLength);
+
+		if(DEBUG)Log.d(TAG, "Indexed " + mLabelIndex.size() + " labels and " + mSlideIndex.size() + " slides, discarded " + (logLength - mLength) + " bytes");
+	}
+
+	private long nextRecordAu(long auNum) {
+		long nextAu = Long.MAX_VALUE;
+		int labelIdx = mLabelIndex.ceiling(auNum);
+		if(labelIdx >= 0) {
+			nextAu = mLabelIndex.auNumAt(labelIdx);
+		}
+		int slideIdx = mSlideIndex.ceiling(auNum);
+		if(slideIdx >= 0) {
+			nextAu = Math.min(nextAu, mSlideIndex.auNumAt(slideIdx));
+		}
+
+		return nextAu;
+	}
+
+	private boolean append(byte type, long auNum, Serializable metadata) {
+		try {
+			mRecordStream.reset();
+			mRecordOut.writeLong(auNum);
+			mRecordOut.writeByte(type);
+			//the payload length is patched in after serializing
+			mRecordOut.writeInt(0);
+			mRecordOut.flush();
+
+			ObjectOutputStream payloadOut = new ObjectOutputStream(mRecordStream);
+			payloadOut.writeObject(metadata);
+			payloadOut.close();
+
+			byte[] record = mRecordStream.toByteArray();
+			ByteBuffer.wrap(record).putInt(LENGTH_POS, record.length - RECORD_HEADER_SIZE);
+
+			mLog.seek(mLength);
+			mLog.write(record);
+
+			((type == TYPE_DLS) ? mLabelIndex : mSlideIndex).append(auNum, mLength, record.length);
+			mLength += record.length;
+
+			//records are appended at the live edge, which the play position can't be beyond
+			if(auNum < mPendingAu) {
+				mPendingAu = auNum;
+			}
+
+			return true;
+		} catch(IOException ioExc) {
+			if(DEBUG)ioExc.printStackTrace();
+		}
+
+		return false;
+	}
+
+	private Object read(RecordIndex index, int idx) {
+		if(idx < 0) {
+			return null;
+		}
+
+		try {
+			byte[] payload = new byte[index.lengthAt(idx) - RECORD_HEADER_SIZE];
+			mLog.seek(index.offsetAt(idx) + RECORD_HEADER_SIZE);
+			mLog.readFully(payload);
+
+			ObjectInputStream payloadIn = new ObjectInputStream(new ByteArrayInputStream(payload));
+			Object metadata = payloadIn.readObject();
+			payloadIn.close();
+
+			return metadata;
+		} catch(IOException | ClassNotFoundException exception) {
+			if(DEBUG)exception.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Rewrites the indexed records in AU order into a new file and replaces the log with it
+	 */
+	private void compact() throws IOException {
+		if(DEBUG)Log.d(TAG, "Compacting log of " + mLength + " bytes");
+
+		File compactFile = new File(mLogFile.getPath() + ".tmp");
+		RandomAccessFile compactLog = new RandomAccessFile(compactFile, "rw");
+		compactLog.setLength(0);
+
+		long compactLength = 0;
+		long[] labelOffsets = new long[mLabelIndex.size()];
+		long[] slideOffsets = new long[mSlideIndex.size()];
+		int labelIdx = 0;
+		int slideIdx = 0;
+		try {
+			while(labelIdx < mLabelIndex.size() || slideIdx < mSlideIndex.size()) {
+				boolean nextIsLabel = slideIdx >= mSlideIndex.size() || (labelIdx < mLabelIndex.size() && mLabelIndex.auNumAt(labelIdx) <= mSlideIndex.auNumAt(slideIdx));
+				RecordIndex index = nextIsLabel ? mLabelIndex : mSlideIndex;
+				int idx = nextIsLabel ? labelIdx++ : slideIdx++;
+
+				byte[] record = new byte[index.lengthAt(idx)];
+				mLog.seek(index.offsetAt(idx));
+				mLog.readFully(record);
+				//a kept record may have been moved to a later AU
+				ByteBuffer.wrap(record).putLong(0, index.auNumAt(idx));
+
+				compactLog.write(record);
+				if(nextIsLabel) {
+					labelOffsets[idx] = compactLength;
+				} else {
+					slideOffsets[idx] = compactLength;
+				}
+				compactLength += record.length;
+			}
+		} finally {
+			compactLog.close();
+		}
+
+		mLog.close();
+		if(!compactFile.renameTo(mLogFile)) {
+			if(DEBUG)Log.e(TAG, "Replacing log failed");
+			mLog = new RandomAccessFile(mLogFile, "rw");
+			return;
+		}
+
+		mLog = new RandomAccessFile(mLogFile, "rw");
+		mLabelIndex.setOffsets(labelOffsets);
+		mSlideIndex.setOffsets(slideOffsets);
+		mLength = compactLength;
+
+		if(DEBUG)Log.d(TAG, "Compacted log to " + mLength + " bytes");
+	}
+
+	/**
+	 * Record positions of one metadata type in ascending AU order
+	 */
+	private static final class RecordIndex {
+
+		private static final int INITIAL_CAPACITY = 64;
+
+		private long[] mAuNums = new long[INITIAL_CAPACITY];
+		private long[] mOffsets = new long[INITIAL_CAPACITY];
+		private int[] mLengths = new int[INITIAL_CAPACITY];
+		private int mCount = 0;
+		private long mRecordBytes = 0;
+
+		void append(long auNum, long offset, int length) {
+			if(mCount == mAuNums.length) {
+				mAuNums = Arrays.copyOf(mAuNums, mCount * 2);
+				mOffsets = Arrays.copyOf(mOffsets, mCount * 2);
+				mLengths = Arrays.copyOf(mLengths, mCount * 2);
+			}
+
+			mAuNums[mCount] = auNum;
+			mOffsets[mCount] = offset;
+			mLengths[mCount] = length;
+			++mCount;
+			mRecordBytes += length;
+		}
+
+		int size() {
+			return mCount;
+		}
+
+		long auNumAt(int idx) {
+			return mAuNums[idx];
+		}
+
+		long offsetAt(int idx) {
+			return mOffsets[idx];
+		}
+
+		int lengthAt(int idx) {
+			return mLengths[idx];
+		}
+
+		long recordBytes() {
+			return mRecordBytes;
+		}
+
+		void setOffsets(long[] offsets) {
+			System.arraycopy(offsets, 0, mOffsets, 0, mCount);
+		}
+
+		/**
+		 * Returns the index of the last record at or before the AU or {@code -1}
+		 */
+		int floor(long auNum) {
+			int low = 0;
+			int high = mCount - 1;
+			while(low <= high) {
+				int mid = (low + high) >>> 1;
+				if(mAuNums[mid] <= auNum) {
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+
+			return high;
+		}
+
+		/**
+		 * Returns the index of the first record at or after the AU or {@code -1}
+		 */
+		int ceiling(long auNum) {
+			int low = 0;
+			int high = mCount - 1;
+			while(low <= high) {
+				int mid = (low + high) >>> 1;
+				if(mAuNums[mid] < auNum) {
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+
+			return (low < mCount) ? low : -1;
+		}
+
+		/**
+		 * Returns the index of the last record of the AU or {@code -1}
+		 */
+		int exact(long auNum) {
+			int idx = floor(auNum);
+			return (idx >= 0 && mAuNums[idx] == auNum) ? idx : -1;
+		}
+
+		void trimBefore(long firstAu) {
+			int keepIdx = floor(firstAu - 1);
+			if(keepIdx < 0) {
+				return;
+			}
+
+			//keep the most recent record before the first AU if no record is at the first AU itself
+			boolean keepLast = (keepIdx + 1 >= mCount || mAuNums[keepIdx + 1] != firstAu);
+			int removeCount = keepLast ? keepIdx : keepIdx + 1;
+
+			for(int i = 0; i < removeCount; i++) {
+				mRecordBytes -= mLengths[i];
+			}
+			mCount -= removeCount;
+			System.arraycopy(mAuNums, removeCount, mAuNums, 0, mCount);
+			System.arraycopy(mOffsets, removeCount, mOffsets, 0, mCount);
+			System.arraycopy(mLengths, removeCount, mLengths, 0, mCount);
+
+			if(keepLast) {
+				mAuNums[0] = firstAu;
+			}
+		}
+	}
+}
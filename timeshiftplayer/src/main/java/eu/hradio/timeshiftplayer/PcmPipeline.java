@@ -0,0 +1,307 @@
+package eu.hradio.timeshiftplayer;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static eu.hradio.timeshiftplayer.BuildConfig.DEBUG;
+
+/**
+ * Brings 16 bit PCM of any sampling rate and channel count into the format of the encoder and cuts it into chunks of
+ * one encoder frame. The stages (resample, channel map, framing) are chosen once per input format and skipped if the
+ * input already matches, their buffers are reused for every callback. Whole chunks are handed to the
+ * {@link PcmSink} as views of the input without copying.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class PcmPipeline {
+
+	private static final String TAG = "PcmPipeline";
+
+	private static final int BYTES_PER_SAMPLE = 2;
+
+	/**
+	 * Receives the PCM chunks of the pipeline
+	 */
+	interface PcmSink {
+
+		/**
+		 * Called with exactly one chunk of PCM in the output format between position and limit
+		 * @param pcmChunk the chunk, only valid during this call
+		 */
+		void pcmChunk(ByteBuffer pcmChunk);
+	}
+
+	/**
+	 * A stage of the pipeline, consumes the remaining PCM of the buffer and passes its output to the next stage
+	 */
+	private interface Stage {
+		void process(ByteBuffer pcm);
+		void release();
+	}
+
+	private final int mOutSamplingRate;
+	private final int mOutChannels;
+	private final int mChunkSize;
+	private final FramingStage mFramingStage;
+
+	private int mInSamplingRate = -1;
+	private int mInChannels = -1;
+	private Stage mFirstStage = null;
+	private ByteBuffer mInView = null;
+
+	/**
+	 * Creates a {@link PcmPipeline}
+	 * @param outSamplingRate the sampling rate of the output
+	 * @param outChannels the number of channels of the output
+	 * @param samplesPerChunk the number of samples per channel of a chunk
+	 * @param sink the {@link PcmSink} to receive the chunks
+	 */
+	PcmPipeline(int outSamplingRate, int outChannels, int samplesPerChunk, PcmSink sink) {
+		mOutSamplingRate = outSamplingRate;
+		mOutChannels = outChannels;
+		mChunkSize = samplesPerChunk * outChannels * BYTES_PER_SAMPLE;
+		mFramingStage = new FramingStage(mChunkSize, sink);
+	}
+
+	/**
+	 * Returns the size of a chunk
+	 * @return the size of a chunk in bytes
+	 */
+	int getChunkSize() {
+		return mChunkSize;
+	}
+
+	int getOutputSamplingRate() {
+		return mOutSamplingRate;
+	}
+
+	int getOutputChannels() {
+		return mOutChannels;
+	}
+
+	/**
+	 * Returns the number of output bytes per second
+	 * @return the output data rate in bytes per second
+	 */
+	int getOutputByteRate() {
+		return mOutSamplingRate * mOutChannels * BYTES_PER_SAMPLE;
+	}
+
+	/**
+	 * Pushes 16 bit PCM in native byte order through the pipeline. The stages are renegotiated if the format changed.
+	 * @param pcmData the PCM
+	 * @param numChannels the number of channels of the PCM
+	 * @param samplingRate the sampling rate of the PCM
+	 */
+	void push(byte[] pcmData, int numChannels, int samplingRate) {
+		if(samplingRate != mInSamplingRate || numChannels != mInChannels) {
+			negotiate(samplingRate, numChannels);
+		}
+
+		//sources often deliver the same array again
+		if(mInView == null || mInView.array() != pcmData) {
+			mInView = ByteBuffer.wrap(pcmData).order(ByteOrder.nativeOrder());
+		} else {
+			mInView.clear();
+		}
+
+		mFirstStage.process(mInView);
+	}
+
+	/**
+	 * Releases the stages, PCM pushed afterwards is dropped by the resampler
+	 */
+	void release() {
+		if(mFirstStage != null) {
+			mFirstStage.release();
+		}
+	}
+
+	private void negotiate(int samplingRate, int numChannels) {
+		if(DEBUG)Log.d(TAG, "Negotiating " + samplingRate + " Hz, " + numChannels + " channels to " + mOutSamplingRate + " Hz, " + mOutChannels + " channels");
+
+		if(mFirstStage != null) {
+			mFirstStage.release();
+		}
+
+		//a partial chunk of the old format doesn't fit the new one
+		mFramingStage.reset();
+
+		Stage firstStage = mFramingStage;
+		if(samplingRate != mOutSamplingRate) {
+			//the resampler always outputs stereo
+			if(mOutChannels != 2) {
+				firstStage = new ChannelMapStage(2, mOutChannels, firstStage);
+			}
+			firstStage = new ResampleStage(new PcmResampler(samplingRate, mOutSamplingRate, numChannels), firstStage);
+		} else if(numChannels != mOutChannels) {
+			firstStage = new ChannelMapStage(numChannels, mOutChannels, firstStage);
+		}
+
+		mFirstStage = firstStage;
+		mInSamplingRate = samplingRate;
+		mInChannels = numChannels;
+	}
+
+	private static final class ResampleStage implements Stage {
+
+		private final PcmResampler mResampler;
+		private final Stage mNext;
+
+		private ByteBuffer mIn = null;
+		private ByteBuffer mOut = null;
+
+		ResampleStage(PcmResampler resampler, Stage next) {
+			mResampler = resampler;
+			mNext = next;
+		}
+
+		@Override
+		public void process(ByteBuffer pcm) {
+			if(mIn == null || mIn.capacity() < pcm.remaining()) {
+				//sized for the largest input so far, the output with headroom for the samples the resampler delays
+				mIn = ByteBuffer.allocateDirect(pcm.remaining()).order(ByteOrder.nativeOrder());
+				int maxOut = mResampler.getMaxResampledSize(pcm.remaining());
+				mOut = ByteBuffer.allocateDirect(maxOut + maxOut / 2).order(ByteOrder.nativeOrder());
+			}
+
+			mIn.clear();
+			mIn.put(pcm);
+			mIn.flip();
+
+			mOut.clear();
+			mResampler.resampleInto(mIn, mOut);
+			mOut.flip();
+
+			mNext.process(mOut);
+		}
+
+		@Override
+		public void release() {
+			mResampler.shutDown();
+			mNext.release();
+		}
+	}
+
+	private static final class ChannelMapStage implements Stage {
+
+		private final int mInChannels;
+		private final int mOutChannels;
+		private final Stage mNext;
+
+		private ByteBuffer mOut = null;
+
+		ChannelMapStage(int inChannels, int outChannels, Stage next) {
+			mInChannels = inChannels;
+			mOutChannels = outChannels;
+			mNext = next;
+		}
+
+		@Override
+		public void process(ByteBuffer pcm) {
+			int numFrames = pcm.remaining() / (mInChannels * BYTES_PER_SAMPLE);
+			int outSize = numFrames * mOutChannels * BYTES_PER_SAMPLE;
+			if(mOut == null || mOut.capacity() < outSize) {
+				mOut = ByteBuffer.allocate(outSize).order(ByteOrder.nativeOrder());
+			}
+			mOut.clear();
+
+			int inPos = pcm.position();
+			for(int frame = 0; frame < numFrames; frame++) {
+				if(mInChannels == 1) {
+					//mono to all channels
+					short sample = pcm.getShort(inPos);
+					for(int chan = 0; chan < mOutChannels; chan++) {
+						mOut.putShort(sample);
+					}
+				} else if(mOutChannels == 1) {
+					//downmix to mono
+					int sum = 0;
+					for(int chan = 0; chan < mInChannels; chan++) {
+						sum += pcm.getShort(inPos + chan * BYTES_PER_SAMPLE);
+					}
+					mOut.putShort((short)(sum / mInChannels));
+				} else {
+					//surplus input channels are dropped, missing ones repeat the last input channel
+					for(int chan = 0; chan < mOutChannels; chan++) {
+						mOut.putShort(pcm.getShort(inPos + Math.min(chan, mInChannels - 1) * BYTES_PER_SAMPLE));
+					}
+				}
+				inPos += mInChannels * BYTES_PER_SAMPLE;
+			}
+			pcm.position(pcm.limit());
+
+			mOut.flip();
+			mNext.process(mOut);
+		}
+
+		@Override
+		public void release() {
+			mNext.release();
+		}
+	}
+
+	private static final class FramingStage implements Stage {
+
+		private final int mChunkSize;
+		private final PcmSink mSink;
+		private final ByteBuffer mChunk;
+
+		FramingStage(int chunkSize, PcmSink sink) {
+			mChunkSize = chunkSize;
+			mSink = sink;
+			mChunk = ByteBuffer.allocate(chunkSize).order(ByteOrder.nativeOrder());
+		}
+
+		@Override
+		public void process(ByteBuffer pcm) {
+			int pcmLimit = pcm.limit();
+			while(pcm.hasRemaining()) {
+				int chunkStart = pcm.position();
+				if(mChunk.position() == 0 && pcm.remaining() >= mChunkSize) {
+					//a whole chunk in the input is passed on without copying
+					pcm.limit(chunkStart + mChunkSize);
+					mSink.pcmChunk(pcm);
+					pcm.limit(pcmLimit);
+					pcm.position(chunkStart + mChunkSize);
+				} else {
+					int count = Math.min(mChunk.remaining(), pcm.remaining());
+					pcm.limit(chunkStart + count);
+					mChunk.put(pcm);
+					pcm.limit(pcmLimit);
+
+					if(!mChunk.hasRemaining()) {
+						mChunk.flip();
+						mSink.pcmChunk(mChunk);
+						mChunk.clear();
+					}
+				}
+			}
+		}
+
+		void reset() {
+			mChunk.clear();
+		}
+
+		@Override
+		public void release() {
+			mChunk.clear();
+		}
+	}
+}
@@ -2,6 +2,8 @@ package eu.hradio.timeshiftplayer;
 
 import android.util.Log;
 
+import java.nio.ByteBuffer;
+
 import static eu.hradio.timeshiftplayer.BuildConfig.DEBUG;
 
 /**
@@ -33,28 +35,95 @@ final class PcmResampler {
 		System.loadLibrary("tsresampler");
 	}
 
+	//the native resampler context of this instance, 0 if not initialized or shut down
+	private long mNativeHandle;
+
 	private native void info();
-	private native int init(int srcRate, int dstRate, int srcChans);
-	private native void deInit();
-	private native byte[] resample(byte[] pcmData, int pcmDataLen);
+	private static native long init(int srcRate, int dstRate, int srcChans);
+	private static native void deInit(long nativeHandle);
+	private static native byte[] resample(long nativeHandle, byte[] pcmData, int pcmDataLen);
+	private static native int maxResampledSize(long nativeHandle, int pcmDataLen);
+	private static native int resampleDirect(long nativeHandle, ByteBuffer src, int srcPos, int srcLen, ByteBuffer dst, int dstPos, int dstLen);
 
 	PcmResampler(int sourceSampling, int destinationRate, int sourceNumChannels) {
 		mSrcRate = sourceSampling;
 		mDstRate = destinationRate;
 		mSrcChans = sourceNumChannels;
 
-		int initDone = init(sourceSampling, destinationRate, sourceNumChannels);
+		mNativeHandle = init(sourceSampling, destinationRate, sourceNumChannels);
+
+		if(DEBUG) Log.d(TAG, "Resampler init: " + (mNativeHandle != 0));
+	}
+
+	/**
+	 * Resamples the given 16 bit PCM to 16 bit stereo PCM at the destination rate
+	 * @param pcmData the PCM to resample
+	 * @return the resampled PCM, empty if the resampler failed to initialize or was already shut down
+	 */
+	synchronized byte[] resamplePcmData(byte[] pcmData) {
+		if(mNativeHandle == 0) {
+			//PCM may still arrive while the player is stopping
+			if(DEBUG)Log.w(TAG, "Resampler not initialized, dropping " + pcmData.length + " bytes");
+			return new byte[0];
+		}
 
-		if(DEBUG) Log.d(TAG, "Resampler init: " + initDone);
+		return resample(mNativeHandle, pcmData, pcmData.length);
 	}
 
-	byte[] resamplePcmData(byte[] pcmData) {
-		return resample(pcmData, pcmData.length);
+	/**
+	 * Returns the size of the output buffer needed to resample the given amount of PCM with {@link #resampleInto(ByteBuffer, ByteBuffer)}.
+	 * It includes the samples currently delayed in the resampler.
+	 * @param pcmDataLen the number of PCM bytes to resample
+	 * @return the maximum number of resampled bytes
+	 */
+	synchronized int getMaxResampledSize(int pcmDataLen) {
+		if(mNativeHandle == 0) {
+			return 0;
+		}
+
+		return maxResampledSize(mNativeHandle, pcmDataLen);
+	}
+
+	/**
+	 * Resamples the remaining PCM of src into the remaining space of dst to 16 bit stereo PCM at the destination rate.
+	 * Neither heap nor native memory is allocated. Samples that don't fit into dst are kept by the resampler and
+	 * returned by the next call, size dst with {@link #getMaxResampledSize(int)} to avoid that.
+	 * @param src a direct buffer with the PCM to resample, its position is advanced to its limit
+	 * @param dst a direct buffer for the resampled PCM, its position is advanced by the number of written bytes
+	 * @return the number of written bytes
+	 * @throws IllegalArgumentException if one of the buffers is not direct
+	 */
+	synchronized int resampleInto(ByteBuffer src, ByteBuffer dst) {
+		if(!src.isDirect() || !dst.isDirect()) {
+			throw new IllegalArgumentException("Resampling needs direct buffers");
+		}
+
+		if(mNativeHandle == 0) {
+			if(DEBUG)Log.w(TAG, "Resampler not initialized, dropping " + src.remaining() + " bytes");
+			src.position(src.limit());
+			return 0;
+		}
+
+		int written = resampleDirect(mNativeHandle, src, src.position(), src.remaining(), dst, dst.position(), dst.remaining());
+		src.position(src.limit());
+		if(written < 0) {
+			if(DEBUG)Log.w(TAG, "Resampling failed: " + written);
+			return 0;
+		}
+
+		dst.position(dst.position() + written);
+		return written;
 	}
 
-	void shutDown() {
+	/**
+	 * Frees the native context, waits for a resampling in progress on another thread
+	 */
+	synchronized void shutDown() {
 		if(DEBUG)Log.d(TAG, "Shutting down resampler");
-		deInit();
+		if(mNativeHandle != 0) {
+			deInit(mNativeHandle);
+			mNativeHandle = 0;
+		}
 	}
 
 	int getSourceSamplingrate() {
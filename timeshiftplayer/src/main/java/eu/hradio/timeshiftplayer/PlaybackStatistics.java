@@ -0,0 +1,84 @@
+package eu.hradio.timeshiftplayer;
+
+/**
+ * A snapshot of the counters of the paced playback. Frames are submitted to the decoder a lead ahead of the
+ * playback position, an underrun is counted when a frame is submitted after it should already be playing.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+public final class PlaybackStatistics {
+
+	private final long mSubmittedFrames;
+	private final long mUnderruns;
+	private final long mUnderrunMs;
+	private final long mMaxUnderrunMs;
+	private final long mPlaybackLeadMs;
+
+	PlaybackStatistics(long submittedFrames, long underruns, long underrunMs, long maxUnderrunMs, long playbackLeadMs) {
+		mSubmittedFrames = submittedFrames;
+		mUnderruns = underruns;
+		mUnderrunMs = underrunMs;
+		mMaxUnderrunMs = maxUnderrunMs;
+		mPlaybackLeadMs = playbackLeadMs;
+	}
+
+	/**
+	 * Returns the number of frames submitted to the decoder
+	 * @return the number of submitted frames
+	 */
+	public long getSubmittedFrames() {
+		return mSubmittedFrames;
+	}
+
+	/**
+	 * Returns how often a frame was submitted after its playback time, e.g. at the live edge or when the recording
+	 * couldn't be read in time
+	 * @return the number of underruns
+	 */
+	public long getUnderruns() {
+		return mUnderruns;
+	}
+
+	/**
+	 * Returns the summed time the frames were late at the underruns
+	 * @return the underrun time in milliseconds
+	 */
+	public long getUnderrunMs() {
+		return mUnderrunMs;
+	}
+
+	/**
+	 * Returns the longest time a frame was late
+	 * @return the longest underrun in milliseconds
+	 */
+	public long getMaxUnderrunMs() {
+		return mMaxUnderrunMs;
+	}
+
+	/**
+	 * Returns the lead of the submitted frames ahead of the playback position
+	 * @return the playback lead in milliseconds
+	 */
+	public long getPlaybackLeadMs() {
+		return mPlaybackLeadMs;
+	}
+
+	@Override
+	public String toString() {
+		return "PlaybackStatistics{submitted=" + mSubmittedFrames + ", underruns=" + mUnderruns + ", underrunMs=" + mUnderrunMs + ", maxUnderrunMs=" + mMaxUnderrunMs + ", leadMs=" + mPlaybackLeadMs + "}";
+	}
+}
@@ -0,0 +1,124 @@
+package eu.hradio.timeshiftplayer;
+
+/**
+ * The result of {@link RecordingScanner#analyze(java.io.File)}: the offset table of the AU records of a recording
+ * and how often the scan had to synchronize again behind corrupted data.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+public final class RecordingAnalysis {
+
+	private final long[] mAuOffsets;
+	private final int[] mAuDurationsUs;
+	private final int mAuCount;
+	private final int mConfigRecords;
+	private final int mSegments;
+	private final int mSegmentsWithoutHeader;
+	private final int mResyncs;
+	private final long mSkippedBytes;
+
+	RecordingAnalysis(long[] auOffsets, int[] auDurationsUs, int auCount, int configRecords, int segments, int segmentsWithoutHeader, int resyncs, long skippedBytes) {
+		mAuOffsets = auOffsets;
+		mAuDurationsUs = auDurationsUs;
+		mAuCount = auCount;
+		mConfigRecords = configRecords;
+		mSegments = segments;
+		mSegmentsWithoutHeader = segmentsWithoutHeader;
+		mResyncs = resyncs;
+		mSkippedBytes = skippedBytes;
+	}
+
+	/**
+	 * Returns the number of AU records found
+	 * @return the number of AUs
+	 */
+	public int getAuCount() {
+		return mAuCount;
+	}
+
+	/**
+	 * Returns the offset of an AU record in the recording. The segment of the AU is the offset divided by the
+	 * segment size of 4 MiB, the position in the segment file is the rest.
+	 * @param idx the index of the AU, from {@code 0} to {@link #getAuCount()} exclusive
+	 * @return the logical offset of the record
+	 */
+	public long getAuOffset(int idx) {
+		if(idx < 0 || idx >= mAuCount) {
+			throw new IndexOutOfBoundsException("AU " + idx + " of " + mAuCount);
+		}
+
+		return mAuOffsets[idx];
+	}
+
+	/**
+	 * Returns the duration of an AU record
+	 * @param idx the index of the AU, from {@code 0} to {@link #getAuCount()} exclusive
+	 * @return the duration of a timed record in microseconds or {@code -1} for a record of the fixed AU duration of the recording
+	 */
+	public int getAuDurationUs(int idx) {
+		if(idx < 0 || idx >= mAuCount) {
+			throw new IndexOutOfBoundsException("AU " + idx + " of " + mAuCount);
+		}
+
+		return mAuDurationsUs[idx];
+	}
+
+	/**
+	 * Returns the number of configuration records found, the configuration in the segment headers is not counted
+	 * @return the number of configuration records
+	 */
+	public int getConfigRecords() {
+		return mConfigRecords;
+	}
+
+	/**
+	 * Returns the number of segments scanned
+	 * @return the number of segments
+	 */
+	public int getSegments() {
+		return mSegments;
+	}
+
+	/**
+	 * Returns the number of segments without a valid header, e.g. the process was killed before the header was written
+	 * @return the number of segments without header
+	 */
+	public int getSegmentsWithoutHeader() {
+		return mSegmentsWithoutHeader;
+	}
+
+	/**
+	 * Returns how often the scan synchronized again behind corrupted data
+	 * @return the number of resynchronizations
+	 */
+	public int getResyncs() {
+		return mResyncs;
+	}
+
+	/**
+	 * Returns the number of corrupted bytes skipped between the records
+	 * @return the number of skipped bytes
+	 */
+	public long getSkippedBytes() {
+		return mSkippedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "RecordingAnalysis{aus=" + mAuCount + ", configs=" + mConfigRecords + ", segments=" + mSegments + ", withoutHeader=" + mSegmentsWithoutHeader + ", resyncs=" + mResyncs + ", skippedBytes=" + mSkippedBytes + "}";
+	}
+}
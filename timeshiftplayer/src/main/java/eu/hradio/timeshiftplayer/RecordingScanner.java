@@ -0,0 +1,514 @@
+package eu.hradio.timeshiftplayer;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static eu.hradio.timeshiftplayer.BuildConfig.DEBUG;
+
+/**
+ * Finds the AU records of a recording without an index, for the recovery of a recording and the analysis of kept recordings.
+ * The data is split into chunks which are scanned in parallel. Every chunk synchronizes on the first sync header whose
+ * record has a valid length and is followed by another valid record, then follows the chain of records and
+ * synchronizes again behind corrupted data. The chunks are merged in order: the chain of the previous chunk is followed
+ * into the next chunk until it meets a record found by that chunk, so a sync header found within an AU is discarded
+ * and the result is the same as the one of a sequential scan.
+ *
+ * Plain records are valid with an AU length between the given bounds, e.g. the sizes of a DAB+ superframe,
+ * timed records with any AU length and a duration of up to a second, configuration records with a valid {@link AudioConfig}.
+ *
+ * {@link #analyze(File)} scans a kept or crashed recording without a player, e.g. for quality analysis, and returns the
+ * offset table of its AUs with the resynchronization statistics.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+public final class RecordingScanner {
+
+	private static final String TAG = "RecordingScanner";
+
+	//smaller data is scanned in one chunk, the tasks would cost more than they save
+	private static final int MIN_CHUNK_SIZE = 256 * 1024;
+	private static final int MAX_TIMED_DURATION_US = 1000000;
+	//duration marker of configuration records
+	private static final int CONFIG_RECORD = -2;
+	//plain records of any length are accepted by the analysis, the following record confirms them
+	private static final int MAX_RECORD_LENGTH = 0xFFFF;
+
+	private final int mMinAuLength;
+	private final int mMaxAuLength;
+	private final int mParallelism;
+	private ExecutorService mExecutor = null;
+
+	/**
+	 * Result of a scan, the records in file order
+	 */
+	static final class Result {
+
+		private final int[] mPositions;
+		private final int[] mDurationsUs;
+		private final int mCount;
+		private final long mBaseOffset;
+		private final int mEnd;
+		private final int mResyncs;
+		private final long mSkippedBytes;
+
+		private Result(int[] positions, int[] durationsUs, int count, long baseOffset, int end, int resyncs, long skippedBytes) {
+			mPositions = positions;
+			mDurationsUs = durationsUs;
+			mCount = count;
+			mBaseOffset = baseOffset;
+			mEnd = end;
+			mResyncs = resyncs;
+			mSkippedBytes = skippedBytes;
+		}
+
+		/**
+		 * Returns the number of records found, including the configuration records
+		 * @return the number of records
+		 */
+		int size() {
+			return mCount;
+		}
+
+		/**
+		 * Returns the offset of a record
+		 * @param idx the index of the record
+		 * @return the logical offset of the record
+		 */
+		long offsetAt(int idx) {
+			return mBaseOffset + mPositions[idx];
+		}
+
+		/**
+		 * Returns the duration of a record
+		 * @param idx the index of the record
+		 * @return the duration of a timed record in microseconds or {@code -1} for a plain record
+		 */
+		int durationUsAt(int idx) {
+			return (mDurationsUs[idx] == CONFIG_RECORD) ? -1 : mDurationsUs[idx];
+		}
+
+		/**
+		 * Indicates if a record is a configuration record, the {@link AudioConfig} follows its {@link TimeshiftFileWriter#RECORD_HEADER_SIZE} bytes header
+		 * @param idx the index of the record
+		 * @return {@code true} for a configuration record, {@code false} for an AU record
+		 */
+		boolean isConfigAt(int idx) {
+			return mDurationsUs[idx] == CONFIG_RECORD;
+		}
+
+		/**
+		 * Returns the offset behind the last record
+		 * @return the logical offset behind the last record or the start offset of the scan if no record was found
+		 */
+		long getEndOffset() {
+			return mBaseOffset + mEnd;
+		}
+
+		/**
+		 * Returns how often the scan synchronized again behind corrupted data
+		 * @return the number of resynchronizations
+		 */
+		int getResyncs() {
+			return mResyncs;
+		}
+
+		/**
+		 * Returns the number of bytes between the records, without the unused rest behind the last record
+		 * @return the number of skipped bytes
+		 */
+		long getSkippedBytes() {
+			return mSkippedBytes;
+		}
+	}
+
+	/**
+	 * The records of one chunk. It is used as a growing list while scanning, the merge appends the chunks to one of them.
+	 */
+	private static final class Chunk {
+		int[] mPositions = new int[256];
+		int[] mDurationsUs = new int[256];
+		int mCount = 0;
+		//position behind the last record, may be beyond the chunk
+		int mChainEnd = -1;
+		//position the chain continues at, -1 if no record follows the last one within the chunk
+		int mNextPos = -1;
+
+		void add(int pos, int durationUs) {
+			if(mCount == mPositions.length) {
+				mPositions = Arrays.copyOf(mPositions, mCount * 2);
+				mDurationsUs = Arrays.copyOf(mDurationsUs, mCount * 2);
+			}
+			mPositions[mCount] = pos;
+			mDurationsUs[mCount] = durationUs;
+			++mCount;
+		}
+	}
+
+	/**
+	 * Creates a {@link RecordingScanner}
+	 * @param minAuLength the minimum AU length of a plain record
+	 * @param maxAuLength the maximum AU length of a plain record
+	 * @param parallelism the number of chunks scanned at the same time
+	 */
+	RecordingScanner(int minAuLength, int maxAuLength, int parallelism) {
+		mMinAuLength = minAuLength;
+		mMaxAuLength = maxAuLength;
+		mParallelism = Math.max(parallelism, 1);
+	}
+
+	/**
+	 * Scans all segments of a recording, see {@link #analyze(File, int, int)}. Plain records of any length are accepted.
+	 * @param recording a segment file of the recording or a directory holding the segments of one recording
+	 * @return the AUs found
+	 * @throws IOException if no segment was found or a segment can't be read
+	 */
+	public static RecordingAnalysis analyze(File recording) throws IOException {
+		return analyze(recording, 1, MAX_RECORD_LENGTH);
+	}
+
+	/**
+	 * Scans all segments of a recording in the order of their numbers, without the index and the session manifest
+	 * @param recording a segment file of the recording or a directory holding the segments of one recording
+	 * @param minAuLength the minimum AU length of a plain record, e.g. the minimum size of a DAB+ superframe
+	 * @param maxAuLength the maximum AU length of a plain record
+	 * @return the AUs found
+	 * @throws IOException if no segment was found, the directory holds several recordings or a segment can't be read
+	 */
+	public static RecordingAnalysis analyze(File recording, int minAuLength, int maxAuLength) throws IOException {
+		File recordingDir = recording.isDirectory() ? recording : recording.getAbsoluteFile().getParentFile();
+		String recordingName = recording.isDirectory() ? null : TimeshiftFileWriter.getRecordingName(recording.getName());
+		if(recordingDir == null || (!recording.isDirectory() && recordingName == null)) {
+			throw new IOException("No recording: " + recording.getAbsolutePath());
+		}
+
+		File[] files = recordingDir.listFiles();
+		TreeMap<Long, File> segmentFiles = new TreeMap<>();
+		if(files != null) {
+			for(File file : files) {
+				String fileRecordingName = TimeshiftFileWriter.getRecordingName(file.getName());
+				if(fileRecordingName == null || !file.isFile()) {
+					continue;
+				}
+
+				if(recordingName == null) {
+					recordingName = fileRecordingName;
+				} else if(!recordingName.equals(fileRecordingName)) {
+					if(recording.isDirectory()) {
+						throw new IOException("Several recordings in: " + recordingDir.getAbsolutePath());
+					}
+					continue;
+				}
+
+				segmentFiles.put(TimeshiftFileWriter.getSegmentNum(file.getName()), file);
+			}
+		}
+		if(segmentFiles.isEmpty()) {
+			throw new IOException("No segments found: " + recording.getAbsolutePath());
+		}
+
+		long[] auOffsets = new long[1024];
+		int[] auDurationsUs = new int[1024];
+		int auCount = 0;
+		int configRecords = 0;
+		int segmentsWithoutHeader = 0;
+		int resyncs = 0;
+		long skippedBytes = 0;
+
+		RecordingScanner scanner = new RecordingScanner(minAuLength, maxAuLength, Runtime.getRuntime().availableProcessors());
+		try {
+			for(Map.Entry<Long, File> segmentFile : segmentFiles.entrySet()) {
+				ByteBuffer segment = TimeshiftFileWriter.mapSegment(segmentFile.getValue());
+
+				int startPos = 0;
+				SegmentHeader header = SegmentHeader.read(segment);
+				if(header != null) {
+					startPos = header.getLength();
+				} else {
+					++segmentsWithoutHeader;
+				}
+
+				Result records = scanner.scan(segment, segmentFile.getKey() * TimeshiftFileWriter.SEGMENT_SIZE, startPos);
+				resyncs += records.getResyncs();
+				skippedBytes += records.getSkippedBytes();
+				for(int i = 0; i < records.size(); i++) {
+					if(records.isConfigAt(i)) {
+						++configRecords;
+						continue;
+					}
+
+					if(auCount == auOffsets.length) {
+						auOffsets = Arrays.copyOf(auOffsets, auCount * 2);
+						auDurationsUs = Arrays.copyOf(auDurationsUs, auCount * 2);
+					}
+					auOffsets[auCount] = records.offsetAt(i);
+					auDurationsUs[auCount] = records.durationUsAt(i);
+					++auCount;
+				}
+			}
+		} finally {
+			scanner.shutDown();
+		}
+
+		if(DEBUG)Log.d(TAG, "Analyzed " + recordingName + ": " + auCount + " AUs in " + segmentFiles.size() + " segments, resyncs: " + resyncs);
+
+		return new RecordingAnalysis(auOffsets, auDurationsUs, auCount, configRecords, segmentFiles.size(), segmentsWithoutHeader, resyncs, skippedBytes);
+	}
+
+	/**
+	 * Scans the data for records
+	 * @param data the data between position 0 and the limit, e.g. a mapped segment
+	 * @param baseOffset the logical offset of position 0 of the data
+	 * @param startPos the position of the first record, e.g. behind the {@link SegmentHeader}
+	 * @return the records found
+	 * @throws IOException if scanning a chunk fails
+	 */
+	Result scan(final ByteBuffer data, long baseOffset, int startPos) throws IOException {
+		int limit = data.limit();
+		int numChunks = Math.max(1, Math.min(mParallelism, (limit - startPos) / MIN_CHUNK_SIZE));
+		int chunkSize = (limit - startPos) / numChunks;
+
+		Chunk[] chunks = new Chunk[numChunks];
+		if(numChunks == 1) {
+			chunks[0] = scanChunk(data, startPos, limit);
+		} else {
+			if(mExecutor == null) {
+				mExecutor = Executors.newFixedThreadPool(mParallelism);
+			}
+
+			List<Future<Chunk>> futures = new ArrayList<>(numChunks);
+			for(int i = 0; i < numChunks; i++) {
+				final int chunkStart = startPos + i * chunkSize;
+				final int chunkEnd = (i == numChunks - 1) ? limit : chunkStart + chunkSize;
+				futures.add(mExecutor.submit(new Callable<Chunk>() {
+					@Override
+					public Chunk call() {
+						return scanChunk(data, chunkStart, chunkEnd);
+					}
+				}));
+			}
+
+			try {
+				for(int i = 0; i < numChunks; i++) {
+					chunks[i] = futures.get(i).get();
+				}
+			} catch(InterruptedException | ExecutionException exc) {
+				if(DEBUG)exc.printStackTrace();
+				throw new IOException("Scanning failed", exc);
+			}
+		}
+
+		Chunk merged = merge(data, chunks, startPos, chunkSize, limit);
+
+		//every gap in the chain of records is a resynchronization
+		int resyncs = 0;
+		long skippedBytes = 0;
+		int expectedPos = startPos;
+		for(int i = 0; i < merged.mCount; i++) {
+			int pos = merged.mPositions[i];
+			if(pos != expectedPos) {
+				++resyncs;
+				skippedBytes += pos - expectedPos;
+			}
+			expectedPos = pos + recordLengthAt(data, pos);
+		}
+		if(DEBUG && resyncs > 0)Log.w(TAG, "Resynchronized " + resyncs + " times, skipped bytes: " + skippedBytes);
+
+		return new Result(merged.mPositions, merged.mDurationsUs, merged.mCount, baseOffset, (merged.mCount > 0) ? merged.mChainEnd : startPos, resyncs, skippedBytes);
+	}
+
+	/**
+	 * Ends the scanning threads
+	 */
+	void shutDown() {
+		if(mExecutor != null) {
+			mExecutor.shutdown();
+			mExecutor = null;
+		}
+	}
+
+	/**
+	 * Returns the length of the valid record at the given position
+	 * @param data the scanned data
+	 * @param pos the position of the record
+	 * @return the length of the record including its header or {@code -1} if there is no complete valid record
+	 */
+	int recordLengthAt(ByteBuffer data, int pos) {
+		int limit = data.limit();
+		if(pos < 0 || pos + TimeshiftFileWriter.RECORD_HEADER_SIZE > limit || data.get(pos) != TimeshiftFileWriter.SYNC_HDR[0] || data.get(pos + 1) != TimeshiftFileWriter.SYNC_HDR[1]) {
+			return -1;
+		}
+
+		int auLength = data.getShort(pos + 3) & 0xFFFF;
+		byte syncEnd = data.get(pos + 2);
+		if(syncEnd == TimeshiftFileWriter.SYNC_HDR[2]) {
+			if(auLength < mMinAuLength || auLength > mMaxAuLength || pos + TimeshiftFileWriter.RECORD_HEADER_SIZE + auLength > limit) {
+				return -1;
+			}
+
+			return TimeshiftFileWriter.RECORD_HEADER_SIZE + auLength;
+		} else if(syncEnd == TimeshiftFileWriter.TIMED_SYNC_HDR[2]) {
+			//AUs are never empty, a zero length is the preallocated rest of a segment behind a torn header
+			if(auLength == 0 || pos + TimeshiftFileWriter.TIMED_RECORD_HEADER_SIZE + auLength > limit) {
+				return -1;
+			}
+			int durationUs = data.getInt(pos + TimeshiftFileWriter.RECORD_HEADER_SIZE);
+			if(durationUs <= 0 || durationUs > MAX_TIMED_DURATION_US) {
+				return -1;
+			}
+
+			return TimeshiftFileWriter.TIMED_RECORD_HEADER_SIZE + auLength;
+		} else if(syncEnd == TimeshiftFileWriter.CONFIG_SYNC_HDR[2]) {
+			if(auLength != AudioConfig.SIZE || !AudioConfig.isValidAt(data, pos + TimeshiftFileWriter.RECORD_HEADER_SIZE)) {
+				return -1;
+			}
+
+			return TimeshiftFileWriter.CONFIG_RECORD_SIZE;
+		}
+
+		return -1;
+	}
+
+	private int durationUsAt(ByteBuffer data, int pos) {
+		byte syncEnd = data.get(pos + 2);
+		if(syncEnd == TimeshiftFileWriter.TIMED_SYNC_HDR[2]) {
+			return data.getInt(pos + TimeshiftFileWriter.RECORD_HEADER_SIZE);
+		}
+
+		return (syncEnd == TimeshiftFileWriter.CONFIG_SYNC_HDR[2]) ? CONFIG_RECORD : -1;
+	}
+
+	/**
+	 * Follows the chain of records starting in the given range, synchronizing again behind invalid data
+	 */
+	private Chunk scanChunk(ByteBuffer data, int chunkStart, int chunkEnd) {
+		Chunk chunk = new Chunk();
+		followChain(data, chunk, sync(data, chunkStart, chunkEnd), chunkEnd);
+
+		return chunk;
+	}
+
+	/**
+	 * Adds the records from the given position on while they start before the end
+	 */
+	private void followChain(ByteBuffer data, Chunk chunk, int pos, int end) {
+		while(pos >= 0 && pos < end) {
+			int recordLength = recordLengthAt(data, pos);
+			if(recordLength > 0) {
+				chunk.add(pos, durationUsAt(data, pos));
+				pos += recordLength;
+				chunk.mChainEnd = pos;
+			} else {
+				pos = sync(data, pos + 1, end);
+			}
+		}
+
+		chunk.mNextPos = pos;
+	}
+
+	/**
+	 * Finds the first valid record in the range which is confirmed by the following one
+	 * @return the position of the record or {@code -1} if there is none
+	 */
+	private int sync(ByteBuffer data, int from, int end) {
+		for(int pos = from; pos < end; pos++) {
+			if(data.get(pos) != TimeshiftFileWriter.SYNC_HDR[0]) {
+				continue;
+			}
+
+			int recordLength = recordLengthAt(data, pos);
+			if(recordLength > 0 && isConfirmed(data, pos + recordLength)) {
+				return pos;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Indicates if a record candidate is followed by another record, the end of the data or the zero filled rest of a segment
+	 */
+	private boolean isConfirmed(ByteBuffer data, int nextPos) {
+		int limit = data.limit();
+		if(nextPos + TimeshiftFileWriter.SYNC_HDR.length > limit) {
+			return true;
+		}
+		if(data.get(nextPos) == 0 && data.get(nextPos + 1) == 0 && data.get(nextPos + 2) == 0) {
+			return true;
+		}
+
+		return recordLengthAt(data, nextPos) > 0;
+	}
+
+	/**
+	 * Joins the chunks along the chain of records of the previous chunks
+	 */
+	private Chunk merge(ByteBuffer data, Chunk[] chunks, int startPos, int chunkSize, int limit) {
+		Chunk merged = chunks[0];
+
+		for(int i = 1; i < chunks.length; i++) {
+			Chunk chunk = chunks[i];
+			int chunkEnd = (i == chunks.length - 1) ? limit : startPos + (i + 1) * chunkSize;
+
+			//without a chain to follow a sequential scan synchronizes from the start of the chunk, like the chunk did
+			int joinIdx = (merged.mNextPos < 0) ? 0 : -1;
+			int pos = merged.mNextPos;
+			while(joinIdx < 0 && pos >= 0 && pos < chunkEnd) {
+				joinIdx = Arrays.binarySearch(chunk.mPositions, 0, chunk.mCount, pos);
+				if(joinIdx >= 0) {
+					break;
+				}
+
+				//the previous chain continues in this chunk, the chunk synchronized somewhere else
+				int recordLength = recordLengthAt(data, pos);
+				if(recordLength <= 0) {
+					//invalid data, the rest of the chunk is scanned like a sequential scan would
+					followChain(data, merged, pos, chunkEnd);
+					break;
+				}
+				merged.add(pos, durationUsAt(data, pos));
+				pos += recordLength;
+				merged.mChainEnd = pos;
+				merged.mNextPos = pos;
+			}
+
+			if(joinIdx >= 0) {
+				for(int j = joinIdx; j < chunk.mCount; j++) {
+					merged.add(chunk.mPositions[j], chunk.mDurationsUs[j]);
+				}
+				if(chunk.mCount > joinIdx) {
+					merged.mChainEnd = chunk.mChainEnd;
+				}
+				merged.mNextPos = chunk.mNextPos;
+			}
+		}
+
+		return merged;
+	}
+}
@@ -0,0 +1,300 @@
+package eu.hradio.timeshiftplayer;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static eu.hradio.timeshiftplayer.BuildConfig.DEBUG;
+
+/**
+ * Writes the recordings of several services on a single thread. The audio callbacks only queue their AUs,
+ * the writer thread takes everything queued at once and writes the AUs of every recording as one batch,
+ * so the number of writes doesn't grow with the number of AUs. The order of the writes of one recording
+ * is kept, the recordings don't wait for each other.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class RecordingWriteScheduler {
+
+	private static final String TAG = "RecordingWriteScheduler";
+
+	private static final int JOB_RECORD = 0;
+	private static final int JOB_FRAME = 1;
+	private static final int JOB_CONFIG = 2;
+	private static final int JOB_CLOSE = 3;
+	private static final int JOB_SHUTDOWN = 4;
+
+	/**
+	 * Informed on the writer thread about every submitted AU
+	 */
+	interface WriteListener {
+
+		/**
+		 * Called after the AU was committed
+		 */
+		void auWritten();
+
+		/**
+		 * Called if writing the AU failed. It is missing in the recording, the following AUs take its number.
+		 */
+		void auLost();
+	}
+
+	private static final class Job {
+		final int mType;
+		final TimeshiftFileWriter mWriter;
+		final byte[] mData;
+		final AudioConfig mConfig;
+		final WriteListener mListener;
+		final CountDownLatch mDone;
+
+		Job(int type, TimeshiftFileWriter writer, byte[] data, AudioConfig config, WriteListener listener, CountDownLatch done) {
+			mType = type;
+			mWriter = writer;
+			mData = data;
+			mConfig = config;
+			mListener = listener;
+			mDone = done;
+		}
+	}
+
+	/**
+	 * The AUs of one recording collected from a batch
+	 */
+	private static final class Pending {
+		final int mType;
+		final List<byte[]> mData = new ArrayList<>();
+		final List<WriteListener> mListeners = new ArrayList<>();
+
+		Pending(int type) {
+			mType = type;
+		}
+	}
+
+	private final LinkedBlockingQueue<Job> mJobs = new LinkedBlockingQueue<>();
+	private final Thread mWriterThread;
+	private volatile boolean mRunning = true;
+
+	//only used by the writer thread
+	private final List<Job> mBatch = new ArrayList<>();
+	private final Map<TimeshiftFileWriter, Pending> mPending = new LinkedHashMap<>();
+	//released after the last job was written
+	private CountDownLatch mShutDownDone = null;
+
+	RecordingWriteScheduler() {
+		mWriterThread = new Thread(mWriterRunnable, "RecordingWriter");
+		mWriterThread.start();
+	}
+
+	/**
+	 * Queues an AU record, see {@link TimeshiftFileWriter#writeRecord(byte[])}
+	 * @param writer the {@link TimeshiftFileWriter} of the recording
+	 * @param auData the AU, it is copied
+	 * @param listener informed about the outcome or {@code null}
+	 */
+	void submitRecord(TimeshiftFileWriter writer, byte[] auData, WriteListener listener) {
+		submit(new Job(JOB_RECORD, writer, auData.clone(), null, listener, null));
+	}
+
+	/**
+	 * Queues a frame, see {@link TimeshiftFileWriter#writeFrame(byte[])}
+	 * @param writer the {@link TimeshiftFileWriter} of the recording
+	 * @param frameData the frame, it is copied
+	 * @param listener informed about the outcome or {@code null}
+	 */
+	void submitFrame(TimeshiftFileWriter writer, byte[] frameData, WriteListener listener) {
+		submit(new Job(JOB_FRAME, writer, frameData.clone(), null, listener, null));
+	}
+
+	/**
+	 * Queues the configuration of the following AUs, see {@link TimeshiftFileWriter#writeConfig(AudioConfig)}
+	 * @param writer the {@link TimeshiftFileWriter} of the recording
+	 * @param config the {@link AudioConfig} of the following AUs
+	 */
+	void submitConfig(TimeshiftFileWriter writer, AudioConfig config) {
+		submit(new Job(JOB_CONFIG, writer, null, config, null, null));
+	}
+
+	/**
+	 * Writes everything queued for the recording and closes it. Blocks until the recording is closed.
+	 * @param writer the {@link TimeshiftFileWriter} of the recording
+	 */
+	void close(TimeshiftFileWriter writer) {
+		CountDownLatch done = new CountDownLatch(1);
+		if(submit(new Job(JOB_CLOSE, writer, null, null, null, done))) {
+			await(done);
+		} else {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes everything queued and ends the writer thread. Recordings closed afterwards are closed on the calling thread.
+	 */
+	void shutDown() {
+		CountDownLatch done = new CountDownLatch(1);
+		if(submit(new Job(JOB_SHUTDOWN, null, null, null, null, done))) {
+			await(done);
+		}
+	}
+
+	/**
+	 * Queues the job if the writer thread is running
+	 * @return {@code true} if the job was queued
+	 */
+	private synchronized boolean submit(Job job) {
+		if(!mRunning) {
+			if(DEBUG)Log.w(TAG, "Writer thread not running, dropping job: " + job.mType);
+			return false;
+		}
+
+		mJobs.add(job);
+		return true;
+	}
+
+	private synchronized void stopRunning() {
+		mRunning = false;
+	}
+
+	private void await(CountDownLatch done) {
+		try {
+			done.await();
+		} catch(InterruptedException interExc) {
+			if(DEBUG)interExc.printStackTrace();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private final Runnable mWriterRunnable = new Runnable() {
+		@Override
+		public void run() {
+			while(mRunning) {
+				try {
+					mBatch.add(mJobs.take());
+				} catch(InterruptedException interExc) {
+					if(DEBUG)interExc.printStackTrace();
+					continue;
+				}
+				mJobs.drainTo(mBatch);
+
+				processBatch();
+				mBatch.clear();
+			}
+
+			//jobs queued behind the shutdown
+			mJobs.drainTo(mBatch);
+			processBatch();
+			mBatch.clear();
+
+			if(mShutDownDone != null) {
+				mShutDownDone.countDown();
+			}
+		}
+	};
+
+	private void processBatch() {
+		for(Job job : mBatch) {
+			switch(job.mType) {
+				case JOB_RECORD:
+				case JOB_FRAME: {
+					Pending pending = mPending.get(job.mWriter);
+					if(pending != null && pending.mType != job.mType) {
+						writePending(job.mWriter);
+						pending = null;
+					}
+					if(pending == null) {
+						pending = new Pending(job.mType);
+						mPending.put(job.mWriter, pending);
+					}
+
+					pending.mData.add(job.mData);
+					pending.mListeners.add(job.mListener);
+					break;
+				}
+				case JOB_CONFIG: {
+					//keeps the order of the recording
+					writePending(job.mWriter);
+					try {
+						job.mWriter.writeConfig(job.mConfig);
+					} catch(IOException ioExc) {
+						if(DEBUG)ioExc.printStackTrace();
+					}
+					break;
+				}
+				case JOB_CLOSE: {
+					writePending(job.mWriter);
+					job.mWriter.close();
+					job.mDone.countDown();
+					break;
+				}
+				case JOB_SHUTDOWN: {
+					for(TimeshiftFileWriter writer : new ArrayList<>(mPending.keySet())) {
+						writePending(writer);
+					}
+					//nothing is queued anymore, the rest of the batch and the jobs queued behind are written before shutDown() returns
+					stopRunning();
+					mShutDownDone = job.mDone;
+					break;
+				}
+			}
+		}
+
+		for(TimeshiftFileWriter writer : new ArrayList<>(mPending.keySet())) {
+			writePending(writer);
+		}
+	}
+
+	private void writePending(TimeshiftFileWriter writer) {
+		Pending pending = mPending.remove(writer);
+		if(pending == null) {
+			return;
+		}
+
+		long committedBefore = writer.getCommittedAus();
+		try {
+			if(pending.mType == JOB_RECORD) {
+				writer.writeRecords(pending.mData);
+			} else {
+				writer.writeFrames(pending.mData);
+			}
+		} catch(IOException ioExc) {
+			if(DEBUG)ioExc.printStackTrace();
+		}
+
+		//a failed batch may be committed in part, the AUs behind the committed ones are lost
+		long numWritten = writer.getCommittedAus() - committedBefore;
+		if(DEBUG && numWritten < pending.mData.size())Log.w(TAG, "Lost " + (pending.mData.size() - numWritten) + " AUs");
+		for(int i = 0; i < pending.mListeners.size(); i++) {
+			WriteListener listener = pending.mListeners.get(i);
+			if(listener == null) {
+				continue;
+			}
+
+			if(i < numWritten) {
+				listener.auWritten();
+			} else {
+				listener.auLost();
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package eu.hradio.timeshiftplayer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The versioned header at the beginning of every segment of a recording. It makes a segment readable on its own:
+ * it holds the {@link AudioConfig} of the first AU, the number and presentation time of the first AU to place
+ * the segment in the {@link AuOffsetIndex} and the name of the {@link MetadataLog} of the recording.
+ *
+ * 4 bytes magic 'H' 'R' 'T' 'S', 1 byte version, 2 bytes header length, 8 bytes segment number,
+ * 8 bytes first AU number, 8 bytes presentation time of the first AU in microseconds, {@link AudioConfig#SIZE}
+ * bytes configuration, 1 byte length and the ASCII name of the metadata log.
+ * Later versions only append fields, a reader skips them with the header length.
+ * The magic never starts a record, so a segment without a header is recognized too.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class SegmentHeader {
+
+	//4 bytes magic: 'H' 'R' 'T' 'S'
+	static final byte[] MAGIC = {0x48, 0x52, 0x54, 0x53};
+	static final int VERSION = 1;
+
+	//position of the 16 bit header length behind magic and version
+	static final int LENGTH_POS = 5;
+	private static final int CONFIG_POS = 31;
+	private static final int NAME_POS = CONFIG_POS + AudioConfig.SIZE;
+	private static final int MAX_NAME_LENGTH = 0xFF;
+	static final int MAX_SIZE = NAME_POS + 1 + MAX_NAME_LENGTH;
+
+	private static final Charset NAME_CHARSET = Charset.forName("US-ASCII");
+
+	private final long mSegmentNum;
+	private final long mFirstAu;
+	private final long mFirstPtsUs;
+	private final AudioConfig mConfig;
+	private final byte[] mMetadataName;
+	private final int mLength;
+
+	/**
+	 * Creates a {@link SegmentHeader}
+	 * @param segmentNum the number of the segment
+	 * @param firstAu the number of the first AU of the segment
+	 * @param firstPtsUs the presentation time of the first AU of the segment in microseconds
+	 * @param config the {@link AudioConfig} of the first AU of the segment
+	 * @param metadataFileName the file name of the {@link MetadataLog} of the recording
+	 */
+	SegmentHeader(long segmentNum, long firstAu, long firstPtsUs, AudioConfig config, String metadataFileName) {
+		this(segmentNum, firstAu, firstPtsUs, config, metadataFileName.getBytes(NAME_CHARSET), 0);
+	}
+
+	private SegmentHeader(long segmentNum, long firstAu, long firstPtsUs, AudioConfig config, byte[] metadataName, int length) {
+		if(metadataName.length > MAX_NAME_LENGTH) {
+			throw new IllegalArgumentException("Metadata file name too long: " + metadataName.length);
+		}
+
+		mSegmentNum = segmentNum;
+		mFirstAu = firstAu;
+		mFirstPtsUs = firstPtsUs;
+		mConfig = config;
+		mMetadataName = metadataName;
+		mLength = Math.max(length, NAME_POS + 1 + metadataName.length);
+	}
+
+	/**
+	 * Reads the header at the beginning of a segment
+	 * @param segment the segment data from position 0 on
+	 * @return the {@link SegmentHeader} or {@code null} if the segment doesn't start with a complete valid header
+	 */
+	static SegmentHeader read(ByteBuffer segment) {
+		if(segment.limit() < NAME_POS + 1) {
+			return null;
+		}
+		for(int i = 0; i < MAGIC.length; i++) {
+			if(segment.get(i) != MAGIC[i]) {
+				return null;
+			}
+		}
+
+		int version = segment.get(MAGIC.length) & 0xFF;
+		int length = segment.getShort(LENGTH_POS) & 0xFFFF;
+		int nameLength = segment.get(NAME_POS) & 0xFF;
+		if(version < 1 || length < NAME_POS + 1 + nameLength || length > segment.limit()) {
+			return null;
+		}
+
+		AudioConfig config = AudioConfig.read(segment, CONFIG_POS);
+		if(config == null) {
+			return null;
+		}
+
+		byte[] metadataName = new byte[nameLength];
+		for(int i = 0; i < nameLength; i++) {
+			metadataName[i] = segment.get(NAME_POS + 1 + i);
+		}
+
+		return new SegmentHeader(segment.getLong(7), segment.getLong(15), segment.getLong(23), config, metadataName, length);
+	}
+
+	/**
+	 * Serializes the header at the position of the buffer
+	 * @param buffer the buffer with at least {@link #getLength()} bytes remaining
+	 */
+	void write(ByteBuffer buffer) {
+		buffer.put(MAGIC);
+		buffer.put((byte)VERSION);
+		buffer.putShort((short)mLength);
+		buffer.putLong(mSegmentNum);
+		buffer.putLong(mFirstAu);
+		buffer.putLong(mFirstPtsUs);
+		mConfig.write(buffer);
+		buffer.put((byte)mMetadataName.length);
+		buffer.put(mMetadataName);
+	}
+
+	/**
+	 * Returns the length of the header, the first record of the segment follows it
+	 * @return the length of the header in bytes
+	 */
+	int getLength() {
+		return mLength;
+	}
+
+	long getSegmentNum() {
+		return mSegmentNum;
+	}
+
+	long getFirstAu() {
+		return mFirstAu;
+	}
+
+	long getFirstPtsUs() {
+		return mFirstPtsUs;
+	}
+
+	AudioConfig getConfig() {
+		return mConfig;
+	}
+
+	String getMetadataFileName() {
+		return new String(mMetadataName, NAME_CHARSET);
+	}
+}
@@ -0,0 +1,273 @@
+package eu.hradio.timeshiftplayer;
+
+import android.util.Log;
+
+import org.omri.radioservice.RadioService;
+import org.omri.radioservice.RadioServiceDab;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static eu.hradio.timeshiftplayer.BuildConfig.DEBUG;
+
+/**
+ * The durable state of a recording which is not contained in the recording itself, kept in the recording directory.
+ * It names the recording and the recorded service and holds a checkpoint of every retained
+ * segment with the number and presentation time of its first AU, and the positions of the {@link SkipItem}s.
+ * With a checkpoint the AU index of a recording is rebuilt by a single sequential pass over the retained segments
+ * after the process was killed. The audio configuration is read from the {@link SegmentHeader}s of the recording.
+ *
+ * The manifest is small and rewritten as a whole into a temporary file which then replaces the manifest,
+ * so a crash always leaves either the previous or the new manifest behind.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class SessionManifest {
+
+	private static final String TAG = "SessionManifest";
+
+	static final String MANIFEST_FILE_NAME = "session.manifest";
+
+	//4 bytes magic: 'T' 'S' 'S' 'M'
+	private static final int MANIFEST_MAGIC = 0x5453534D;
+	private static final int MANIFEST_VERSION = 2;
+
+	private final File mManifestFile;
+	private final String mServiceKey;
+	private final String mRecordingName;
+	private final long mMaxTimeshiftMs;
+	private final long mAuDurationUs;
+
+	//segment number, number and presentation time of the first AU of every retained segment, oldest first
+	private final List<long[]> mCheckpoints = new ArrayList<>();
+	//AU number and skip point of every SkipItem
+	private final List<long[]> mSkipEntries = new ArrayList<>();
+
+	/**
+	 * Creates the manifest of a new recording, the first segment starts with AU 0
+	 * @param recordingDir the directory of the recording
+	 * @param serviceKey the key of the recorded service, see {@link #getServiceKey(RadioService)}
+	 * @param recordingName the name prefix of the segment files
+	 * @param maxTimeshiftMs the maximum timeshift depth in milliseconds or {@code 0} for unlimited
+	 * @param auDurationUs the duration of the AUs written without a duration of their own
+	 */
+	SessionManifest(File recordingDir, String serviceKey, String recordingName, long maxTimeshiftMs, long auDurationUs) {
+		mManifestFile = new File(recordingDir, MANIFEST_FILE_NAME);
+		mServiceKey = serviceKey;
+		mRecordingName = recordingName;
+		mMaxTimeshiftMs = maxTimeshiftMs;
+		mAuDurationUs = auDurationUs;
+
+		mCheckpoints.add(new long[]{0, 0, 0});
+	}
+
+	/**
+	 * Reads the manifest of a recording
+	 * @param recordingDir the directory of the recording
+	 * @return the {@link SessionManifest} or {@code null} if the directory contains no valid manifest
+	 */
+	static SessionManifest read(File recordingDir) {
+		File manifestFile = new File(recordingDir, MANIFEST_FILE_NAME);
+		if(!manifestFile.isFile()) {
+			return null;
+		}
+
+		DataInputStream manifestIn = null;
+		try {
+			manifestIn = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)));
+			if(manifestIn.readInt() != MANIFEST_MAGIC || manifestIn.readInt() != MANIFEST_VERSION) {
+				if(DEBUG)Log.w(TAG, "Unknown manifest: " + manifestFile.getAbsolutePath());
+				return null;
+			}
+
+			SessionManifest manifest = new SessionManifest(recordingDir, manifestIn.readUTF(), manifestIn.readUTF(), manifestIn.readLong(), manifestIn.readLong());
+			manifest.mCheckpoints.clear();
+			int checkpointCount = manifestIn.readInt();
+			for(int i = 0; i < checkpointCount; i++) {
+				manifest.mCheckpoints.add(new long[]{manifestIn.readLong(), manifestIn.readLong(), manifestIn.readLong()});
+			}
+			int skipCount = manifestIn.readInt();
+			for(int i = 0; i < skipCount; i++) {
+				manifest.mSkipEntries.add(new long[]{manifestIn.readLong(), manifestIn.readLong()});
+			}
+
+			return manifest.mCheckpoints.isEmpty() ? null : manifest;
+		} catch(IOException ioExc) {
+			if(DEBUG)ioExc.printStackTrace();
+		} finally {
+			if(manifestIn != null) {
+				try {
+					manifestIn.close();
+				} catch(IOException ioExc) {
+					if(DEBUG)ioExc.printStackTrace();
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the key identifying a service across process restarts
+	 * @param service the {@link RadioService}
+	 * @return the ensemble and service id of DAB services, the service label otherwise
+	 */
+	static String getServiceKey(RadioService service) {
+		if(service instanceof RadioServiceDab) {
+			RadioServiceDab dabSrv = (RadioServiceDab)service;
+			return "dab_" + Integer.toHexString(dabSrv.getEnsembleId()) + "_" + Integer.toHexString(dabSrv.getServiceId());
+		}
+
+		return "label_" + service.getServiceLabel();
+	}
+
+	File getRecordingDir() {
+		return mManifestFile.getParentFile();
+	}
+
+	String getServiceKey() {
+		return mServiceKey;
+	}
+
+	String getRecordingName() {
+		return mRecordingName;
+	}
+
+	long getMaxTimeshiftMs() {
+		return mMaxTimeshiftMs;
+	}
+
+	long getAuDurationUs() {
+		return mAuDurationUs;
+	}
+
+	/**
+	 * Returns the checkpoint of the oldest retained segment whose file still exists.
+	 * A segment may have been dropped after the manifest was written.
+	 * @return the segment number, number and presentation time of the first AU or {@code null} if no segment exists
+	 */
+	synchronized long[] getFirstCheckpoint() {
+		for(long[] checkpoint : mCheckpoints) {
+			if(new File(getRecordingDir(), TimeshiftFileWriter.getSegmentFileName(mRecordingName, checkpoint[0])).isFile()) {
+				return checkpoint.clone();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the AU number and skip point of every {@link SkipItem}
+	 * @return the skip entries, oldest first
+	 */
+	synchronized List<long[]> getSkipEntries() {
+		return new ArrayList<>(mSkipEntries);
+	}
+
+	/**
+	 * Adds the checkpoint of a new segment
+	 * @param segmentNum the number of the segment
+	 * @param firstAu the number of the first AU of the segment
+	 * @param firstPtsUs the presentation time of the first AU of the segment in microseconds
+	 */
+	synchronized void addCheckpoint(long segmentNum, long firstAu, long firstPtsUs) {
+		mCheckpoints.add(new long[]{segmentNum, firstAu, firstPtsUs});
+	}
+
+	synchronized void addSkipEntry(long auNum, long skipPoint) {
+		mSkipEntries.add(new long[]{auNum, skipPoint});
+	}
+
+	/**
+	 * Removes the checkpoints of dropped segments and the skip entries before the first retained AU
+	 * @param firstAu the number of the first retained AU
+	 */
+	synchronized void trimBefore(long firstAu) {
+		Iterator<long[]> checkpointIter = mCheckpoints.iterator();
+		while(checkpointIter.hasNext() && mCheckpoints.size() > 1) {
+			if(checkpointIter.next()[1] >= firstAu) {
+				break;
+			}
+			checkpointIter.remove();
+		}
+
+		Iterator<long[]> skipIter = mSkipEntries.iterator();
+		while(skipIter.hasNext()) {
+			if(skipIter.next()[0] < firstAu) {
+				skipIter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Writes the manifest durably, replacing the previous one
+	 */
+	synchronized void write() {
+		File tmpFile = new File(mManifestFile.getPath() + ".tmp");
+		FileOutputStream fileOut = null;
+		try {
+			fileOut = new FileOutputStream(tmpFile);
+			DataOutputStream manifestOut = new DataOutputStream(new BufferedOutputStream(fileOut));
+			manifestOut.writeInt(MANIFEST_MAGIC);
+			manifestOut.writeInt(MANIFEST_VERSION);
+			manifestOut.writeUTF(mServiceKey);
+			manifestOut.writeUTF(mRecordingName);
+			manifestOut.writeLong(mMaxTimeshiftMs);
+			manifestOut.writeLong(mAuDurationUs);
+
+			manifestOut.writeInt(mCheckpoints.size());
+			for(long[] checkpoint : mCheckpoints) {
+				manifestOut.writeLong(checkpoint[0]);
+				manifestOut.writeLong(checkpoint[1]);
+				manifestOut.writeLong(checkpoint[2]);
+			}
+			manifestOut.writeInt(mSkipEntries.size());
+			for(long[] skipEntry : mSkipEntries) {
+				manifestOut.writeLong(skipEntry[0]);
+				manifestOut.writeLong(skipEntry[1]);
+			}
+
+			manifestOut.flush();
+			fileOut.getFD().sync();
+			manifestOut.close();
+			fileOut = null;
+
+			if(!tmpFile.renameTo(mManifestFile)) {
+				if(DEBUG)Log.e(TAG, "Replacing manifest failed");
+			}
+		} catch(IOException ioExc) {
+			if(DEBUG)ioExc.printStackTrace();
+		} finally {
+			if(fileOut != null) {
+				try {
+					fileOut.close();
+				} catch(IOException ioExc) {
+					if(DEBUG)ioExc.printStackTrace();
+				}
+			}
+		}
+	}
+}
@@ -30,11 +30,12 @@ public class SkipItem implements Serializable {
 
 	private static final long serialVersionUID = -2914224179187786533L;
 
-	private final String mSkipDlsPathName;
-	private String mSkipVisPathName = null;
+	//the label and slide are read from the log when needed
+	private final transient MetadataLog mMetadataLog;
 	private final long mWrittenAusSoFar;
 	private final long mSkipPoint;
-	private final long mRelTimepoint;
+	//shifted on the writer thread when the oldest segment is dropped
+	private volatile long mRelTimepoint;
 
 	//SBT addition
 	private final boolean mIsSbtItem;
@@ -42,8 +43,8 @@ public class SkipItem implements Serializable {
 	private final Textual mSbtTextual;
 	private final long mSbtRealTime;
 
-	SkipItem(long numAus, long skipPoint, long relativeTimepoint, String skipDlsPath) {
-		if(DEBUG) Log.d("SkipItem", "Creating at Path: " + skipDlsPath);
+	SkipItem(long numAus, long skipPoint, long relativeTimepoint, MetadataLog metadataLog) {
+		if(DEBUG) Log.d("SkipItem", "Creating at AU: " + numAus);
 		mIsSbtItem = false;
 		mSbtVisual = null;
 		mSbtTextual = null;
@@ -51,8 +52,7 @@ public class SkipItem implements Serializable {
 
 		mWrittenAusSoFar = numAus;
 		mSkipPoint = skipPoint;
-		//mSkipDls = skipDls;
-		mSkipDlsPathName = skipDlsPath;
+		mMetadataLog = metadataLog;
 		mRelTimepoint = relativeTimepoint;
 	}
 
@@ -65,11 +65,15 @@ public class SkipItem implements Serializable {
 		mSbtRealTime = sbtRealTime;
 
 		mWrittenAusSoFar = 0;
-		mSkipDlsPathName = "";
+		mMetadataLog = null;
 	}
 
-	void setSkipSls(String skipVisPathName) {
-		mSkipVisPathName = skipVisPathName;
+	/**
+	 * Moves the relative time point towards the start after the beginning of the timeshift was dropped
+	 * @param droppedMs the dropped duration in milliseconds
+	 */
+	void shiftRelativeTimepoint(long droppedMs) {
+		mRelTimepoint = Math.max(0, mRelTimepoint - droppedMs);
 	}
 
 	/**
@@ -102,7 +106,7 @@ public class SkipItem implements Serializable {
 	 */
 	public Textual getSkipTextual() {
 		if(!mIsSbtItem) {
-			return TimeshiftUtils.deserializeTextual(mSkipDlsPathName);
+			return (mMetadataLog != null) ? mMetadataLog.getLatestTextual(mWrittenAusSoFar) : null;
 		} else {
 			return mSbtTextual;
 		}
@@ -114,7 +118,7 @@ public class SkipItem implements Serializable {
 	 */
 	public Visual getSkipVisual() {
 		if(!mIsSbtItem) {
-			return TimeshiftUtils.deserializeVisual(mSkipVisPathName);
+			return (mMetadataLog != null) ? mMetadataLog.getLatestVisual(mWrittenAusSoFar) : null;
 		} else {
 			return mSbtVisual;
 		}
@@ -0,0 +1,207 @@
+package eu.hradio.timeshiftplayer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A byte ring buffer for exactly one producer thread and one consumer thread.
+ * Unlike {@link CircularByteBuffer} it takes no monitor. The producer only writes the tail, the consumer only
+ * writes the head and both publish their index with an ordered store, so {@link #available()} and {@link #free()}
+ * are plain volatile reads. The capacity is a power of two and indices are masked instead of taken modulo.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class SpscByteRingBuffer {
+
+	private final byte[] mBuffer;
+	private final int mMask;
+
+	//total bytes ever read, only written by the consumer
+	private final AtomicLong mHead = new AtomicLong();
+	//total bytes ever written, only written by the producer
+	private final AtomicLong mTail = new AtomicLong();
+
+	//last seen index of the other side, saves volatile reads while there is enough data or space
+	private long mCachedHead = 0;
+	private long mCachedTail = 0;
+
+	/**
+	 * Creates a {@link SpscByteRingBuffer}
+	 * @param minCapacity the minimum capacity, rounded up to the next power of two
+	 */
+	SpscByteRingBuffer(int minCapacity) {
+		if(minCapacity <= 0 || minCapacity > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid capacity: " + minCapacity);
+		}
+
+		int capacity = Integer.highestOneBit(minCapacity);
+		if(capacity < minCapacity) {
+			capacity <<= 1;
+		}
+
+		mBuffer = new byte[capacity];
+		mMask = capacity - 1;
+	}
+
+	/**
+	 * The capacity is the maximum number of bytes that can be stored inside this buffer
+	 */
+	int capacity() {
+		return mBuffer.length;
+	}
+
+	/**
+	 * Returns the number of bytes that can be read without additional puts
+	 */
+	int available() {
+		return (int)(mTail.get() - mHead.get());
+	}
+
+	/**
+	 * Returns the number of bytes that can still be put without additional gets
+	 */
+	int free() {
+		return mBuffer.length - available();
+	}
+
+	/**
+	 * Puts as many of the given bytes as possible into this buffer. Producer only.
+	 * @return number of bytes actually put into this buffer (0 if the buffer is full)
+	 */
+	int put(byte[] src) {
+		return put(src, 0, src.length);
+	}
+
+	/**
+	 * Puts as many of the given bytes as possible into this buffer. Producer only.
+	 * @return number of bytes actually put into this buffer (0 if the buffer is full)
+	 */
+	int put(byte[] src, int off, int len) {
+		long tail = mTail.get();
+		int count = writable(tail, len);
+		if(count <= 0) {
+			return 0;
+		}
+
+		int idx = (int)tail & mMask;
+		int first = Math.min(count, mBuffer.length - idx);
+		System.arraycopy(src, off, mBuffer, idx, first);
+		System.arraycopy(src, off + first, mBuffer, 0, count - first);
+
+		mTail.lazySet(tail + count);
+		return count;
+	}
+
+	/**
+	 * Puts as many of the remaining bytes of the given buffer as possible into this buffer and advances its position. Producer only.
+	 * @return number of bytes actually put into this buffer (0 if the buffer is full)
+	 */
+	int put(ByteBuffer src) {
+		long tail = mTail.get();
+		int count = writable(tail, src.remaining());
+		if(count <= 0) {
+			return 0;
+		}
+
+		int idx = (int)tail & mMask;
+		int first = Math.min(count, mBuffer.length - idx);
+		src.get(mBuffer, idx, first);
+		src.get(mBuffer, 0, count - first);
+
+		mTail.lazySet(tail + count);
+		return count;
+	}
+
+	/**
+	 * Gets as many of the requested bytes as available from this buffer. Consumer only.
+	 * @return number of bytes actually got from this buffer (0 if no bytes are available)
+	 */
+	int get(byte[] dst) {
+		return get(dst, 0, dst.length);
+	}
+
+	/**
+	 * Gets as many of the requested bytes as available from this buffer. Consumer only.
+	 * @return number of bytes actually got from this buffer (0 if no bytes are available)
+	 */
+	int get(byte[] dst, int off, int len) {
+		long head = mHead.get();
+		int count = readable(head, len);
+		if(count <= 0) {
+			return 0;
+		}
+
+		int idx = (int)head & mMask;
+		int first = Math.min(count, mBuffer.length - idx);
+		System.arraycopy(mBuffer, idx, dst, off, first);
+		System.arraycopy(mBuffer, 0, dst, off + first, count - first);
+
+		mHead.lazySet(head + count);
+		return count;
+	}
+
+	/**
+	 * Gets as many bytes as available and fit into the remaining space of the given buffer and advances its position. Consumer only.
+	 * @return number of bytes actually got from this buffer (0 if no bytes are available)
+	 */
+	int get(ByteBuffer dst) {
+		long head = mHead.get();
+		int count = readable(head, dst.remaining());
+		if(count <= 0) {
+			return 0;
+		}
+
+		int idx = (int)head & mMask;
+		int first = Math.min(count, mBuffer.length - idx);
+		dst.put(mBuffer, idx, first);
+		dst.put(mBuffer, 0, count - first);
+
+		mHead.lazySet(head + count);
+		return count;
+	}
+
+	/**
+	 * Discards all available bytes. Consumer only.
+	 */
+	void clear() {
+		long tail = mTail.get();
+		mCachedTail = tail;
+		mHead.lazySet(tail);
+	}
+
+	//the number of bytes to put, at most the wanted length
+	private int writable(long tail, int wanted) {
+		int free = mBuffer.length - (int)(tail - mCachedHead);
+		if(free < wanted) {
+			mCachedHead = mHead.get();
+			free = mBuffer.length - (int)(tail - mCachedHead);
+		}
+
+		return Math.min(free, wanted);
+	}
+
+	//the number of bytes to get, at most the wanted length
+	private int readable(long head, int wanted) {
+		int available = (int)(mCachedTail - head);
+		if(available < wanted) {
+			mCachedTail = mTail.get();
+			available = (int)(mCachedTail - head);
+		}
+
+		return Math.min(available, wanted);
+	}
+}
@@ -0,0 +1,322 @@
+package eu.hradio.timeshiftplayer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Plays decoded 16 bit PCM faster without changing the pitch (WSOLA). The input is cut into overlapping
+ * sequences, the start of every sequence is searched in a small window for the best match with the end of the
+ * previous one and the overlap is crossfaded. Fewer input samples are consumed than output, by the playback rate.
+ *
+ * The buffers are allocated when the format changes or a larger input arrives, processing itself allocates nothing.
+ * Not thread safe, the instance is used on the thread delivering the decoded PCM.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class TimeStretcher {
+
+	static final float MIN_RATE = 1.05f;
+	static final float MAX_RATE = 1.5f;
+
+	//length of a sequence, of the crossfade between two sequences and of the window searched for the crossfade position
+	private static final int SEQUENCE_MS = 40;
+	private static final int OVERLAP_MS = 8;
+	private static final int SEEK_WINDOW_MS = 15;
+	//the window is searched in coarse steps with every second sample first, then in full around the best position
+	private static final int COARSE_STEP = 4;
+	private static final int COARSE_SAMPLE_STEP = 2;
+
+	//input frames kept besides the largest required input, one HE-AAC output buffer fits
+	private static final int INITIAL_INPUT_FRAMES = 4096;
+
+	private int mSampleRate = 0;
+	private int mChannels = 0;
+
+	private int mSequenceFrames;
+	private int mOverlapFrames;
+	private int mSeekFrames;
+
+	private float mRate = 1.0f;
+	private double mNominalSkip;
+	private double mSkipFract = 0;
+	private int mRequiredFrames;
+
+	//interleaved input, the frames from mInputStart to mInputEnd are not yet consumed
+	private short[] mInput = new short[0];
+	private int mInputStart = 0;
+	private int mInputEnd = 0;
+
+	//the end of the previous sequence, crossfaded into the next one, and its downmix to correlate with
+	private short[] mOverlap = new short[0];
+	private int[] mReference = new int[0];
+	private boolean mHasOverlap = false;
+	//the input frame behind the overlap, unstretched playback continues there
+	private int mOverlapEnd = 0;
+
+	private ByteBuffer mOutput = ByteBuffer.allocate(0);
+
+	/**
+	 * Limits a playback rate to the supported rates
+	 * @param rate the wanted rate
+	 * @return {@code 1.0} for a rate up to {@code 1.0}, otherwise the rate between {@link #MIN_RATE} and {@link #MAX_RATE}
+	 */
+	static float clampRate(float rate) {
+		if(!(rate > 1.0f)) {
+			return 1.0f;
+		}
+
+		return Math.max(MIN_RATE, Math.min(rate, MAX_RATE));
+	}
+
+	/**
+	 * Sets the format of the PCM. A changed format drops the buffered PCM.
+	 * @param sampleRate the sample rate in Hz
+	 * @param channels the number of interleaved channels, {@code 1} or {@code 2}
+	 */
+	void configure(int sampleRate, int channels) {
+		channels = Math.max(1, Math.min(channels, 2));
+		if(sampleRate == mSampleRate && channels == mChannels) {
+			return;
+		}
+
+		mSampleRate = sampleRate;
+		mChannels = channels;
+		mSequenceFrames = sampleRate * SEQUENCE_MS / 1000;
+		mOverlapFrames = sampleRate * OVERLAP_MS / 1000;
+		mSeekFrames = sampleRate * SEEK_WINDOW_MS / 1000;
+
+		mOverlap = new short[mOverlapFrames * channels];
+		mReference = new int[mOverlapFrames];
+		mInput = new short[0];
+		ensureInputCapacity(requiredFrames(MAX_RATE) + INITIAL_INPUT_FRAMES);
+
+		clear();
+		updateSkip();
+	}
+
+	/**
+	 * Sets the playback rate
+	 * @param rate the playback rate, at least {@code 1.0}
+	 */
+	void setRate(float rate) {
+		rate = Math.max(1.0f, Math.min(rate, MAX_RATE));
+		if(rate != mRate) {
+			mRate = rate;
+			updateSkip();
+		}
+	}
+
+	/**
+	 * Indicates if PCM is held back for the next sequence
+	 * @return {@code true} if {@link #flush()} returns PCM
+	 */
+	boolean hasPending() {
+		return mHasOverlap || mInputEnd > mInputStart;
+	}
+
+	/**
+	 * Drops the buffered PCM, e.g. after the play position moved
+	 */
+	void clear() {
+		mInputStart = 0;
+		mInputEnd = 0;
+		mHasOverlap = false;
+		mOverlapEnd = 0;
+		mSkipFract = 0;
+	}
+
+	/**
+	 * Stretches decoded PCM. PCM for the next sequence is held back and returned by a later call.
+	 * @param pcm the PCM in native byte order between position and limit, the buffer is not modified
+	 * @return the stretched PCM between position and limit, valid until the next call
+	 */
+	ByteBuffer process(ByteBuffer pcm) {
+		int numFrames = pcm.remaining() / (2 * mChannels);
+		compactInput();
+		ensureInputCapacity(mInputEnd + numFrames);
+
+		ByteOrder order = pcm.order();
+		pcm.order(ByteOrder.nativeOrder());
+		int pcmPos = pcm.position();
+		int inputPos = mInputEnd * mChannels;
+		for(int i = 0; i < numFrames * mChannels; i++) {
+			mInput[inputPos + i] = pcm.getShort(pcmPos + 2 * i);
+		}
+		pcm.order(order);
+		mInputEnd += numFrames;
+
+		mOutput.clear();
+		if(!mHasOverlap && mInputEnd - mInputStart >= mOverlapFrames) {
+			//the first sequence starts with itself as overlap and is crossfaded with itself
+			setOverlap(mInputStart);
+			mOverlapEnd = mInputStart + mOverlapFrames;
+		}
+		while(mHasOverlap && mInputEnd - mInputStart >= mRequiredFrames) {
+			processSequence();
+		}
+
+		mOutput.flip();
+		return mOutput;
+	}
+
+	/**
+	 * Returns the PCM held back unstretched and empties the buffer, to continue at the normal rate
+	 * @return the remaining PCM between position and limit, valid until the next call
+	 */
+	ByteBuffer flush() {
+		mOutput.clear();
+		int fromFrame = mInputStart;
+		if(mHasOverlap) {
+			for(short sample : mOverlap) {
+				mOutput.putShort(sample);
+			}
+			//the input between the overlap and the next sequence was skipped
+			fromFrame = Math.max(mOverlapEnd, mInputStart);
+		}
+		for(int i = fromFrame * mChannels; i < mInputEnd * mChannels; i++) {
+			mOutput.putShort(mInput[i]);
+		}
+
+		clear();
+		mOutput.flip();
+		return mOutput;
+	}
+
+	private void processSequence() {
+		int offset = seekBestOverlap();
+		int channels = mChannels;
+		int overlapSamples = mOverlapFrames * channels;
+		int seqStart = (mInputStart + offset) * channels;
+
+		//crossfade from the end of the previous sequence into the new one
+		for(int i = 0; i < overlapSamples; i++) {
+			int frame = i / channels;
+			int faded = (mOverlap[i] * (mOverlapFrames - frame) + mInput[seqStart + i] * frame) / mOverlapFrames;
+			mOutput.putShort((short)faded);
+		}
+
+		int tailStart = seqStart + (mSequenceFrames - mOverlapFrames) * channels;
+		for(int i = seqStart + overlapSamples; i < tailStart; i++) {
+			mOutput.putShort(mInput[i]);
+		}
+
+		setOverlap(mInputStart + offset + mSequenceFrames - mOverlapFrames);
+		mOverlapEnd = mInputStart + offset + mSequenceFrames;
+
+		mSkipFract += mNominalSkip;
+		int skip = (int)mSkipFract;
+		mSkipFract -= skip;
+		mInputStart += skip;
+	}
+
+	/**
+	 * Finds the offset in the seek window where the input matches the overlap best, by the normalized cross correlation
+	 * of the channel downmix
+	 */
+	private int seekBestOverlap() {
+		int bestOffset = 0;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for(int offset = 0; offset < mSeekFrames; offset += COARSE_STEP) {
+			double score = correlate(offset, COARSE_SAMPLE_STEP);
+			if(score > bestScore) {
+				bestScore = score;
+				bestOffset = offset;
+			}
+		}
+
+		int coarseOffset = bestOffset;
+		bestScore = Double.NEGATIVE_INFINITY;
+		int fineEnd = Math.min(coarseOffset + COARSE_STEP, mSeekFrames);
+		for(int offset = Math.max(coarseOffset - COARSE_STEP + 1, 0); offset < fineEnd; offset++) {
+			double score = correlate(offset, 1);
+			if(score > bestScore) {
+				bestScore = score;
+				bestOffset = offset;
+			}
+		}
+
+		return bestOffset;
+	}
+
+	private double correlate(int offset, int sampleStep) {
+		long corr = 0;
+		long norm = 0;
+		int channels = mChannels;
+		int inputPos = (mInputStart + offset) * channels;
+		for(int i = 0; i < mOverlapFrames; i += sampleStep) {
+			int idx = inputPos + i * channels;
+			int sample = channels == 1 ? mInput[idx] : mInput[idx] + mInput[idx + 1];
+			corr += (long)mReference[i] * sample;
+			norm += (long)sample * sample;
+		}
+
+		return corr / Math.sqrt(norm + 1);
+	}
+
+	private void setOverlap(int fromFrame) {
+		int channels = mChannels;
+		System.arraycopy(mInput, fromFrame * channels, mOverlap, 0, mOverlap.length);
+		for(int i = 0; i < mOverlapFrames; i++) {
+			mReference[i] = channels == 1 ? mOverlap[i] : mOverlap[2 * i] + mOverlap[2 * i + 1];
+		}
+		mHasOverlap = true;
+	}
+
+	private void updateSkip() {
+		mNominalSkip = mRate * (mSequenceFrames - mOverlapFrames);
+		mRequiredFrames = requiredFrames(mRate);
+	}
+
+	/**
+	 * Returns the input frames needed for a sequence: the skip to the next sequence and its overlap or the whole
+	 * sequence, and the seek window
+	 */
+	private int requiredFrames(float rate) {
+		int skip = (int)Math.ceil(rate * (mSequenceFrames - mOverlapFrames));
+		return Math.max(skip + mOverlapFrames, mSequenceFrames) + mSeekFrames;
+	}
+
+	private void compactInput() {
+		if(mInputStart == 0) {
+			return;
+		}
+
+		int consumed = Math.min(mInputStart, mInputEnd);
+		System.arraycopy(mInput, consumed * mChannels, mInput, 0, (mInputEnd - consumed) * mChannels);
+		mInputStart -= consumed;
+		mInputEnd -= consumed;
+		mOverlapEnd -= consumed;
+	}
+
+	private void ensureInputCapacity(int numFrames) {
+		int capacity = mInput.length / Math.max(mChannels, 1);
+		if(capacity >= numFrames) {
+			return;
+		}
+
+		while(capacity < numFrames) {
+			capacity = Math.max(capacity * 2, INITIAL_INPUT_FRAMES);
+		}
+
+		short[] input = new short[capacity * mChannels];
+		System.arraycopy(mInput, 0, input, 0, Math.min(mInput.length, input.length));
+		mInput = input;
+
+		//the output never exceeds the input and the overlap
+		mOutput = ByteBuffer.allocate((capacity + mOverlapFrames) * mChannels * 2).order(ByteOrder.nativeOrder());
+	}
+}
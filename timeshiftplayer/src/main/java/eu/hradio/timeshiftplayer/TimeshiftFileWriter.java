@@ -0,0 +1,725 @@
+package eu.hradio.timeshiftplayer;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static eu.hradio.timeshiftplayer.BuildConfig.DEBUG;
+
+/**
+ * Writes the timeshift recording as a ring of fixed-size segment files. Every record is assembled
+ * in reusable direct buffers and written with a single gathering write. The length of the completely
+ * written records is published to the play thread as committed length, so no flushing is needed to
+ * read the recording consistently.
+ *
+ * Records never span two segments, the offsets handed out are logical offsets where the segment
+ * number is the offset divided by {@link #SEGMENT_SIZE}. Segments are created with their full size,
+ * which allows the reader to map a whole segment beyond the live edge. If a maximum number of
+ * retained AUs is set, the oldest segment is dropped as soon as the remaining segments cover the
+ * retention window, so the disk usage stays constant during continuous operation.
+ *
+ * AUs of varying duration, e.g. re-encoded PCM, are written as timed records which carry the duration
+ * of the AU in microseconds behind the length. The durations are summed up in the {@link AuOffsetIndex}
+ * to exact presentation times, all other records get the fixed AU duration of the recording.
+ *
+ * A batch of records is assembled in one direct buffer and written with a single write per segment,
+ * which is used by the {@link RecordingWriteScheduler} to write the AUs of several recordings on one thread.
+ *
+ * Every segment starts with a {@link SegmentHeader} carrying the {@link AudioConfig} of its first AU. A changed
+ * configuration is written as configuration record in front of the first AU it applies to, the configuration of
+ * every AU is available to the play thread with {@link #getConfig(long)}.
+ *
+ * The recording of a previous session is reopened with {@link #reopen(File, String, AuOffsetIndex, long, long, long, long, RecordingScanner)}.
+ * Starting at a checkpoint of the {@link SessionManifest} the records of the retained segments are indexed by a
+ * {@link RecordingScanner} over the mapped segments, appending continues behind the last complete record.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+final class TimeshiftFileWriter {
+
+	private static final String TAG = "TimeshiftFileWriter";
+
+	//3 bytes SyncWord: 'D' 'A' 'B'
+	static final byte[] SYNC_HDR = {0x44, 0x41, 0x42};
+	//3 bytes SyncWord + 2 bytes AU length
+	static final int RECORD_HEADER_SIZE = 5;
+	//3 bytes SyncWord: 'D' 'A' 'T'
+	static final byte[] TIMED_SYNC_HDR = {0x44, 0x41, 0x54};
+	//3 bytes SyncWord + 2 bytes AU length + 4 bytes AU duration in microseconds
+	static final int TIMED_RECORD_HEADER_SIZE = 9;
+	//3 bytes SyncWord: 'D' 'A' 'C'
+	static final byte[] CONFIG_SYNC_HDR = {0x44, 0x41, 0x43};
+	//3 bytes SyncWord + 2 bytes configuration length + the AudioConfig
+	static final int CONFIG_RECORD_SIZE = 5 + AudioConfig.SIZE;
+
+	static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+
+	private static final String SEGMENT_FILE_SUFFIX = ".dab";
+	private static final String METADATA_FILE_SUFFIX = ".meta";
+
+	private static final int MAX_RECORD_PAYLOAD = 0xFFFF;
+	private static final int INITIAL_PAYLOAD_CAPACITY = 4096;
+
+	/**
+	 * Listener to be informed when a segment of the recording was started or the oldest segment was dropped
+	 */
+	interface SegmentListener {
+
+		/**
+		 * Called on the writing thread after a new segment was started
+		 * @param segmentNum the number of the segment
+		 * @param firstAu the number of the first AU of the segment
+		 * @param firstPtsUs the presentation time of the first AU of the segment in microseconds
+		 */
+		void segmentStarted(long segmentNum, long firstAu, long firstPtsUs);
+
+		/**
+		 * Called on the writing thread after the oldest segment was dropped and the {@link AuOffsetIndex} was trimmed
+		 * @param firstRetainedAu the number of the first AU still in the recording
+		 * @param droppedUs the duration of the dropped AUs in microseconds
+		 */
+		void segmentDropped(long firstRetainedAu, long droppedUs);
+	}
+
+	private final File mRecordingDir;
+	private final String mRecordingName;
+	private final AuOffsetIndex mAuIndex;
+
+	private final ByteBuffer mHeaderBuffer = ByteBuffer.allocateDirect(TIMED_RECORD_HEADER_SIZE);
+	//segment headers and configuration records
+	private final ByteBuffer mContainerBuffer = ByteBuffer.allocateDirect(SegmentHeader.MAX_SIZE);
+	private ByteBuffer mPayloadBuffer = ByteBuffer.allocateDirect(INITIAL_PAYLOAD_CAPACITY);
+	private final ByteBuffer[] mRecordBuffers = new ByteBuffer[2];
+	private ByteBuffer mBatchBuffer = null;
+
+	private RandomAccessFile mSegmentFile = null;
+	private FileChannel mSegmentChannel = null;
+	private long mSegmentNum = -1;
+	private long mFirstSegmentNum = 0;
+	//number of the first AU of every retained segment, oldest first
+	private final ArrayDeque<Long> mSegmentFirstAus = new ArrayDeque<>();
+
+	//the configuration of the next AU, repeated in the header of every segment
+	private AudioConfig mConfig = null;
+	//first AU number and configuration of every configuration change, oldest first
+	private final ArrayList<Long> mConfigAus = new ArrayList<>();
+	private final ArrayList<AudioConfig> mConfigs = new ArrayList<>();
+
+	private long mMaxRetainedAus = 0;
+	//duration of the records without their own duration
+	private long mAuDurationUs = 0;
+	private SegmentListener mSegmentListener = null;
+
+	private volatile long mCommittedLength = 0;
+	private volatile long mCommittedAus = 0;
+
+	/**
+	 * Creates a {@link TimeshiftFileWriter}
+	 * @param recordingDir the directory for the segment files
+	 * @param recordingName the name prefix of the segment files
+	 * @param auIndex the {@link AuOffsetIndex} to fill with the offsets of the written AUs
+	 * @throws IOException if the first segment can't be created
+	 */
+	TimeshiftFileWriter(File recordingDir, String recordingName, AuOffsetIndex auIndex) throws IOException {
+		this(recordingDir, recordingName, auIndex, 0);
+
+		startSegment();
+	}
+
+	private TimeshiftFileWriter(File recordingDir, String recordingName, AuOffsetIndex auIndex, long firstSegmentNum) {
+		mRecordingDir = recordingDir;
+		mRecordingName = recordingName;
+		mAuIndex = auIndex;
+
+		mRecordBuffers[0] = mHeaderBuffer;
+		mRecordBuffers[1] = mPayloadBuffer;
+
+		mFirstSegmentNum = firstSegmentNum;
+		mSegmentNum = firstSegmentNum - 1;
+	}
+
+	/**
+	 * Reopens the recording of a previous session to resume appending. The {@link AuOffsetIndex} is rebuilt
+	 * from the given checkpoint, a torn record at the end of the recording is discarded.
+	 * @param recordingDir the directory of the segment files
+	 * @param recordingName the name prefix of the segment files
+	 * @param auIndex the {@link AuOffsetIndex} to fill with the offsets of the retained and new AUs
+	 * @param firstSegmentNum the number of the oldest retained segment
+	 * @param firstAu the number of the first AU of the oldest retained segment
+	 * @param firstPtsUs the presentation time of the first AU of the oldest retained segment in microseconds
+	 * @param auDurationUs the duration of the AUs written without a duration of their own
+	 * @param scanner the {@link RecordingScanner} to find the records of the segments with
+	 * @return the {@link TimeshiftFileWriter} appending to the recording
+	 * @throws IOException if the oldest retained segment doesn't exist or reading fails
+	 */
+	static TimeshiftFileWriter reopen(File recordingDir, String recordingName, AuOffsetIndex auIndex, long firstSegmentNum, long firstAu, long firstPtsUs, long auDurationUs, RecordingScanner scanner) throws IOException {
+		TimeshiftFileWriter fileWriter = new TimeshiftFileWriter(recordingDir, recordingName, auIndex, firstSegmentNum);
+		fileWriter.mAuDurationUs = auDurationUs;
+
+		fileWriter.resume(firstAu, firstPtsUs, scanner);
+
+		return fileWriter;
+	}
+
+	/**
+	 * Returns the name of a segment file
+	 * @param recordingName the name prefix of the segment files
+	 * @param segmentNum the number of the segment
+	 * @return the file name of the segment
+	 */
+	static String getSegmentFileName(String recordingName, long segmentNum) {
+		return recordingName + "_" + segmentNum + SEGMENT_FILE_SUFFIX;
+	}
+
+	/**
+	 * Returns the recording a segment file belongs to
+	 * @param fileName the file name of a segment
+	 * @return the name prefix of the segment files of the recording or {@code null} if the name is no segment file name
+	 */
+	static String getRecordingName(String fileName) {
+		return (getSegmentNum(fileName) >= 0) ? fileName.substring(0, fileName.lastIndexOf('_')) : null;
+	}
+
+	/**
+	 * Returns the number of the segment in a segment file
+	 * @param fileName the file name of a segment
+	 * @return the number of the segment or {@code -1} if the name is no segment file name
+	 */
+	static long getSegmentNum(String fileName) {
+		int numPos = fileName.lastIndexOf('_') + 1;
+		if(numPos <= 1 || !fileName.endsWith(SEGMENT_FILE_SUFFIX) || numPos >= fileName.length() - SEGMENT_FILE_SUFFIX.length()) {
+			return -1;
+		}
+
+		try {
+			return Long.parseLong(fileName.substring(numPos, fileName.length() - SEGMENT_FILE_SUFFIX.length()));
+		} catch(NumberFormatException numExc) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Maps a segment file read-only
+	 * @param segmentFile the file of the segment
+	 * @return the segment data from position 0 on, at most {@link #SEGMENT_SIZE} bytes
+	 * @throws IOException if the segment can't be mapped
+	 */
+	static ByteBuffer mapSegment(File segmentFile) throws IOException {
+		RandomAccessFile segmentRaf = new RandomAccessFile(segmentFile, "r");
+		try {
+			FileChannel segmentChannel = segmentRaf.getChannel();
+			return segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(segmentChannel.size(), SEGMENT_SIZE));
+		} finally {
+			segmentRaf.close();
+		}
+	}
+
+	/**
+	 * Returns the name of the {@link MetadataLog} file of a recording, it is referenced by every {@link SegmentHeader}
+	 * @param recordingName the name prefix of the segment files
+	 * @return the file name of the metadata log
+	 */
+	static String getMetadataFileName(String recordingName) {
+		return recordingName + METADATA_FILE_SUFFIX;
+	}
+
+	/**
+	 * Sets the maximum number of AUs to retain. Segments are only dropped as a whole, so up to one segment more is retained.
+	 * @param maxRetainedAus the maximum number of AUs to retain or {@code 0} to retain the whole recording
+	 */
+	void setMaxRetainedAus(long maxRetainedAus) {
+		if(DEBUG)Log.d(TAG, "Retaining max AUs: " + maxRetainedAus);
+		mMaxRetainedAus = maxRetainedAus;
+	}
+
+	/**
+	 * Sets the duration of the AUs written without a duration of their own
+	 * @param auDurationUs the duration of an AU in microseconds
+	 */
+	void setAuDurationUs(long auDurationUs) {
+		mAuDurationUs = auDurationUs;
+	}
+
+	/**
+	 * Sets the {@link SegmentListener} to be informed about dropped segments
+	 * @param listener the {@link SegmentListener} or {@code null}
+	 */
+	void setSegmentListener(SegmentListener listener) {
+		mSegmentListener = listener;
+	}
+
+	/**
+	 * Returns the file of the given segment
+	 * @param segmentNum the number of the segment
+	 * @return the file of the segment, it may not exist (anymore)
+	 */
+	File getSegmentFile(long segmentNum) {
+		return new File(mRecordingDir, getSegmentFileName(mRecordingName, segmentNum));
+	}
+
+	/**
+	 * Sets the configuration of the following AUs. It is written into the header of the current segment if it contains
+	 * no record yet, as configuration record otherwise, and into the header of every following segment.
+	 * @param config the {@link AudioConfig} of the following AUs
+	 * @throws IOException if writing fails
+	 */
+	void writeConfig(AudioConfig config) throws IOException {
+		mConfig = config;
+		addConfig(mCommittedAus, config);
+
+		if(mCommittedLength == mSegmentNum * SEGMENT_SIZE) {
+			writeSegmentHeader();
+			return;
+		}
+
+		long segmentNum = mSegmentNum;
+		ensureSegmentSpace(CONFIG_RECORD_SIZE);
+		if(mSegmentNum != segmentNum) {
+			//the header of the new segment carries the configuration
+			return;
+		}
+
+		mContainerBuffer.clear();
+		mContainerBuffer.put(CONFIG_SYNC_HDR);
+		mContainerBuffer.putShort((short)AudioConfig.SIZE);
+		config.write(mContainerBuffer);
+		mContainerBuffer.flip();
+		writeFully(mContainerBuffer);
+
+		mCommittedLength += CONFIG_RECORD_SIZE;
+	}
+
+	/**
+	 * Returns the configuration an AU was recorded with
+	 * @param auNum the number of the AU
+	 * @return the {@link AudioConfig} of the AU or {@code null} if no configuration was written yet
+	 */
+	AudioConfig getConfig(long auNum) {
+		synchronized(mConfigs) {
+			for(int i = mConfigs.size() - 1; i > 0; i--) {
+				if(mConfigAus.get(i) <= auNum) {
+					return mConfigs.get(i);
+				}
+			}
+
+			//the oldest configuration also applies to already dropped AUs
+			return mConfigs.isEmpty() ? null : mConfigs.get(0);
+		}
+	}
+
+	/**
+	 * Writes an AU record consisting of {@link #SYNC_HDR}, the 16 bit AU length and the AU itself
+	 * @param auData the AU
+	 * @throws IOException if writing fails
+	 */
+	void writeRecord(byte[] auData) throws IOException {
+		if(auData.length > MAX_RECORD_PAYLOAD) {
+			throw new IllegalArgumentException("AU too large for a record: " + auData.length);
+		}
+
+		ensureSegmentSpace(RECORD_HEADER_SIZE + auData.length);
+		long recordOffset = mCommittedLength;
+
+		mHeaderBuffer.clear();
+		mHeaderBuffer.put(SYNC_HDR);
+		mHeaderBuffer.putShort((short)auData.length);
+		mHeaderBuffer.flip();
+
+		fillPayload(auData);
+		writeFully(mRecordBuffers);
+
+		commit(recordOffset, RECORD_HEADER_SIZE + auData.length, mAuDurationUs);
+	}
+
+	/**
+	 * Writes a timed AU record consisting of {@link #TIMED_SYNC_HDR}, the 16 bit AU length, the 32 bit AU duration and the AU itself
+	 * @param auData the AU
+	 * @param durationUs the duration of the AU in microseconds
+	 * @throws IOException if writing fails
+	 */
+	void writeTimedRecord(byte[] auData, int durationUs) throws IOException {
+		if(auData.length > MAX_RECORD_PAYLOAD) {
+			throw new IllegalArgumentException("AU too large for a record: " + auData.length);
+		}
+
+		ensureSegmentSpace(TIMED_RECORD_HEADER_SIZE + auData.length);
+		long recordOffset = mCommittedLength;
+
+		mHeaderBuffer.clear();
+		mHeaderBuffer.put(TIMED_SYNC_HDR);
+		mHeaderBuffer.putShort((short)auData.length);
+		mHeaderBuffer.putInt(durationUs);
+		mHeaderBuffer.flip();
+
+		fillPayload(auData);
+		writeFully(mRecordBuffers);
+
+		commit(recordOffset, TIMED_RECORD_HEADER_SIZE + auData.length, durationUs);
+	}
+
+	/**
+	 * Writes a self-synchronizing frame without a record header, e.g. a MPEG-1 Layer II frame
+	 * @param frameData the frame
+	 * @throws IOException if writing fails
+	 */
+	void writeFrame(byte[] frameData) throws IOException {
+		ensureSegmentSpace(frameData.length);
+		long frameOffset = mCommittedLength;
+
+		fillPayload(frameData);
+		writeFully(mPayloadBuffer);
+
+		commit(frameOffset, frameData.length, mAuDurationUs);
+	}
+
+	/**
+	 * Writes several AU records like {@link #writeRecord(byte[])}, the records of one segment with a single write
+	 * @param aus the AUs
+	 * @throws IOException if writing fails
+	 */
+	void writeRecords(List<byte[]> aus) throws IOException {
+		for(byte[] auData : aus) {
+			if(auData.length > MAX_RECORD_PAYLOAD) {
+				throw new IllegalArgumentException("AU too large for a record: " + auData.length);
+			}
+		}
+
+		writeBatch(aus, RECORD_HEADER_SIZE);
+	}
+
+	/**
+	 * Writes several frames like {@link #writeFrame(byte[])}, the frames of one segment with a single write
+	 * @param frames the frames
+	 * @throws IOException if writing fails
+	 */
+	void writeFrames(List<byte[]> frames) throws IOException {
+		writeBatch(frames, 0);
+	}
+
+	/**
+	 * Returns the logical length of the recording up to the end of the last completely written record
+	 * @return the committed length in bytes
+	 */
+	long getCommittedLength() {
+		return mCommittedLength;
+	}
+
+	/**
+	 * Returns the number of completely written AUs
+	 * @return the number of completely written AUs
+	 */
+	long getCommittedAus() {
+		return mCommittedAus;
+	}
+
+	/**
+	 * Closes the current segment and truncates it to its used length
+	 */
+	void close() {
+		try {
+			if(mSegmentChannel != null) {
+				mSegmentChannel.truncate(mCommittedLength - mSegmentNum * SEGMENT_SIZE);
+				mSegmentChannel.close();
+				mSegmentFile.close();
+			}
+		} catch(IOException ioExc) {
+			if(DEBUG)ioExc.printStackTrace();
+		}
+	}
+
+	/**
+	 * Closes the writer and deletes all retained segment files
+	 */
+	void delete() {
+		close();
+
+		for(long segmentNum = mFirstSegmentNum; segmentNum <= mSegmentNum; segmentNum++) {
+			if(!getSegmentFile(segmentNum).delete()) {
+				if(DEBUG)Log.w(TAG, "Could not delete segment: " + segmentNum);
+			}
+		}
+	}
+
+	private void writeBatch(List<byte[]> data, int headerSize) throws IOException {
+		int first = 0;
+		while(first < data.size()) {
+			ensureSegmentSpace(headerSize + data.get(first).length);
+
+			//all following records that fit into the current segment
+			long segmentEnd = (mSegmentNum + 1) * SEGMENT_SIZE;
+			long batchEnd = mCommittedLength;
+			int end = first;
+			while(end < data.size() && batchEnd + headerSize + data.get(end).length <= segmentEnd) {
+				batchEnd += headerSize + data.get(end).length;
+				++end;
+			}
+
+			int batchLength = (int)(batchEnd - mCommittedLength);
+			if(mBatchBuffer == null || mBatchBuffer.capacity() < batchLength) {
+				int newCapacity = mBatchBuffer != null ? mBatchBuffer.capacity() : INITIAL_PAYLOAD_CAPACITY;
+				while(newCapacity < batchLength) {
+					newCapacity *= 2;
+				}
+
+				if(DEBUG)Log.d(TAG, "Growing batch buffer to: " + newCapacity);
+				mBatchBuffer = ByteBuffer.allocateDirect(newCapacity);
+			}
+
+			mBatchBuffer.clear();
+			for(int i = first; i < end; i++) {
+				byte[] recordData = data.get(i);
+				if(headerSize > 0) {
+					mBatchBuffer.put(SYNC_HDR);
+					mBatchBuffer.putShort((short)recordData.length);
+				}
+				mBatchBuffer.put(recordData);
+			}
+			mBatchBuffer.flip();
+			writeFully(mBatchBuffer);
+
+			long recordOffset = mCommittedLength;
+			for(int i = first; i < end; i++) {
+				int recordLength = headerSize + data.get(i).length;
+				commit(recordOffset, recordLength, mAuDurationUs);
+				recordOffset += recordLength;
+			}
+
+			first = end;
+		}
+	}
+
+	private void writeSegmentHeader() throws IOException {
+		SegmentHeader header = new SegmentHeader(mSegmentNum, mCommittedAus, mAuIndex.getPtsUs(mCommittedAus), mConfig, getMetadataFileName(mRecordingName));
+
+		mContainerBuffer.clear();
+		header.write(mContainerBuffer);
+		mContainerBuffer.flip();
+		writeFully(mContainerBuffer);
+
+		mCommittedLength += header.getLength();
+	}
+
+	private void addConfig(long firstAu, AudioConfig config) {
+		synchronized(mConfigs) {
+			int last = mConfigs.size() - 1;
+			if(last >= 0 && mConfigAus.get(last) == firstAu) {
+				//no AU was written with the previous configuration
+				mConfigs.set(last, config);
+			} else if(last < 0 || !mConfigs.get(last).equals(config)) {
+				mConfigAus.add(firstAu);
+				mConfigs.add(config);
+			}
+		}
+	}
+
+	/**
+	 * Removes the configuration changes before the first retained AU, except the one the AU was recorded with
+	 */
+	private void trimConfigs(long firstRetainedAu) {
+		synchronized(mConfigs) {
+			while(mConfigs.size() > 1 && mConfigAus.get(1) <= firstRetainedAu) {
+				mConfigAus.remove(0);
+				mConfigs.remove(0);
+			}
+		}
+	}
+
+	/**
+	 * Starts the next segment if the record doesn't fit into the current one
+	 */
+	private void ensureSegmentSpace(int recordLength) throws IOException {
+		if(mCommittedLength + recordLength > (mSegmentNum + 1) * SEGMENT_SIZE) {
+			mSegmentChannel.close();
+			mSegmentFile.close();
+
+			startSegment();
+		}
+	}
+
+	private void startSegment() throws IOException {
+		++mSegmentNum;
+		if(DEBUG)Log.d(TAG, "Starting segment: " + mSegmentNum);
+
+		mSegmentFile = new RandomAccessFile(getSegmentFile(mSegmentNum), "rw");
+		//sets the full length without writing it, the reader can map the whole segment
+		mSegmentFile.setLength(SEGMENT_SIZE);
+		mSegmentChannel = mSegmentFile.getChannel();
+
+		mCommittedLength = mSegmentNum * SEGMENT_SIZE;
+		mSegmentFirstAus.addLast(mCommittedAus);
+
+		if(mConfig != null) {
+			writeSegmentHeader();
+		}
+
+		if(mSegmentListener != null) {
+			mSegmentListener.segmentStarted(mSegmentNum, mCommittedAus, mAuIndex.getPtsUs(mCommittedAus));
+		}
+	}
+
+	/**
+	 * Indexes the records of all retained segments and opens the last segment for appending
+	 */
+	private void resume(long firstAu, long firstPtsUs, RecordingScanner scanner) throws IOException {
+		long scanStartNs = System.nanoTime();
+
+		mAuIndex.reset(firstAu, firstPtsUs);
+		mCommittedAus = firstAu;
+
+		while(getSegmentFile(mSegmentNum + 1).isFile()) {
+			++mSegmentNum;
+			mSegmentFirstAus.addLast(mCommittedAus);
+			mCommittedLength = scanSegment(mSegmentNum, scanner);
+		}
+		if(mSegmentNum < mFirstSegmentNum) {
+			throw new IOException("Segment not found: " + getSegmentFile(mFirstSegmentNum).getAbsolutePath());
+		}
+
+		//cuts a torn record, the full length is restored with zeros
+		long segmentLength = mCommittedLength - mSegmentNum * SEGMENT_SIZE;
+		mSegmentFile = new RandomAccessFile(getSegmentFile(mSegmentNum), "rw");
+		mSegmentFile.setLength(segmentLength);
+		mSegmentFile.setLength(SEGMENT_SIZE);
+		mSegmentChannel = mSegmentFile.getChannel();
+		mSegmentChannel.position(segmentLength);
+
+		if(segmentLength == 0 && mConfig != null) {
+			writeSegmentHeader();
+		}
+
+		if(DEBUG)Log.d(TAG, "Resumed " + (mCommittedAus - firstAu) + " AUs in " + (mSegmentNum - mFirstSegmentNum + 1) + " segments in " + ((System.nanoTime() - scanStartNs) / 1000000) + " ms");
+	}
+
+	/**
+	 * Indexes the complete records of a segment
+	 * @return the logical offset behind the last complete record, behind the header if the segment contains no record
+	 */
+	private long scanSegment(long segmentNum, RecordingScanner scanner) throws IOException {
+		long segmentOffset = segmentNum * SEGMENT_SIZE;
+
+		ByteBuffer segment = mapSegment(getSegmentFile(segmentNum));
+
+		//a segment the process was killed in before its header was written contains no record
+		int startPos = 0;
+		SegmentHeader header = SegmentHeader.read(segment);
+		if(header != null) {
+			if(DEBUG && header.getFirstAu() != mCommittedAus)Log.w(TAG, "Segment " + segmentNum + " starts at AU " + mCommittedAus + " instead of: " + header.getFirstAu());
+			mConfig = header.getConfig();
+			addConfig(mCommittedAus, mConfig);
+			startPos = header.getLength();
+		}
+
+		RecordingScanner.Result records = scanner.scan(segment, segmentOffset, startPos);
+		for(int i = 0; i < records.size(); i++) {
+			if(records.isConfigAt(i)) {
+				mConfig = AudioConfig.read(segment, (int)(records.offsetAt(i) - segmentOffset) + RECORD_HEADER_SIZE);
+				addConfig(mCommittedAus, mConfig);
+				continue;
+			}
+
+			int durationUs = records.durationUsAt(i);
+			mAuIndex.append(records.offsetAt(i), (durationUs >= 0) ? durationUs : mAuDurationUs);
+			++mCommittedAus;
+		}
+
+		return records.getEndOffset();
+	}
+
+	private void dropSegments() {
+		long retainFrom = mCommittedAus - mMaxRetainedAus;
+		long firstPtsUs = mAuIndex.getPtsUs(mSegmentFirstAus.peekFirst());
+		boolean dropped = false;
+
+		//drop the oldest segment as long as the following segments alone cover the retention window
+		while(mSegmentFirstAus.size() > 1) {
+			Long oldestFirstAu = mSegmentFirstAus.pollFirst();
+			if(mSegmentFirstAus.peekFirst() > retainFrom) {
+				mSegmentFirstAus.addFirst(oldestFirstAu);
+				break;
+			}
+
+			//a mapping of the play thread stays valid until it is released
+			if(!getSegmentFile(mFirstSegmentNum).delete()) {
+				if(DEBUG)Log.w(TAG, "Could not delete segment: " + mFirstSegmentNum);
+			}
+			++mFirstSegmentNum;
+
+			mAuIndex.trimBefore(mSegmentFirstAus.peekFirst());
+			trimConfigs(mSegmentFirstAus.peekFirst());
+			dropped = true;
+		}
+
+		if(dropped && mSegmentListener != null) {
+			if(DEBUG)Log.d(TAG, "Dropped segments up to: " + (mFirstSegmentNum - 1));
+			long firstRetainedAu = mSegmentFirstAus.peekFirst();
+			mSegmentListener.segmentDropped(firstRetainedAu, mAuIndex.getPtsUs(firstRetainedAu) - firstPtsUs);
+		}
+	}
+
+	private void fillPayload(byte[] data) {
+		if(mPayloadBuffer.capacity() < data.length) {
+			int newCapacity = mPayloadBuffer.capacity();
+			while(newCapacity < data.length) {
+				newCapacity *= 2;
+			}
+
+			if(DEBUG)Log.d(TAG, "Growing payload buffer to: " + newCapacity);
+			mPayloadBuffer = ByteBuffer.allocateDirect(newCapacity);
+			mRecordBuffers[1] = mPayloadBuffer;
+		}
+
+		mPayloadBuffer.clear();
+		mPayloadBuffer.put(data);
+		mPayloadBuffer.flip();
+	}
+
+	private void commit(long recordOffset, int recordLength, long durationUs) {
+		mAuIndex.append(recordOffset, durationUs);
+
+		//publish the length before the AU count, a reader bounded by the count always finds the complete record
+		mCommittedLength = recordOffset + recordLength;
+		mCommittedAus = mCommittedAus + 1;
+
+		if(mMaxRetainedAus > 0) {
+			dropSegments();
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			mSegmentChannel.write(buffer);
+		}
+	}
+
+	private void writeFully(ByteBuffer[] buffers) throws IOException {
+		long remaining = 0;
+		for(ByteBuffer buffer : buffers) {
+			remaining += buffer.remaining();
+		}
+
+		while(remaining > 0) {
+			remaining -= mSegmentChannel.write(buffers);
+		}
+	}
+}
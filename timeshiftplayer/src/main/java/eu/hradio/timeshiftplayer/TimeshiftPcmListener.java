@@ -0,0 +1,35 @@
+package eu.hradio.timeshiftplayer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the decoded PCM of a {@link TimeshiftPlayer} without copying it.
+ * Unlike {@link org.omri.radioservice.RadioServiceAudiodataListener} no array is allocated per decoded buffer.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+public interface TimeshiftPcmListener {
+
+	/**
+	 * Called with decoded 16 bit PCM in native byte order
+	 * @param pcmData a read-only view of the decoder output between position and limit. The view is only valid during
+	 *                this call, copy the data if you need it afterwards.
+	 * @param numChannels the number of channels
+	 * @param samplingRate the sampling rate in Hz
+	 */
+	void pcmAudioData(ByteBuffer pcmData, int numChannels, int samplingRate);
+}
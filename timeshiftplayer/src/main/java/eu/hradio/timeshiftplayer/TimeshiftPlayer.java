@@ -83,6 +83,19 @@ public interface TimeshiftPlayer extends Serializable {
 	 */
 	long getDuration();
 
+	/**
+	 * Sets the playback rate to catch up with the live position. The decoded audio is time-stretched without
+	 * changing the pitch. When the playback reaches the live position the rate falls back to {@code 1.0}.
+	 * @param rate {@code 1.0} for normal playback or a rate between {@code 1.05} and {@code 1.5}
+	 */
+	void setPlaybackRate(float rate);
+
+	/**
+	 * Returns the playback rate
+	 * @return the playback rate, {@code 1.0} for normal playback
+	 */
+	float getPlaybackRate();
+
 	/**
 	 * Adds a {@link TimeshiftListener} to receive status updates
 	 * @param listener {@link TimeshiftListener} to add
@@ -107,6 +120,18 @@ public interface TimeshiftPlayer extends Serializable {
 	 */
 	void removeAudioDataListener(RadioServiceAudiodataListener pcmListener);
 
+	/**
+	 * Add a {@link TimeshiftPcmListener} to receive the decoded PCM without copying it
+	 * @param pcmListener the listener to add
+	 */
+	void addPcmListener(TimeshiftPcmListener pcmListener);
+
+	/**
+	 * Remove a previously added {@link TimeshiftPcmListener} from the list of listeners
+	 * @param pcmListener the listener to remove
+	 */
+	void removePcmListener(TimeshiftPcmListener pcmListener);
+
 	/**
 	 * Returns the currently running {@link RadioService}
 	 * @return the currently running {@link RadioService} or <em>null</em> if none is running
@@ -5,8 +5,6 @@ import android.media.AudioFormat;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.util.Log;
-import android.util.LongSparseArray;
-import android.util.Pair;
 
 import org.omri.radioservice.RadioService;
 import org.omri.radioservice.RadioServiceAudiodataListener;
@@ -22,16 +20,15 @@ import org.omri.radioservice.metadata.VisualDabSlideShow;
 import org.omri.radioservice.metadata.VisualMetadataListener;
 import org.omri.radioservice.metadata.VisualType;
 
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static eu.hradio.timeshiftplayer.BuildConfig.DEBUG;
 
@@ -59,7 +56,7 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 	private static final String TAG = "TimeshiftPlayerAacAu";
 
 	private static long NANO_PART = 1000000000L;
-	private static long MIN_SUPERFRAME_SIZE = 110L;
+	static long MIN_SUPERFRAME_SIZE = 110L;
 	static long MAX_SUPERFRAME_SIZE = 2640L;
 
 	private final int MINIMUM_SECONDS_TS_BUFFER = 2;
@@ -73,24 +70,25 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 
 	int mAudioTrackSamplerate = 48000;
 	int mAudioTrackChannelConfig = AudioFormat.CHANNEL_OUT_STEREO;
+	//the number of channels of the decoded PCM
+	int mOutputChannels = 2;
 
+	//the configuration of the decoder, taken from the recording at the play position
 	int mConfCodec = 0;
 	int mConfSampling = 0;
 	int mConfChans = 0;
 	boolean mConfSbr = false;
 	boolean mConfPs = false;
+	private volatile AudioConfig mDecoderConfig = null;
+	//the configuration of the live AUs, written into the recording when it changes
+	private AudioConfig mLiveConfig = null;
 
 	File mCacheDir = null;
-	private File mCacheVisDir = null;
-	private File mCacheTextDir = null;
-	File mEncFile = null;
-	String mOutputPath;
 
-	//3 bytes SyncWord: 'D' 'A' 'B'
-	static byte[] SYNC_HDR = {0x44, 0x41, 0x42};
-
-	FileOutputStream mFileOutStream = null;
-	RandomAccessFile mInFile = null;
+	TimeshiftFileWriter mFileWriter = null;
+	MappedAuReader mAuReader = null;
+	//writes the recording on the shared writer thread of a TimeshiftRecorderManager, null to write on the audio callback
+	private RecordingWriteScheduler mWriteScheduler = null;
 
 	RadioService mTimeshiftService = null;
 
@@ -99,17 +97,31 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 	volatile boolean mDecode = false;
 
 	volatile boolean mPlaythreadRunning = false;
+	//the polling play thread waits on it at the live edge and in pause, notified by wakeDecoding()
+	private final Object mPlayLock = new Object();
+
+	//the decoded PCM is time-stretched while catching up with the live position
+	private volatile float mPlaybackRate = 1.0f;
+	private final TimeStretcher mTimeStretcher = new TimeStretcher();
 
-	private List<SkipItem> mSkipItems = new ArrayList<>();
+	private List<SkipItem> mSkipItems = new CopyOnWriteArrayList<>();
 
 	private boolean mSkipable = false;
 	private boolean mItemRunning = false;
 	private boolean mItemToggleState = false;
 
-	long mTimeshiftDuration = 0;
+	volatile long mTimeshiftDuration = 0;
 	long MS_AUDIO_PER_AU = 120;
 	long mReadAus = -1;
-	long mWrittenAus = -1;
+	//written by a single thread, the audio callback or the encoder pump, read by the metadata callbacks
+	volatile long mWrittenAus = -1;
+	//AUs the writer thread failed to write, taken off mWrittenAus by the next audio callback
+	private final AtomicInteger mLostAus = new AtomicInteger();
+	//number of the first AU still in the recording, positions are reported relative to it
+	volatile long mFirstAu = 0;
+
+	//maximum timeshift depth, 0 for unlimited
+	private long mMaxTimeshiftMs = 0;
 
 	private long mSkipPos = -1;
 	private long mSeekToPos = -1;
@@ -117,40 +129,44 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 	long mLastDuration = 0;
 
 	boolean mPlayWhenReady = false;
+	//until playback is requested only the recording runs, the decoder is created on the first play
+	private volatile boolean mPlaybackRequested = false;
 
 	CopyOnWriteArrayList<TimeshiftListener> mListeners = new CopyOnWriteArrayList<>();
 
-	private String mLastSlsPath = null;
-	private List<Pair<Long, Long> > mSkipEntries = new ArrayList<>();
+	//DLS labels and SLS slides by AU number
+	private MetadataLog mMetadataLog = null;
+	//durable state to resume the recording after the process was killed
+	private SessionManifest mManifest = null;
 
-	private LongSparseArray<String> mSlideshowFileSparse = new LongSparseArray<>();
-	private LongSparseArray<String> mLabelFileSparse = new LongSparseArray<>();
+	//file offset of every written AU record
+	final AuOffsetIndex mAuIndex = new AuOffsetIndex();
 
 	private Thread mPlayThread = null;
 
 	private CopyOnWriteArrayList<RadioServiceAudiodataListener> mAudioListeners = new CopyOnWriteArrayList<>();
+	private CopyOnWriteArrayList<TimeshiftPcmListener> mPcmListeners = new CopyOnWriteArrayList<>();
 
 	/**
 	 * Creates a {@link TimeshiftPlayerAacAu}
 	 * @param context the Application {@link Context}. Must not be {@code null}.
 	 */
 	TimeshiftPlayerAacAu(Context context) {
+		//The App specific cache dir is used to save the temporary timeshift file
+		this(new File(context.getExternalCacheDir(), "ts_" + System.currentTimeMillis()));
+	}
+
+	/**
+	 * Creates a {@link TimeshiftPlayerAacAu} for the recording in the given directory
+	 * @param cacheDir the directory of the recording, it is created if it doesn't exist
+	 */
+	TimeshiftPlayerAacAu(File cacheDir) {
 		if(DEBUG)Log.d(TAG, "Creating AacAuPlayer");
 
-		//The App specific cache dir is used to save the temporary timeshift file
-		mCacheDir = new File(context.getExternalCacheDir(), "ts_" + System.currentTimeMillis());
+		mCacheDir = cacheDir;
 		boolean dirCreated = mCacheDir.mkdir();
-		if(dirCreated) {
-			mCacheVisDir = new File(mCacheDir, "visuals");
-			mCacheVisDir.mkdir();
-
-			mCacheTextDir = new File(mCacheDir, "textuals");
-			mCacheTextDir.mkdir();
-		}
 
 		if(DEBUG)Log.d(TAG, "FileCacheDIR: " + mCacheDir.getAbsolutePath() + " : " + dirCreated);
-		if(DEBUG)Log.d(TAG, "VisCacheDIR: " + mCacheVisDir.getAbsolutePath());
-		if(DEBUG)Log.d(TAG, "TexCacheDIR: " + mCacheTextDir.getAbsolutePath());
 	}
 
 	@Override
@@ -172,6 +188,54 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 		mAudioListeners.remove(pcmListener);
 	}
 
+	@Override
+	public void addPcmListener(TimeshiftPcmListener pcmListener) {
+		if(pcmListener != null && !mPcmListeners.contains(pcmListener)) {
+			mPcmListeners.add(pcmListener);
+		}
+	}
+
+	@Override
+	public void removePcmListener(TimeshiftPcmListener pcmListener) {
+		mPcmListeners.remove(pcmListener);
+	}
+
+	/**
+	 * Sets the maximum timeshift depth. The oldest part of the recording is dropped when the depth is exceeded.
+	 * Must be called before {@link #prepare(RadioService)}.
+	 * @param maxTimeshiftMs the maximum timeshift depth in milliseconds or {@code 0} for unlimited
+	 */
+	void setMaxTimeshiftDuration(long maxTimeshiftMs) {
+		mMaxTimeshiftMs = maxTimeshiftMs;
+	}
+
+	/**
+	 * Sets the {@link RecordingWriteScheduler} to write the recording with. Must be called before {@link #prepare(RadioService)}.
+	 * @param writeScheduler the {@link RecordingWriteScheduler} or {@code null} to write on the audio callback
+	 */
+	void setWriteScheduler(RecordingWriteScheduler writeScheduler) {
+		mWriteScheduler = writeScheduler;
+	}
+
+	/**
+	 * Applies the maximum timeshift depth to the recording. Must be called again if {@link #MS_AUDIO_PER_AU} changes.
+	 */
+	void applyMaxTimeshiftDuration() {
+		applyMaxTimeshiftDuration(MS_AUDIO_PER_AU, 1000);
+	}
+
+	/**
+	 * Applies the maximum timeshift depth to the recording for AUs whose duration is no whole number of milliseconds,
+	 * the number of retained AUs is computed from the exact duration
+	 * @param samplesPerAu the number of samples of an AU
+	 * @param samplingRate the sampling rate in Hz
+	 */
+	void applyMaxTimeshiftDuration(long samplesPerAu, int samplingRate) {
+		if(mMaxTimeshiftMs > 0 && samplesPerAu > 0) {
+			mFileWriter.setMaxRetainedAus(mMaxTimeshiftMs * samplingRate / (samplesPerAu * 1000));
+		}
+	}
+
 	/**
 	 * Prepares the {@link TimeshiftPlayerAacAu}
 	 * @param timeshiftService the {@link RadioService} to timeshift
@@ -184,10 +248,69 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 
 		mTimeshiftService = timeshiftService;
 
-		mEncFile = File.createTempFile("dabtmp_" + System.currentTimeMillis(), ".dab", mCacheDir);
+		String recordingName = "dabtmp_" + System.currentTimeMillis();
+		mFileWriter = new TimeshiftFileWriter(mCacheDir, recordingName, mAuIndex);
+		mFileWriter.setSegmentListener(mSegmentListener);
+		mFileWriter.setAuDurationUs(MS_AUDIO_PER_AU * 1000);
+		mMetadataLog = new MetadataLog(new File(mCacheDir, TimeshiftFileWriter.getMetadataFileName(recordingName)));
+
+		mManifest = new SessionManifest(mCacheDir, SessionManifest.getServiceKey(timeshiftService), recordingName, mMaxTimeshiftMs, MS_AUDIO_PER_AU * 1000);
+		mManifest.write();
+
+		mPlayerPaused = false;
+		mTimeshiftService.subscribe(this);
+	}
+
+	/**
+	 * Prepares the {@link TimeshiftPlayerAacAu} to continue the recording of a previous session.
+	 * The AU index, the labels and slides and the {@link SkipItem}s are restored, new AUs are appended to the recording.
+	 * @param timeshiftService the {@link RadioService} to timeshift
+	 * @param manifest the {@link SessionManifest} of the recording
+	 * @throws IOException if no segment of the recording is left or reading it fails
+	 */
+	void resume(RadioService timeshiftService, SessionManifest manifest) throws IOException {
+		if(DEBUG) Log.d(TAG, "Resuming timeshift for: " + timeshiftService.getServiceLabel() + " from: " + mCacheDir.getAbsolutePath());
+
+		long[] checkpoint = manifest.getFirstCheckpoint();
+		if(checkpoint == null) {
+			throw new IOException("No segment left of recording: " + manifest.getRecordingName());
+		}
+
+		mPlayWhenReady = false;
+
+		mTimeshiftService = timeshiftService;
+		mMaxTimeshiftMs = manifest.getMaxTimeshiftMs();
+		mManifest = manifest;
+
+		RecordingScanner scanner = new RecordingScanner((int)MIN_SUPERFRAME_SIZE, (int)MAX_SUPERFRAME_SIZE, Runtime.getRuntime().availableProcessors());
+		try {
+			mFileWriter = TimeshiftFileWriter.reopen(mCacheDir, manifest.getRecordingName(), mAuIndex, checkpoint[0], checkpoint[1], checkpoint[2], manifest.getAuDurationUs(), scanner);
+		} finally {
+			scanner.shutDown();
+		}
+		mFileWriter.setSegmentListener(mSegmentListener);
+		mMetadataLog = MetadataLog.reopen(new File(mCacheDir, TimeshiftFileWriter.getMetadataFileName(manifest.getRecordingName())), mFileWriter.getCommittedAus());
+
+		//the recording continues, the first AU must not start a new one
+		mStartTimeNs = System.nanoTime();
+		mWrittenAus = mFileWriter.getCommittedAus();
+		mFirstAu = mAuIndex.getFirstAu();
+		mReadAus = mFirstAu;
+		mLastDuration = 0;
+		mTimeshiftDuration = mAuIndex.getDurationUs() / 1000;
+		//the decoder is configured from the recording, a new configuration is only written if the live AUs differ
+		mLiveConfig = mFileWriter.getConfig(mWrittenAus);
+		applyMaxTimeshiftDuration();
+
+		for(long[] skipEntry : manifest.getSkipEntries()) {
+			if(skipEntry[0] >= mFirstAu && skipEntry[0] <= mWrittenAus) {
+				mSkipItems.add(new SkipItem(skipEntry[0], skipEntry[1], getAuPositionMs(skipEntry[0]), mMetadataLog));
+			}
+		}
+		mManifest.trimBefore(mFirstAu);
+		mManifest.write();
 
-		mOutputPath = mEncFile.getAbsolutePath();
-		mFileOutStream = new FileOutputStream(mEncFile);
+		if(DEBUG)Log.d(TAG, "Resumed " + (mWrittenAus - mFirstAu) + " AUs, " + mTimeshiftDuration + " ms, SkipItems: " + mSkipItems.size());
 
 		mPlayerPaused = false;
 		mTimeshiftService.subscribe(this);
@@ -207,11 +330,11 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 			mTimeshiftService.unsubscribe(this);
 		}
 
-		if(mFileOutStream != null) {
-			try {
-				mFileOutStream.close();
-			} catch(IOException ioExc) {
-				if(DEBUG)ioExc.printStackTrace();
+		if(mFileWriter != null) {
+			if(mWriteScheduler != null) {
+				mWriteScheduler.close(mFileWriter);
+			} else {
+				mFileWriter.close();
 			}
 		}
 
@@ -220,15 +343,18 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 		if(DEBUG)Log.d(TAG, "Stopping ongoing...");
 		mPlayerPaused = false;
 		mStartTimeNs = -1;
-		mLastSlsPath = null;
-
-		mSlideshowFileSparse.clear();
-		mLabelFileSparse.clear();
+		if(mMetadataLog != null) {
+			mMetadataLog.close();
+		}
 
 		mConfCodec = 0;
 		mConfSampling = 0;
 		mConfChans = 0;
 		mConfSbr = false;
+		mConfPs = false;
+		mDecoderConfig = null;
+		mLiveConfig = null;
+		mPlaybackRequested = false;
 
 		stopMediaCodec();
 
@@ -258,6 +384,13 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 	 */
 	@Override
 	public void play() {
+		if(!mPlaybackRequested) {
+			if(DEBUG)Log.d(TAG, "Playback requested, leaving recording-only mode");
+			mPlaybackRequested = true;
+			//the configuration is known if AUs were recorded already
+			configureDecoder();
+		}
+
 		startPlayThread();
 	}
 
@@ -269,6 +402,9 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 	public void pause(boolean pause) {
 		if(DEBUG)Log.d(TAG, "Pause: " + pause);
 		mPlayerPaused = pause;
+		if(!mPlayerPaused) {
+			wakeDecoding();
+		}
 		if(mPlayerPaused) {
 			for(TimeshiftListener listener : mListeners) {
 				if(listener != null) {
@@ -300,6 +436,26 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 	@Override
 	public void seek(long seekMilliseconds) {
 		mSeekToPos = seekMilliseconds;
+		wakeDecoding();
+	}
+
+	/**
+	 * Sets the playback rate to catch up with the live position
+	 * @param rate {@code 1.0} for normal playback or a rate between {@code 1.05} and {@code 1.5}
+	 */
+	@Override
+	public void setPlaybackRate(float rate) {
+		mPlaybackRate = TimeStretcher.clampRate(rate);
+		if(DEBUG)Log.d(TAG, "Playback rate: " + mPlaybackRate);
+	}
+
+	/**
+	 * Returns the playback rate, it falls back to {@code 1.0} at the live position
+	 * @return the playback rate
+	 */
+	@Override
+	public float getPlaybackRate() {
+		return mPlaybackRate;
 	}
 
 	/**
@@ -318,9 +474,10 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 	@Override
 	public void skipTo(SkipItem item) {
 		if(item != null) {
-			mSkipPos = item.getSkipPoint();
-			mReadAus = item.getWrittenAus();
-			mRealPosMs = mReadAus*MS_AUDIO_PER_AU;
+			mSkipPos = Math.max(item.getWrittenAus(), mFirstAu);
+			mReadAus = mSkipPos;
+			mRealPosMs = getAuPositionMs(mReadAus);
+			wakeDecoding();
 			if(item.getSkipVisual() != null) {
 				for(TimeshiftListener listener : mListeners) {
 					if(listener != null) {
@@ -343,7 +500,17 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 
 	@Override
 	public long getCurrentPosition() {
-		return mReadAus * MS_AUDIO_PER_AU;
+		return getAuPositionMs(mReadAus);
+	}
+
+	/**
+	 * Returns the position of an AU from the presentation times of the {@link AuOffsetIndex}
+	 * @param auNum the number of the AU
+	 * @return the position in milliseconds relative to the first retained AU or {@code 0} if the AU is not indexed
+	 */
+	long getAuPositionMs(long auNum) {
+		long positionUs = mAuIndex.getPositionUs(auNum);
+		return positionUs < 0 ? 0 : positionUs / 1000;
 	}
 
 	/**
@@ -374,133 +541,360 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 			return;
 		}
 
-		try {
-			if(DEBUG)Log.d(TAG, "SeekPos wanted: " + milliSecondsPos + " CurDuration: " + mTimeshiftDuration + " : " + ((System.nanoTime() - mStartTimeNs) / NANO_PART));
+		if(DEBUG)Log.d(TAG, "SeekPos wanted: " + milliSecondsPos + " CurDuration: " + mTimeshiftDuration + " : " + ((System.nanoTime() - mStartTimeNs) / NANO_PART));
 
-			long numAUsSeek = milliSecondsPos / MS_AUDIO_PER_AU;
-			mReadAus = numAUsSeek;
-			mRealPosMs = mReadAus * MS_AUDIO_PER_AU;
+		long numAUsSeek = mAuIndex.findAu(milliSecondsPos * 1000);
+		long auOffset = mAuIndex.getOffset(numAUsSeek);
+		if(auOffset < 0) {
+			if(DEBUG)Log.w(TAG, "SeekPos AU " + numAUsSeek + " not indexed, first AU: " + mAuIndex.getFirstAu() + ", indexed AUs: " + mAuIndex.size());
+			return;
+		}
 
-			if(DEBUG)Log.d(TAG, "SeekPos NumAus to Seek: " + numAUsSeek);
+		mReadAus = numAUsSeek;
+		mRealPosMs = milliSecondsPos;
 
-			long avgRate = (mFileOutStream.getChannel().size() - 1 - (mWrittenAus*5)) / mWrittenAus;
-			long avgFilePos = mInFile.getChannel().size() / mWrittenAus * numAUsSeek;
-			if(DEBUG)Log.d(TAG, "SeekPos AvgRateFilePos: " + avgFilePos);
+		mAuReader.seekToAu(numAUsSeek);
 
-			if(mSeekToPos < MS_AUDIO_PER_AU) {
-				mInFile.seek(1);
-			} else {
-				mInFile.seek(avgFilePos);
+		if(DEBUG)Log.d(TAG, "SeekPos NumAus to Seek: " + numAUsSeek + ", SyncHdr at: " + auOffset);
+
+		//the label and slide valid at the new position, the cursor continues behind it
+		TextualDabDynamicLabel foundDls = (TextualDabDynamicLabel)mMetadataLog.getLatestTextual(mReadAus);
+		VisualDabSlideShow foundSls = (VisualDabSlideShow)mMetadataLog.getLatestVisual(mReadAus);
+		mMetadataLog.seekCursor(mReadAus + 1);
+
+		if(foundDls != null) {
+			for (TimeshiftListener listener : mListeners) {
+				if(listener != null) {
+					listener.textual(foundDls);
+				}
+			}
+		}
+		if(foundSls != null) {
+			for (TimeshiftListener listener : mListeners) {
+				if(listener != null) {
+					listener.visual(foundSls);
+				}
 			}
+		}
+	}
 
-			//search syncHdr
-			long curFileSize = mInFile.getChannel().size();
-			long srchPos = avgFilePos;
+	private void startPlayThread() {
+		if(DEBUG)Log.d(TAG, "startPlayThread()");
+		if(!mPlaythreadRunning) {
+			mAuReader = new MappedAuReader(mFileWriter, mAuIndex);
+			mAuReader.seekToAu(Math.max(mReadAus, mFirstAu));
+			mMetadataLog.seekCursor(mAuReader.getNextAu());
 
-			do {
-				if(mInFile.readUnsignedByte() == SYNC_HDR[0]) {
-					if(mInFile.readUnsignedByte() == SYNC_HDR[1]) {
-						if(mInFile.readUnsignedByte() == SYNC_HDR[2]) {
-							if(DEBUG)Log.d(TAG, "SeekPos searching sync found D A B at: " + mInFile.getChannel().position());
-							break;
-						} else {
-							srchPos -= 2;
-							mInFile.getChannel().position(mInFile.getChannel().position()-2);
-						}
-					} else {
-						--srchPos;
-						mInFile.getChannel().position(mInFile.getChannel().position()-1);
-					}
+			mPlayerPaused = false;
+			startDecoding();
+
+			for(TimeshiftListener listener : mListeners) {
+				if(listener != null) {
+					listener.started();
 				}
+			}
+		}
+	}
 
-				++srchPos;
-			} while (srchPos < curFileSize);
+	private void stopPlayThread() {
+		if(DEBUG)Log.d(TAG, "Stopping PlayThread");
+		if(mPlaythreadRunning) {
+			stopDecoding();
+		}
 
+		if(mAuReader != null) {
+			mAuReader.close();
+			mAuReader = null;
+		}
+	}
 
-			mInFile.getFD().sync();
-			mSeekToPos = -1;
+	/**
+	 * Starts feeding the decoder from the recording. The default implementation polls the decoder in a play thread.
+	 */
+	void startDecoding() {
+		mPlayThread = new Thread(PlayerRunnable);
+		mPlayThread.start();
+	}
 
-			if(DEBUG)Log.d(TAG, "SeekPos SyncHdr at: " + mInFile.getChannel().position() + ", searched: " + (mInFile.getChannel().position() - avgFilePos) + " bytes");
+	/**
+	 * Stops feeding the decoder. No AU must be read from the recording after this returned.
+	 */
+	void stopDecoding() {
+		mPlaythreadRunning = false;
+		notifyPlayThread();
 
-			TextualDabDynamicLabel foundDls = null;
-			VisualDabSlideShow foundSls = null;
+		if(mPlayThread != null) {
+			try {
+				if(DEBUG)Log.d(TAG, "Joining PlayThread");
+				mPlayThread.join(0);
+			} catch(InterruptedException iErr) {
+				if(DEBUG)iErr.printStackTrace();
+			}
+		}
+	}
 
-			for(int i = 0; i < mLabelFileSparse.size(); i++) {
-				long labelKey = mLabelFileSparse.keyAt(i);
+	/**
+	 * Called when new AUs were recorded or the play position or state changed. Wakes the polling play thread,
+	 * an event driven implementation feeds the decoder here.
+	 */
+	void wakeDecoding() {
+		notifyPlayThread();
+	}
 
-				if(labelKey >= mReadAus-20 && labelKey <= mReadAus+20) {
-					foundDls = (TextualDabDynamicLabel)TimeshiftUtils.deserializeTextual(mLabelFileSparse.valueAt(i));
+	private void notifyPlayThread() {
+		synchronized(mPlayLock) {
+			mPlayLock.notifyAll();
+		}
+	}
 
-					if(DEBUG)Log.d(TAG, "Found SeekPos DLS at Idx: " + i + ", AUPos: " + labelKey + ", ReadAus: " + mReadAus);
-					break;
-				}
+	/**
+	 * Waits until the writer committed an AU behind the play position or the play position or state changed.
+	 * The wait is bounded by one AU duration, the decoder output is drained in between.
+	 */
+	private void awaitCommittedAu() throws InterruptedException {
+		synchronized(mPlayLock) {
+			if(mPlaythreadRunning && !mPlayerPaused && !repositionPending() && mFileWriter.getCommittedAus() <= mAuReader.getNextAu()) {
+				mPlayLock.wait(MS_AUDIO_PER_AU);
 			}
+		}
+	}
 
-			for(int i = 0; i < mSlideshowFileSparse.size(); i++) {
-				long slsKey = mSlideshowFileSparse.keyAt(i);
+	/**
+	 * Indicates if a seek or skip is pending. The decoder must be flushed before {@link #reposition()} is called.
+	 * @return {@code true} if a seek or skip is pending
+	 */
+	boolean repositionPending() {
+		return mSeekToPos >= 0 || mSkipPos >= 0;
+	}
 
-				if(slsKey >= mReadAus-40 && slsKey <= mReadAus+40) {
-					foundSls = (VisualDabSlideShow)TimeshiftUtils.deserializeVisual(mSlideshowFileSparse.valueAt(i));
+	/**
+	 * Moves the play position to the pending seek or skip position
+	 */
+	void reposition() {
+		if(mSeekToPos >= 0) {
+			long seekToPos = mSeekToPos;
+			//an unreachable position is dropped instead of retried
+			mSeekToPos = -1;
+			if(DEBUG)Log.d(TAG, "SeekPos seeking to: " + seekToPos);
+			seekToMs(seekToPos);
+		}
+		if(mSkipPos >= 0) {
+			mAuReader.seekToAu(mSkipPos);
+			mMetadataLog.seekCursor(mSkipPos);
+			mSkipPos = -1;
+		}
 
-					if(DEBUG)Log.d(TAG, "Found SeekPos SLS at Idx: " + i + ", AUPos: " + slsKey + ", ReadAus: " + mReadAus);
-					break;
+		//the decoder was flushed, the held back PCM belongs to the old position
+		mTimeStretcher.clear();
+	}
+
+	/**
+	 * Enqueues the next recorded AU into the decoder
+	 * @param inbuffIdx a previously dequeued input buffer index or {@code -1}
+	 * @return {@code true} if an AU was enqueued, {@code false} if no AU is available yet or enqueueing failed
+	 * @throws IOException if reading the recording fails
+	 */
+	boolean enqueueNextAu(int inbuffIdx) throws IOException {
+		if(reconfigureForNextAu()) {
+			return false;
+		}
+
+		ByteBuffer nextFrame = mAuReader.nextAu();
+		if(nextFrame == null) {
+			liveEdgeReached();
+			return false;
+		}
+
+		if(!inputDecodeBuffer(nextFrame, inbuffIdx)) {
+			//read it again for the next input buffer
+			mAuReader.seekToAu(mAuReader.getNextAu() - 1);
+			return false;
+		}
+
+		//the reader continues at the first retained AU if the position was dropped
+		mReadAus = mAuReader.getNextAu();
+		dispatchMetadata(mReadAus);
+
+		return true;
+	}
+
+	/**
+	 * Informs the {@link TimeshiftListener}s about the progress if it changed
+	 */
+	void reportProgress() {
+		if((mTimeshiftDuration/MILLIS_PER_SECOND) > mLastDuration || mRealPosMs/MILLIS_PER_SECOND != mLastRealPos) {
+			mLastDuration = (mTimeshiftDuration / MILLIS_PER_SECOND);
+			mLastRealPos = mRealPosMs/MILLIS_PER_SECOND;
+
+			for (TimeshiftListener listener : mListeners) {
+				if(listener != null) {
+					if(DEBUG)Log.d(TAG, "Progress: " + getCurrentPosition() / MILLIS_PER_SECOND);
+					listener.progress((getCurrentPosition() / MILLIS_PER_SECOND), (mTimeshiftDuration / MILLIS_PER_SECOND));
 				}
 			}
+		}
+	}
 
-			if(foundDls != null) {
-				for (TimeshiftListener listener : mListeners) {
-					if(listener != null) {
-						listener.textual(foundDls);
-					}
-				}
+	/**
+	 * Hands decoded PCM to the listeners. A copy is only made for {@link RadioServiceAudiodataListener}s,
+	 * {@link TimeshiftPcmListener}s receive a read-only view of the decoder output.
+	 * @param pcmBuffer the decoded PCM between position and limit, must not be used by the decoder until this returns
+	 */
+	void dispatchPcm(ByteBuffer pcmBuffer) {
+		float rate = mPlaybackRate;
+		if(rate > 1.0f) {
+			mTimeStretcher.configure(mAudioTrackSamplerate, mOutputChannels);
+			mTimeStretcher.setRate(rate);
+			pcmBuffer = mTimeStretcher.process(pcmBuffer);
+		} else if(mTimeStretcher.hasPending()) {
+			//the PCM held back for the next sequence continues at the normal rate
+			dispatchPcmToListeners(mTimeStretcher.flush());
+		}
+
+		if(pcmBuffer.hasRemaining()) {
+			dispatchPcmToListeners(pcmBuffer);
+		}
+	}
+
+	private void dispatchPcmToListeners(ByteBuffer pcmBuffer) {
+		int pcmPos = pcmBuffer.position();
+		int pcmLimit = pcmBuffer.limit();
+
+		if(!mAudioListeners.isEmpty()) {
+			byte[] pcmData = new byte[pcmLimit - pcmPos];
+			pcmBuffer.get(pcmData);
+			pcmBuffer.position(pcmPos);
+
+			for(RadioServiceAudiodataListener pcmListener : mAudioListeners) {
+				pcmListener.pcmAudioData(pcmData, mOutputChannels, mAudioTrackSamplerate);
 			}
-			if(foundSls != null) {
-				for (TimeshiftListener listener : mListeners) {
-					if(listener != null) {
-						listener.visual(foundSls);
-					}
-				}
+		}
+
+		if(!mPcmListeners.isEmpty()) {
+			ByteBuffer pcmView = pcmBuffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+			for(TimeshiftPcmListener pcmListener : mPcmListeners) {
+				//every listener gets the whole buffer, regardless of what the previous one consumed
+				pcmView.limit(pcmLimit);
+				pcmView.position(pcmPos);
+				pcmListener.pcmAudioData(pcmView, mOutputChannels, mAudioTrackSamplerate);
 			}
-		} catch(IOException ioE) {
-			if(DEBUG)ioE.printStackTrace();
 		}
 	}
 
-	private void startPlayThread() {
-		if(DEBUG)Log.d(TAG, "startPlayThread()");
-		if(!mPlaythreadRunning) {
-			try {
-				mInFile = new RandomAccessFile(mEncFile, "r");
-				mInFile.skipBytes(4);
-			} catch(IOException ioE) {
-				if(DEBUG)Log.e(TAG, "Error opening InFile");
-			}
-			mPlayerPaused = false;
-			mPlayThread = new Thread(PlayerRunnable);
-			mPlayThread.start();
+	private void dispatchMetadata(long auNum) {
+		long pendingAu = mMetadataLog.getPendingAu();
+		if(auNum < pendingAu) {
+			return;
+		}
 
+		//the play position may have jumped over the pending AU, the latest metadata crossed is delivered
+		VisualDabSlideShow curSls = (VisualDabSlideShow)mMetadataLog.findVisual(pendingAu, auNum);
+		TextualDabDynamicLabel curDls = (TextualDabDynamicLabel)mMetadataLog.findTextual(pendingAu, auNum);
+		mMetadataLog.seekCursor(auNum + 1);
+
+		if(curSls != null) {
 			for(TimeshiftListener listener : mListeners) {
 				if(listener != null) {
-					listener.started();
+					listener.visual(curSls);
+				}
+			}
+		}
+		if(curDls != null) {
+			for(TimeshiftListener listener : mListeners) {
+				if(listener != null) {
+					listener.textual(curDls);
 				}
 			}
 		}
 	}
 
-	private void stopPlayThread() {
-		if(DEBUG)Log.d(TAG, "Stopping PlayThread");
-		if(mPlaythreadRunning) {
-			mPlaythreadRunning = false;
-
-			if(mPlayThread != null) {
-				try {
-					if(DEBUG)Log.d(TAG, "Joining PlayThread");
-					mPlayThread.join(0);
-				} catch(InterruptedException iErr) {
-					if(DEBUG)iErr.printStackTrace();
-				}
+	/**
+	 * Configures the decoder for the recorded configuration at the play position.
+	 * In recording-only mode the decoder is left alone until {@link #play()}.
+	 */
+	void configureDecoder() {
+		if(!mPlaybackRequested) {
+			if(DEBUG)Log.d(TAG, "Recording only, decoder is configured on play");
+			return;
+		}
+
+		AudioConfig config = (mFileWriter != null) ? mFileWriter.getConfig(Math.max(mReadAus, mFirstAu)) : null;
+		if(config == null) {
+			//the configuration may still be queued for the writer thread
+			config = mLiveConfig;
+		}
+		if(config == null) {
+			if(DEBUG)Log.d(TAG, "No configuration recorded yet, decoder is configured with the first AU");
+			return;
+		}
+
+		applyDecoderConfig(config);
+		configureCodec();
+	}
+
+	/**
+	 * Reconfigures the decoder if the next AU was recorded with another configuration than the decoder has
+	 * @return {@code true} if the decoder was reconfigured and the current input buffer is invalid
+	 */
+	boolean reconfigureForNextAu() {
+		AudioConfig config = mFileWriter.getConfig(mAuReader.getNextAu());
+		if(config == null || config.equals(mDecoderConfig)) {
+			return false;
+		}
+
+		if(DEBUG)Log.d(TAG, "Configuration changes at AU " + mAuReader.getNextAu() + " to: " + config);
+		applyDecoderConfig(config);
+		configureCodec();
+
+		return true;
+	}
+
+	private void applyDecoderConfig(AudioConfig config) {
+		mConfCodec = config.getCodec();
+		mConfSampling = config.getSampleRate();
+		mConfChans = config.getChannels();
+		mConfSbr = config.isSbr();
+		mConfPs = config.isPs();
+		mDecoderConfig = config;
+
+		if(DEBUG)Log.d(TAG, "Setting mAudioTrackSamplerate to: " + mConfSampling);
+		mAudioTrackSamplerate = mConfSampling;
+	}
+
+	/**
+	 * Writes a changed configuration of the live AUs into the recording. The decoder follows when the play position reaches it.
+	 * @param config the {@link AudioConfig} of the following AUs
+	 */
+	void recordConfig(AudioConfig config) {
+		if(DEBUG)Log.d(TAG, "Recording configuration: " + config);
+		mLiveConfig = config;
+
+		if(mWriteScheduler != null) {
+			mWriteScheduler.submitConfig(mFileWriter, config);
+		} else {
+			try {
+				mFileWriter.writeConfig(config);
+			} catch(IOException ioE) {
+				if(DEBUG)ioE.printStackTrace();
 			}
 		}
+
+		if(mDecoderConfig == null) {
+			configureDecoder();
+		}
+	}
+
+	/**
+	 * Writes a re-encoded AU with its exact duration into the recording, on the thread driving the encoder
+	 * @param aacData the AU
+	 * @param durationUs the duration of the AU in microseconds
+	 * @throws IOException if the AU couldn't be written
+	 */
+	void writeTimedAu(byte[] aacData, int durationUs) throws IOException {
+		mFileWriter.writeTimedRecord(aacData, durationUs);
+		++mWrittenAus;
+		mTimeshiftDuration = mAuIndex.getDurationUs() / 1000;
+		wakeDecoding();
 	}
 
 	void configureCodec() {
@@ -540,13 +934,23 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 		}
 	};
 
-	private byte[] mNoBuffFreeData = null;
+	private ByteBuffer mNoBuffFreeData = null;
 
 	abstract int getInbuffIdx();
 
-	abstract boolean inputDecodeBuffer(byte[] encodedData, int inbuffIdx);
+	/**
+	 * Enqueues an encoded AU into the decoder
+	 * @param encodedData the AU between position and limit. The position is only advanced if the AU was enqueued
+	 * @param inbuffIdx a previously dequeued input buffer index or {@code -1}
+	 * @return {@code true} if the AU was enqueued, {@code false} otherwise
+	 */
+	abstract boolean inputDecodeBuffer(ByteBuffer encodedData, int inbuffIdx);
 
-	abstract byte[] getDecodedBuffer();
+	/**
+	 * Dequeues a decoded output buffer, hands it to the listeners with {@link #dispatchPcm(ByteBuffer)} and releases it
+	 * @return the number of decoded PCM bytes or {@code -1} if no decoded output was available
+	 */
+	abstract int drainDecodedBuffer();
 
 	private long bytesToFrames(long bytes) {
 		return bytes / mFrameSize;
@@ -564,53 +968,22 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 		return (durationMs * mConfSampling) / MILLIS_PER_SECOND;
 	}
 
-	private byte[] getNextFrame() throws EOFException, IOException{
-		byte[] nextFrame = null;
-
-		int nxtFrmSize = -1;
-
-		long curPos = mInFile.getChannel().position();
-		long curSize = mInFile.getChannel().size();
-		long remainingBytes = curSize - curPos;
-
-		//+2 for length
-		//+3 for syncHdr
-		if (remainingBytes < (MIN_SUPERFRAME_SIZE+2+3) ) {
-			return nextFrame;
-		}
-
-		for(int i = 0; i < 3; i++) {
-			if(mInFile.readUnsignedByte() != SYNC_HDR[i]) {
-				mInFile.getChannel().position(curPos);
-			}
-		}
-
-		nxtFrmSize = mInFile.readUnsignedShort();
-		remainingBytes -= 2;
-
-		if (remainingBytes < nxtFrmSize || nxtFrmSize == 0) {
-			//if(DEBUG)Log.w(TAG, "Not enough data to read frame from pos: " + curPos + ", size: " + nxtFrmSize + ", available: " + remainingBytes);
-			mInFile.getChannel().position(curPos);
-			mInFile.seek(curPos);
-			mInFile.getFD().sync();
-			return nextFrame;
+	private ByteBuffer getNextFrame() throws IOException {
+		ByteBuffer nextFrame = mAuReader.nextAu();
+		if(nextFrame == null) {
+			liveEdgeReached();
 		}
+		return nextFrame;
+	}
 
-		if (nxtFrmSize > 0) {
-			nextFrame = new byte[nxtFrmSize];
-			int bytesRed = mInFile.read(nextFrame);
-
-			if(bytesRed != nxtFrmSize) {
-				if(DEBUG)Log.w(TAG, "Short read, wanted: " + nxtFrmSize +", got: " + bytesRed);
-				mInFile.getChannel().position(curPos);
-				mInFile.seek(curPos);
-				mInFile.getFD().sync();
-
-				nextFrame = null;
-			}
+	/**
+	 * Ends catching up, all recorded AUs were handed to the decoder
+	 */
+	private void liveEdgeReached() {
+		if(mPlaybackRate != 1.0f) {
+			if(DEBUG)Log.d(TAG, "Caught up with the live position at AU: " + mAuReader.getNextAu());
+			mPlaybackRate = 1.0f;
 		}
-
-		return nextFrame;
 	}
 
 	private void getDecodedFramesAndPlay(int maxDecMs) {
@@ -620,17 +993,12 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 				if(DEBUG)Log.w(TAG, "Stopping getDecodedFramesAndPlay");
 				return;
 			}
-			byte[] decData = getDecodedBuffer();
-			if(decData == null) {
+			int decBytes = drainDecodedBuffer();
+			if(decBytes < 0) {
 				break;
 			}
 
-			msDecoded += framesToDurationMs(bytesToFrames(decData.length));
-
-			for(RadioServiceAudiodataListener pcmListener : mAudioListeners) {
-				//if(DEBUG)Log.d(TAG, "AudioDataOutput, Channels: " + mAudioTrackChannelConfig + ", Samplerate: " + mAudioTrackSamplerate);
-				pcmListener.pcmAudioData(decData, mAudioTrackChannelConfig , mAudioTrackSamplerate);
-			}
+			msDecoded += framesToDurationMs(bytesToFrames(decBytes));
 		}
 	}
 
@@ -657,37 +1025,22 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 					continue;
 				}
 
-				//Seeking
-				if(mSeekToPos >= 0) {
+				//Seeking and skipping
+				if(repositionPending()) {
 					//should clear decoded samples in decoder
 					flushMediacodec();
-					if(DEBUG)Log.d(TAG, "SeekPos seeking to: " + mSeekToPos);
-					seekToMs(mSeekToPos);
+					reposition();
 				}
-				//Skip
-				if(mSkipPos >= 0) {
-					//should clear decoded samples in decoder
-					flushMediacodec();
 
-					mInFile.seek(mSkipPos);
-					mSkipPos = -1;
-				}
-
-				if((mTimeshiftDuration/MILLIS_PER_SECOND) > mLastDuration || mRealPosMs/MILLIS_PER_SECOND != mLastRealPos) {
-					mLastDuration = (mTimeshiftDuration / MILLIS_PER_SECOND);
-					mLastRealPos = mRealPosMs/MILLIS_PER_SECOND;
+				reportProgress();
 
-					for (TimeshiftListener listener : mListeners) {
-						if(listener != null) {
-							if(DEBUG)Log.d(TAG, "Progress: " + (mReadAus * MS_AUDIO_PER_AU) / MILLIS_PER_SECOND);
-							listener.progress(((mReadAus * MS_AUDIO_PER_AU) / MILLIS_PER_SECOND), (mTimeshiftDuration / MILLIS_PER_SECOND));
+				//Pause, un-pausing wakes the thread
+				if(mPlayerPaused) {
+					synchronized(mPlayLock) {
+						if(mPlayerPaused && mPlaythreadRunning && !repositionPending()) {
+							mPlayLock.wait(MS_AUDIO_PER_AU);
 						}
 					}
-				}
-
-				//Pause
-				if(mPlayerPaused) {
-					Thread.sleep(10);
 					continue;
 				}
 
@@ -698,48 +1051,36 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 						continue;
 					}
 
+					mReadAus = mAuReader.getNextAu();
 					mNoBuffFreeData = null;
 				}
 
+				if(mNoBuffFreeData == null && reconfigureForNextAu()) {
+					//the input buffer belongs to the released decoder
+					mLastInbuffIdx = -1;
+					continue;
+				}
+
 				if(mLastInbuffIdx == -1) {
 					mLastInbuffIdx = getInbuffIdx();
 				}
 				if(mLastInbuffIdx >= 0) {
-					byte[] nextFrame = getNextFrame();
+					ByteBuffer nextFrame = getNextFrame();
 					if (nextFrame != null) {
 						if (!inputDecodeBuffer(nextFrame, mLastInbuffIdx)) {
 							mNoBuffFreeData = nextFrame;
 						} else {
-							++mReadAus;
+							//the reader continues at the first retained AU if the position was dropped
+							mReadAus = mAuReader.getNextAu();
 							mLastInbuffIdx = -1;
 						}
 					} else {
-						Thread.sleep(10);
-					}
-				}
-
-				long curPoint = mReadAus;
-				VisualDabSlideShow curSls = (VisualDabSlideShow)TimeshiftUtils.deserializeVisual(mSlideshowFileSparse.get(curPoint));
-				TextualDabDynamicLabel curDls = (TextualDabDynamicLabel)TimeshiftUtils.deserializeTextual(mLabelFileSparse.get(curPoint));
-
-				if(curSls != null) {
-					for(TimeshiftListener listener : mListeners) {
-						if(listener != null) {
-							listener.visual(curSls);
-						}
-					}
-				}
-				if(curDls != null) {
-					for(TimeshiftListener listener : mListeners) {
-						if(listener != null) {
-							listener.textual(curDls);
-						}
+						//the live edge, the writer wakes the thread when the next AU is committed
+						awaitCommittedAu();
 					}
 				}
 
-			} catch(EOFException eofExc) {
-				if(DEBUG)eofExc.printStackTrace();
-				if(DEBUG)Log.e(TAG, "End of timeshift file at: " + mLastDuration);
+				dispatchMetadata(mReadAus);
 			} catch(IOException ioE) {
 				if(DEBUG)ioE.printStackTrace();
 				if(DEBUG)Log.e(TAG, "IOException occured");
@@ -757,17 +1098,10 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 		if(textualMetadata.getType() == TextualType.METADATA_TEXTUAL_TYPE_DAB_DLS) {
 			TextualDabDynamicLabel dls = (TextualDabDynamicLabel)textualMetadata;
 
-			long skipPoint = -1;
-			try {
-				skipPoint = mFileOutStream.getChannel().position();
-			} catch(IOException ioE) {
-				if(DEBUG)ioE.printStackTrace();
-			}
+			long skipPoint = mFileWriter.getCommittedLength();
 
-			String dlsPathName = TimeshiftUtils.serializeTextual(textualMetadata, mCacheTextDir+"/"+mWrittenAus);
-			if(dlsPathName != null) {
-				if(DEBUG)Log.d(TAG, "Saved Skiping Textual at: " + dlsPathName);
-				mLabelFileSparse.append(mWrittenAus, dlsPathName);
+			if(mMetadataLog.appendTextual(mWrittenAus, textualMetadata)) {
+				if(DEBUG)Log.d(TAG, "Saved Skiping Textual at AU: " + mWrittenAus);
 			} else {
 				if(DEBUG)Log.d(TAG, "Error saving Skiping Textual");
 			}
@@ -817,13 +1151,11 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 					isArtist = true;
 
 					if(isArtist) {
-						mSkipEntries.add(new Pair<>(mWrittenAus, skipPoint));
 
-						SkipItem skipItem = new SkipItem(mWrittenAus, skipPoint, mTimeshiftDuration, dlsPathName);
-						if (mLastSlsPath != null) {
-							skipItem.setSkipSls(mLastSlsPath);
-						}
+						SkipItem skipItem = new SkipItem(mWrittenAus, skipPoint, mTimeshiftDuration, mMetadataLog);
 						mSkipItems.add(skipItem);
+						mManifest.addSkipEntry(mWrittenAus, skipPoint);
+						mManifest.write();
 						for(TimeshiftListener listener : mListeners) {
 							if(listener != null) {
 								listener.skipItemAdded(skipItem);
@@ -842,14 +1174,60 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 	@Override
 	public void newVisualMetadata(Visual visualMetadata) {
 		if(visualMetadata.getVisualType() == VisualType.METADATA_VISUAL_TYPE_DAB_SLS) {
-			String visPath = TimeshiftUtils.serializeVisual(visualMetadata, mCacheVisDir+"/"+mWrittenAus);
-			if(visPath != null) {
-				mLastSlsPath = visPath;
-				mSlideshowFileSparse.append(mWrittenAus, visPath);
-			}
+			mMetadataLog.appendVisual(mWrittenAus, visualMetadata);
 		}
 	}
 
+	/* SegmentListener */
+	private TimeshiftFileWriter.SegmentListener mSegmentListener = new TimeshiftFileWriter.SegmentListener() {
+		@Override
+		public void segmentStarted(long segmentNum, long firstAu, long firstPtsUs) {
+			mManifest.addCheckpoint(segmentNum, firstAu, firstPtsUs);
+			mManifest.write();
+		}
+
+		@Override
+		public void segmentDropped(long firstRetainedAu, long droppedUs) {
+			long droppedMs = droppedUs / 1000;
+			if(DEBUG)Log.d(TAG, "Dropped " + droppedMs + " ms, first retained AU: " + firstRetainedAu);
+
+			mFirstAu = firstRetainedAu;
+			mTimeshiftDuration = mAuIndex.getDurationUs() / 1000;
+
+			for(SkipItem skipItem : mSkipItems) {
+				if(skipItem.getWrittenAus() < firstRetainedAu) {
+					mSkipItems.remove(skipItem);
+					for(TimeshiftListener listener : mListeners) {
+						if(listener != null) {
+							listener.skipItemRemoved(skipItem);
+						}
+					}
+				} else {
+					skipItem.shiftRelativeTimepoint(droppedMs);
+				}
+			}
+
+			mMetadataLog.trimBefore(firstRetainedAu);
+
+			mManifest.trimBefore(firstRetainedAu);
+			mManifest.write();
+		}
+	};
+
+	/* Called after an AU record was committed or lost */
+	private final RecordingWriteScheduler.WriteListener mRecordWritten = new RecordingWriteScheduler.WriteListener() {
+		@Override
+		public void auWritten() {
+			mTimeshiftDuration = mAuIndex.getDurationUs() / 1000;
+			wakeDecoding();
+		}
+
+		@Override
+		public void auLost() {
+			mLostAus.incrementAndGet();
+		}
+	};
+
 	/* AudioListener */
 	@Override
 	public void rawAudioData(byte[] rawData, boolean sbr, boolean ps, RadioServiceMimeType type, int numChannels, int samplingRate) {
@@ -871,60 +1249,34 @@ public abstract class TimeshiftPlayerAacAu implements TimeshiftPlayer, Serializa
 			mReadAus = 0;
 			mLastDuration = 0;
 			mWrittenAus = 0;
+			mLostAus.set(0);
+			mFirstAu = 0;
+			mAuIndex.clear();
+			applyMaxTimeshiftDuration();
 
 			if(DEBUG)Log.d(TAG, "DABHdr SBR: " + sbr + ", Sampling: " + samplingRate + ", Chans: " + numChannels);
-
-			//1 bytes AudioParams
-			//4 bits audioType; 0 = DAB MPEG 1 Layer 2; 15 = DAB+ AAC
-			//2 bit sampleRate; 3 = 48 kHz; 2 = 32 kHz; 1 = 24 kHz; 0 = reserved
-			//1 bit sbrUsed;
-			//1 bit channels;   1 = stereo; 0 = mono
-			byte audioByte = (byte)((type.getContententTypeId() == 63) ? (0xF0) : (0x00));
-			byte sampleByte = (byte)((samplingRate == 48000) ? (0x03 << 2) : (samplingRate == 32000) ? (0x02 << 2) : (samplingRate == 24000) ? (0x01 << 2) : (0x00));
-			byte sbrByte = (byte)(sbr ? (0x01 << 1) : (0x00));
-			byte chanByte = (byte)((numChannels == 2) ? (0x01) : (0x00));
-			byte params = (byte)(audioByte | sampleByte | sbrByte | chanByte);
-
-			try {
-				mFileOutStream.write(params);
-			} catch(IOException ioE) {
-				if(DEBUG)ioE.printStackTrace();
-			}
 		}
 
-		mTimeshiftDuration += MS_AUDIO_PER_AU;
-
-		if(mConfCodec != type.getContententTypeId() || mConfSampling != samplingRate || mConfChans != numChannels || mConfSbr != sbr) {
-			mConfCodec = type.getContententTypeId();
-			mConfSampling = samplingRate;
-			mConfChans = numChannels;
-			mConfSbr = sbr;
-			mConfPs = ps;
-
-			if(DEBUG)Log.d(TAG, "Configuring Codec Type: " + mConfCodec + ", Sampling: " + mConfSampling + ", Chans: " + mConfChans + ", SBR: " + mConfSbr);
+		//the configuration is written in front of the first AU it applies to, the decoder is reconfigured when playback reaches it
+		if(mLiveConfig == null || !mLiveConfig.matches(type.getContententTypeId(), samplingRate, numChannels, sbr, ps)) {
 			if(DEBUG)Log.d(TAG, "RawDataSize: " + rawData.length);
-
-			if(DEBUG)Log.d(TAG, "Setting mAudioTrackSamplerate to: " + samplingRate);
-			mAudioTrackSamplerate = samplingRate;
-
-			configureCodec();
+			recordConfig(new AudioConfig(type.getContententTypeId(), samplingRate, numChannels, sbr, ps, (int)(MS_AUDIO_PER_AU * 1000)));
 		}
 
-		int size = rawData.length;
-		byte[] sizeHdr = new byte[2];
-		sizeHdr[0] = (byte)((size & 0xFF00) >> 8);
-		sizeHdr[1] = (byte)(size & 0xFF);
-
-		try {
-			mFileOutStream.write(SYNC_HDR);
-			mFileOutStream.write(sizeHdr);
-			mFileOutStream.write(rawData);
-
-			//need to flush to have it ready on disk
-			mFileOutStream.flush();
+		if(mWriteScheduler != null) {
+			//lost AUs are not in the recording, the count follows the committed AUs again
+			mWrittenAus -= mLostAus.getAndSet(0);
+			//the AU number is taken now, the metadata of this callback belongs to it
+			mWriteScheduler.submitRecord(mFileWriter, rawData, mRecordWritten);
 			++mWrittenAus;
-		} catch(IOException ioE) {
-			if(DEBUG)ioE.printStackTrace();
+		} else {
+			try {
+				mFileWriter.writeRecord(rawData);
+				++mWrittenAus;
+				mRecordWritten.auWritten();
+			} catch(IOException ioE) {
+				if(DEBUG)ioE.printStackTrace();
+			}
 		}
 
 		if(mPlayWhenReady && !mPlaythreadRunning) {
@@ -13,6 +13,7 @@ import org.omri.radioservice.RadioServiceRawAudiodataListener;
 import org.omri.radioservice.metadata.TextualMetadataListener;
 import org.omri.radioservice.metadata.VisualMetadataListener;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
@@ -51,6 +52,15 @@ class TimeshiftPlayerAacAuSdk16 extends TimeshiftPlayerAacAu implements Timeshif
 		if(DEBUG)Log.d(TAG, "Creating AacAuPlayer for SDK 16");
 	}
 
+	/**
+	 * Creates a {@link TimeshiftPlayerAacAuSdk16} for the recording in the given directory
+	 * @param cacheDir the directory of the recording
+	 */
+	TimeshiftPlayerAacAuSdk16(File cacheDir) {
+		super(cacheDir);
+		if(DEBUG)Log.d(TAG, "Creating AacAuPlayer for SDK 16");
+	}
+
 	int getInbuffIdx() {
 		int buffIdx = -1;
 
@@ -63,10 +73,11 @@ class TimeshiftPlayerAacAuSdk16 extends TimeshiftPlayerAacAu implements Timeshif
 		return buffIdx;
 	}
 
-	boolean inputDecodeBuffer(byte[] encodedData, int inbuffIdx) {
+	boolean inputDecodeBuffer(ByteBuffer encodedData, int inbuffIdx) {
 		boolean enqueued = false;
 
-		if(encodedData.length > MAX_SUPERFRAME_SIZE) {
+		int encodedSize = encodedData.remaining();
+		if(encodedSize > MAX_SUPERFRAME_SIZE) {
 			return enqueued;
 		}
 
@@ -78,14 +89,16 @@ class TimeshiftPlayerAacAuSdk16 extends TimeshiftPlayerAacAu implements Timeshif
 				inbufIdx = mMediaCodec.dequeueInputBuffer(0);
 			}
 			if (inbufIdx >= 0) {
+				int encodedPos = encodedData.position();
 				try {
 					mInputBuffers[inbufIdx].clear();
 					mInputBuffers[inbufIdx].put(encodedData);
 
-					mMediaCodec.queueInputBuffer(inbufIdx, 0, encodedData.length, 0, 0);
+					mMediaCodec.queueInputBuffer(inbufIdx, 0, encodedSize, 0, 0);
 					enqueued = true;
 				} catch(IllegalStateException illStateExc) {
 					if(DEBUG)Log.e(TAG, "IllegalStateException while inputting buffer: " + illStateExc.getMessage());
+					encodedData.position(encodedPos);
 				}
 			} else {
 				if(DEBUG)Log.i(TAG, "######### No inputbuffer free!");
@@ -97,8 +110,8 @@ class TimeshiftPlayerAacAuSdk16 extends TimeshiftPlayerAacAu implements Timeshif
 		return enqueued;
 	}
 
-	byte[] getDecodedBuffer() {
-		byte[] reArr = null;
+	int drainDecodedBuffer() {
+		int decodedBytes = -1;
 
 		if(mMediaCodec != null) {
 			int outbufIdx = MediaCodec.INFO_TRY_AGAIN_LATER;
@@ -122,6 +135,7 @@ class TimeshiftPlayerAacAuSdk16 extends TimeshiftPlayerAacAu implements Timeshif
 					if(chanCnt == 1) {
 						mAudioTrackChannelConfig = AudioFormat.CHANNEL_OUT_MONO;
 					}
+					mOutputChannels = chanCnt;
 
 					mAudioTrackSamplerate = sampleRate;
 
@@ -138,8 +152,11 @@ class TimeshiftPlayerAacAuSdk16 extends TimeshiftPlayerAacAu implements Timeshif
 						ByteBuffer pcmBuffer = mOutputBuffers[outbufIdx];
 
 						if(pcmBuffer != null) {
-							reArr = new byte[mBufferInfo.size];
-							pcmBuffer.get(reArr);
+							pcmBuffer.limit(mBufferInfo.offset + mBufferInfo.size);
+							pcmBuffer.position(mBufferInfo.offset);
+
+							dispatchPcm(pcmBuffer);
+							decodedBytes = mBufferInfo.size;
 							pcmBuffer.clear();
 						}
 
@@ -149,10 +166,10 @@ class TimeshiftPlayerAacAuSdk16 extends TimeshiftPlayerAacAu implements Timeshif
 				}
 			}
 		} else {
-			if(DEBUG)Log.w(TAG, "MediaCodec is null at getDecodedBuffer()");
+			if(DEBUG)Log.w(TAG, "MediaCodec is null at drainDecodedBuffer()");
 		}
 
-		return reArr;
+		return decodedBytes;
 	}
 
 	void creatMediaFormat() {
@@ -7,6 +7,10 @@ import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
 import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 
 import org.omri.radioservice.RadioServiceMimeType;
@@ -14,13 +18,21 @@ import org.omri.radioservice.RadioServiceRawAudiodataListener;
 import org.omri.radioservice.metadata.TextualMetadataListener;
 import org.omri.radioservice.metadata.VisualMetadataListener;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
 
 import static eu.hradio.timeshiftplayer.BuildConfig.DEBUG;
 
 /**
+ * Decodes with the asynchronous {@link MediaCodec} callbacks instead of a polling play thread.
+ * The codec is created, fed and released on a dedicated codec thread. Free input buffers are filled
+ * from the recording as soon as they are signalled or, at the live edge, as soon as the next AU is
+ * written. Decoded PCM is handed to the listeners when the codec signals it.
+ *
  * Copyright (C) 2018 IRT GmbH
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -43,6 +55,13 @@ class TimeshiftPlayerAacAuSdk21 extends TimeshiftPlayerAacAu implements Timeshif
 
 	private static final String TAG = "TimeshiftPlayerAacAu21";
 
+	//started with the first playback, a recording-only player has no codec thread
+	private volatile HandlerThread mCodecThread = null;
+	private volatile Handler mCodecHandler = null;
+
+	//input buffers signalled by the codec but not yet filled, only accessed on the codec thread
+	private final ArrayDeque<Integer> mPendingInputs = new ArrayDeque<>();
+
 	/**
 	 * Creates a {@link TimeshiftPlayerAacAuSdk21}
 	 * @param context the Application {@link Context}. Must not be {@code null}.
@@ -53,6 +72,279 @@ class TimeshiftPlayerAacAuSdk21 extends TimeshiftPlayerAacAu implements Timeshif
 		if(DEBUG)Log.d(TAG, "Creating AacAuPlayer for SDK > 21");
 	}
 
+	/**
+	 * Creates a {@link TimeshiftPlayerAacAuSdk21} for the recording in the given directory
+	 * @param cacheDir the directory of the recording
+	 */
+	@TargetApi(21)
+	TimeshiftPlayerAacAuSdk21(File cacheDir) {
+		super(cacheDir);
+		if(DEBUG)Log.d(TAG, "Creating AacAuPlayer for SDK > 21");
+	}
+
+	private synchronized void startCodecThread() {
+		if(mCodecThread == null) {
+			mCodecThread = new HandlerThread("TimeshiftCodec", Process.THREAD_PRIORITY_AUDIO);
+			mCodecThread.start();
+			mCodecHandler = new Handler(mCodecThread.getLooper());
+		}
+	}
+
+	@Override
+	public void stop(boolean deleteTmp) {
+		super.stop(deleteTmp);
+
+		if(mCodecThread != null) {
+			mCodecThread.quit();
+			mCodecThread = null;
+			mCodecHandler = null;
+		}
+	}
+
+	@Override
+	void startDecoding() {
+		startCodecThread();
+		mPlaythreadRunning = true;
+		wakeDecoding();
+	}
+
+	@Override
+	void stopDecoding() {
+		//after this returned the codec thread doesn't read from the recording anymore
+		runOnCodecThread(new Runnable() {
+			@Override
+			public void run() {
+				mPlaythreadRunning = false;
+			}
+		});
+	}
+
+	@Override
+	void wakeDecoding() {
+		Handler codecHandler = mCodecHandler;
+		if(codecHandler != null && mPlaythreadRunning) {
+			codecHandler.post(mFeedRunnable);
+		}
+	}
+
+	@Override
+	void configureCodec() {
+		startCodecThread();
+
+		//the callbacks are delivered on the thread which created the codec
+		Handler codecHandler = mCodecHandler;
+		if(codecHandler != null && !isCodecThread()) {
+			codecHandler.post(mConfigureRunnable);
+			return;
+		}
+
+		super.configureCodec();
+	}
+
+	@Override
+	void stopMediaCodec() {
+		runOnCodecThread(mStopCodecRunnable);
+	}
+
+	private final Runnable mFeedRunnable = new Runnable() {
+		@Override
+		public void run() {
+			feedDecoder();
+		}
+	};
+
+	private final Runnable mConfigureRunnable = new Runnable() {
+		@Override
+		public void run() {
+			TimeshiftPlayerAacAuSdk21.super.configureCodec();
+		}
+	};
+
+	private final Runnable mStopCodecRunnable = new Runnable() {
+		@Override
+		public void run() {
+			TimeshiftPlayerAacAuSdk21.super.stopMediaCodec();
+			mPendingInputs.clear();
+		}
+	};
+
+	private boolean isCodecThread() {
+		return mCodecThread != null && Looper.myLooper() == mCodecThread.getLooper();
+	}
+
+	/**
+	 * Runs the task on the codec thread and waits for its completion. Runs it directly if there is no codec thread.
+	 */
+	private void runOnCodecThread(final Runnable task) {
+		Handler codecHandler = mCodecHandler;
+		if(codecHandler == null || isCodecThread()) {
+			task.run();
+			return;
+		}
+
+		final CountDownLatch doneLatch = new CountDownLatch(1);
+		boolean posted = codecHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					doneLatch.countDown();
+				}
+			}
+		});
+
+		if(!posted) {
+			//the codec thread already quit
+			task.run();
+			return;
+		}
+
+		try {
+			doneLatch.await();
+		} catch(InterruptedException interE) {
+			if(DEBUG)interE.printStackTrace();
+		}
+	}
+
+	/**
+	 * Fills all signalled input buffers with the next recorded AUs. Runs on the codec thread.
+	 */
+	@TargetApi(21)
+	private void feedDecoder() {
+		if(!mPlaythreadRunning || !mDecode || mMediaCodec == null) {
+			return;
+		}
+
+		if(repositionPending()) {
+			try {
+				//returns all input buffers to the codec, they are signalled again after the restart
+				mMediaCodec.flush();
+				mPendingInputs.clear();
+				reposition();
+				mMediaCodec.start();
+			} catch(IllegalStateException illStateExc) {
+				if(DEBUG)Log.e(TAG, "IllegalStateException while flushing: " + illStateExc.getMessage());
+			}
+			return;
+		}
+
+		reportProgress();
+
+		if(mPlayerPaused) {
+			return;
+		}
+
+		try {
+			while(!mPendingInputs.isEmpty()) {
+				if(!enqueueNextAu(mPendingInputs.peekFirst())) {
+					break;
+				}
+				mPendingInputs.pollFirst();
+			}
+		} catch(IOException ioE) {
+			if(DEBUG)ioE.printStackTrace();
+		}
+	}
+
+	@TargetApi(21)
+	private void outputFormatChanged(MediaFormat format) {
+		int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+		int chanCnt = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+
+		if (chanCnt == 1) {
+			mAudioTrackChannelConfig = AudioFormat.CHANNEL_OUT_MONO;
+		}
+		mOutputChannels = chanCnt;
+
+		mAudioTrackSamplerate = sampleRate;
+
+		if(DEBUG)Log.i(TAG, "Outputformat Changed: Sampling: for: " + mTimeshiftService.getServiceLabel() + " : " + sampleRate + " Chans: " + chanCnt);
+	}
+
+	private final MediaCodec.Callback mCodecCallback = new MediaCodec.Callback() {
+		@Override
+		public void onInputBufferAvailable(MediaCodec codec, int index) {
+			//callbacks of an already released codec
+			if(codec != mMediaCodec) {
+				return;
+			}
+
+			mPendingInputs.addLast(index);
+			feedDecoder();
+		}
+
+		@Override
+		public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+			if(codec != mMediaCodec) {
+				return;
+			}
+
+			try {
+				ByteBuffer pcmBuffer = codec.getOutputBuffer(index);
+				if(pcmBuffer != null && info.size > 0) {
+					pcmBuffer.limit(info.offset + info.size);
+					pcmBuffer.position(info.offset);
+
+					dispatchPcm(pcmBuffer);
+				}
+
+				codec.releaseOutputBuffer(index, false);
+			} catch(IllegalStateException illStateExc) {
+				if(DEBUG)Log.e(TAG, "IllegalStateException at outputBuffer: " + illStateExc.getMessage());
+			}
+		}
+
+		@Override
+		public void onError(MediaCodec codec, MediaCodec.CodecException codExc) {
+			if(DEBUG)Log.e(TAG, "CodecException SDK_21 for: " + mTimeshiftService.getServiceLabel() + codExc.getMessage() + ", is transient: " + codExc.isTransient() + ", isRecoverable: " + codExc.isRecoverable());
+			if(codec != mMediaCodec) {
+				return;
+			}
+
+			recoverFromCodecException(codExc);
+		}
+
+		@Override
+		public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+			if(codec != mMediaCodec) {
+				return;
+			}
+
+			outputFormatChanged(format);
+		}
+	};
+
+	/**
+	 * Handles a {@link MediaCodec.CodecException} of the decoder on the codec thread. After a transient error the
+	 * input is retried, a recoverable codec is stopped and configured again and any other codec is released and
+	 * created again.
+	 */
+	@TargetApi(21)
+	private void recoverFromCodecException(MediaCodec.CodecException codExc) {
+		if(codExc.isTransient()) {
+			return;
+		}
+
+		if(codExc.isRecoverable() && mMediaCodec != null) {
+			mDecode = false;
+			try {
+				//the stopped codec keeps its callback, it is configured again with the current format
+				mMediaCodec.stop();
+				mPendingInputs.clear();
+				mMediaCodec.configure(mMediaFormat, null, null, 0);
+				mMediaCodec.start();
+				mDecode = true;
+				return;
+			} catch(IllegalStateException illStateExc) {
+				if(DEBUG)Log.e(TAG, "IllegalStateException while recovering the codec: " + illStateExc.getMessage());
+			}
+		}
+
+		stopMediaCodec();
+		configureCodec();
+	}
+
 	@TargetApi(21)
 	int getInbuffIdx() {
 		int buffIdx = -1;
@@ -73,10 +365,11 @@ class TimeshiftPlayerAacAuSdk21 extends TimeshiftPlayerAacAu implements Timeshif
 	}
 
 	@TargetApi(21)
-	boolean inputDecodeBuffer(byte[] encodedData, int inbuffIdx) {
+	boolean inputDecodeBuffer(ByteBuffer encodedData, int inbuffIdx) {
 		boolean enqueued = false;
 
-		if(encodedData.length > MAX_SUPERFRAME_SIZE) {
+		int encodedSize = encodedData.remaining();
+		if(encodedSize > MAX_SUPERFRAME_SIZE) {
 			return enqueued;
 		}
 
@@ -88,21 +381,22 @@ class TimeshiftPlayerAacAuSdk21 extends TimeshiftPlayerAacAu implements Timeshif
 				inbufIdx = mMediaCodec.dequeueInputBuffer(0);
 			}
 			if (inbufIdx >= 0) {
+				int encodedPos = encodedData.position();
 				try {
 					ByteBuffer inputBuffer = mMediaCodec.getInputBuffer(inbufIdx);
 					if (inputBuffer != null) {
 						inputBuffer.put(encodedData);
 					}
 
-					mMediaCodec.queueInputBuffer(inbufIdx, 0, encodedData.length, 0, 0);
+					mMediaCodec.queueInputBuffer(inbufIdx, 0, encodedSize, 0, 0);
 					enqueued = true;
 				} catch (MediaCodec.CodecException codExc) {
 					if (DEBUG) Log.e(TAG, "CodecException SDK_21 while inputting buffer for: " + mTimeshiftService.getServiceLabel() + codExc.getMessage() + ", is transient: " + codExc.isTransient() + ", isRecoverable: " + codExc.isRecoverable());
-					//TODO
-					stopMediaCodec();
-					configureCodec();
+					encodedData.position(encodedPos);
+					recoverFromCodecException(codExc);
 				} catch (IllegalStateException illStateExc) {
 					if (DEBUG) Log.e(TAG, "IllegalStateException SDK_21 while inputting buffer for: " + mTimeshiftService.getServiceLabel() + " : " + illStateExc.getMessage());
+					encodedData.position(encodedPos);
 				}
 			} else {
 				if (DEBUG)Log.i(TAG, "######### No inputbuffer free for: " + mTimeshiftService.getServiceLabel());
@@ -115,8 +409,8 @@ class TimeshiftPlayerAacAuSdk21 extends TimeshiftPlayerAacAu implements Timeshif
 	}
 
 	@TargetApi(21)
-	byte[] getDecodedBuffer() {
-		byte[] reArr = null;
+	int drainDecodedBuffer() {
+		int decodedBytes = -1;
 
 		if(mMediaCodec != null) {
 			int outbufIdx = MediaCodec.INFO_TRY_AGAIN_LATER;
@@ -132,18 +426,7 @@ class TimeshiftPlayerAacAuSdk21 extends TimeshiftPlayerAacAu implements Timeshif
 					break;
 				}
 				case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED: {
-					MediaFormat format = mMediaCodec.getOutputFormat();
-					int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-					int chanCnt = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
-
-					if (chanCnt == 1) {
-						mAudioTrackChannelConfig = AudioFormat.CHANNEL_OUT_MONO;
-					}
-
-					mAudioTrackSamplerate = sampleRate;
-
-					if(DEBUG)Log.i(TAG, "Outputformat Changed: Sampling: for: " + mTimeshiftService.getServiceLabel() + " : " + sampleRate + " Chans: " + chanCnt);
-
+					outputFormatChanged(mMediaCodec.getOutputFormat());
 					break;
 				}
 				case MediaCodec.INFO_TRY_AGAIN_LATER: {
@@ -155,9 +438,11 @@ class TimeshiftPlayerAacAuSdk21 extends TimeshiftPlayerAacAu implements Timeshif
 						ByteBuffer pcmBuffer = mMediaCodec.getOutputBuffer(outbufIdx);
 
 						if (pcmBuffer != null) {
-							reArr = new byte[mBufferInfo.size];
-							pcmBuffer.get(reArr);
-							pcmBuffer.clear();
+							pcmBuffer.limit(mBufferInfo.offset + mBufferInfo.size);
+							pcmBuffer.position(mBufferInfo.offset);
+
+							dispatchPcm(pcmBuffer);
+							decodedBytes = mBufferInfo.size;
 						}
 
 						mMediaCodec.releaseOutputBuffer(outbufIdx, false);
@@ -166,10 +451,10 @@ class TimeshiftPlayerAacAuSdk21 extends TimeshiftPlayerAacAu implements Timeshif
 				}
 			}
 		} else {
-			if(DEBUG)Log.w(TAG, "MediaCodec is null at getDecodedBuffer()");
+			if(DEBUG)Log.w(TAG, "MediaCodec is null at drainDecodedBuffer()");
 		}
 
-		return reArr;
+		return decodedBytes;
 	}
 
 	@TargetApi(21)
@@ -213,6 +498,14 @@ class TimeshiftPlayerAacAuSdk21 extends TimeshiftPlayerAacAu implements Timeshif
 			mMediaFormat.setByteBuffer("csd-0", ascBuffer);
 		}
 
+		startMediaCodec();
+	}
+
+	/**
+	 * Creates, configures and starts the decoder for {@link #mMediaFormat} in callback mode
+	 */
+	@TargetApi(21)
+	void startMediaCodec() {
 		try {
 			for (int i = 0; i < MediaCodecList.getCodecCount(); i++) {
 				MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
@@ -242,8 +535,9 @@ class TimeshiftPlayerAacAuSdk21 extends TimeshiftPlayerAacAu implements Timeshif
 			try {
 				mBufferInfo = new MediaCodec.BufferInfo();
 
+				mPendingInputs.clear();
+				mMediaCodec.setCallback(mCodecCallback);
 				mMediaCodec.configure(mMediaFormat, null, null, 0);
-				MediaFormat outputFormat = mMediaCodec.getOutputFormat();
 				mMediaCodec.start();
 
 				if(DEBUG)Log.d(TAG, "Setting mDecode to true");
@@ -11,6 +11,8 @@ import org.omri.radioservice.metadata.TextualMetadataListener;
 import org.omri.radioservice.metadata.Visual;
 import org.omri.radioservice.metadata.VisualMetadataListener;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
@@ -47,6 +49,7 @@ public class TimeshiftPlayerEdiSbt implements TimeshiftPlayer, RadioServiceDabEd
 	private long mNowPos = 0;
 
 	private CopyOnWriteArrayList<TimeshiftListener> mListeners = new CopyOnWriteArrayList<>();
+	private CopyOnWriteArrayList<TimeshiftPcmListener> mPcmListeners = new CopyOnWriteArrayList<>();
 
 	@Override
 	public void play() {
@@ -105,6 +108,17 @@ public class TimeshiftPlayerEdiSbt implements TimeshiftPlayer, RadioServiceDabEd
 		}
 	}
 
+	@Override
+	public void setPlaybackRate(float rate) {
+		//the timeshift buffer is on the server, the audio is delivered in real time
+		if(BuildConfig.DEBUG)Log.d(TAG, "setPlaybackRate() not supported for SBT: " + rate);
+	}
+
+	@Override
+	public float getPlaybackRate() {
+		return 1.0f;
+	}
+
 	@Override
 	public List<SkipItem> getSkipItems() {
 		//if(BuildConfig.DEBUG)Log.d(TAG, "getSkipItems() : " + mSkipItems.size());
@@ -161,6 +175,35 @@ public class TimeshiftPlayerEdiSbt implements TimeshiftPlayer, RadioServiceDabEd
 		}
 	}
 
+	@Override
+	public void addPcmListener(TimeshiftPcmListener pcmListener) {
+		if(pcmListener != null && !mPcmListeners.contains(pcmListener)) {
+			mPcmListeners.add(pcmListener);
+			if(mPcmListeners.size() == 1 && mTimeshiftService != null) {
+				mTimeshiftService.subscribe(mPcmAdapter);
+			}
+		}
+	}
+
+	@Override
+	public void removePcmListener(TimeshiftPcmListener pcmListener) {
+		if(mPcmListeners.remove(pcmListener) && mPcmListeners.isEmpty() && mTimeshiftService != null) {
+			mTimeshiftService.unsubscribe(mPcmAdapter);
+		}
+	}
+
+	//the service decodes itself and only delivers arrays, wraps them for the TimeshiftPcmListeners
+	private final RadioServiceAudiodataListener mPcmAdapter = new RadioServiceAudiodataListener() {
+		@Override
+		public void pcmAudioData(byte[] pcmData, int numChannels, int samplingRate) {
+			ByteBuffer pcmView = ByteBuffer.wrap(pcmData).asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+			for(TimeshiftPcmListener pcmListener : mPcmListeners) {
+				pcmView.clear();
+				pcmListener.pcmAudioData(pcmView, numChannels, samplingRate);
+			}
+		}
+	};
+
 	@Override
 	public RadioService getRadioService() {
 		return mTimeshiftService;
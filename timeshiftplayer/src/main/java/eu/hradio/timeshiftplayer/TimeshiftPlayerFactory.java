@@ -9,6 +9,7 @@ import org.omri.radioservice.RadioServiceDabComponent;
 import org.omri.radioservice.RadioServiceDabEdi;
 import org.omri.radioservice.RadioServiceMimeType;
 
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -40,6 +41,32 @@ public final class TimeshiftPlayerFactory {
 	 * @throws IOException if the creation of the (temporary) recording file fails
 	 */
 	public static TimeshiftPlayer create(final Context context, final RadioService service) throws IOException {
+		return create(context, service, 0);
+	}
+
+	/**
+	 * {@link TimeshiftPlayer} factory method with a bounded timeshift depth. The oldest part of the recording is dropped
+	 * when the depth is exceeded, so the disk usage stays constant during continuous operation.
+	 * @param context the applications context
+	 * @param service the service
+	 * @param maxTimeshiftMs the maximum timeshift depth in milliseconds or {@code 0} for unlimited
+	 * @return a {@link TimeshiftPlayer} for the given {@link RadioService} or {@code null} if no {@link TimeshiftPlayer} is available for this {@link org.omri.radioservice.RadioServiceType}
+	 * @throws IOException if the creation of the (temporary) recording file fails
+	 */
+	public static TimeshiftPlayer create(final Context context, final RadioService service, final long maxTimeshiftMs) throws IOException {
+		return create(context, service, maxTimeshiftMs, null);
+	}
+
+	/**
+	 * {@link TimeshiftPlayer} factory method for players writing their recording with a shared {@link RecordingWriteScheduler}
+	 * @param context the applications context
+	 * @param service the service
+	 * @param maxTimeshiftMs the maximum timeshift depth in milliseconds or {@code 0} for unlimited
+	 * @param writeScheduler the {@link RecordingWriteScheduler} or {@code null} to write on the audio callback
+	 * @return a {@link TimeshiftPlayer} for the given {@link RadioService} or {@code null} if no {@link TimeshiftPlayer} is available for this {@link org.omri.radioservice.RadioServiceType}
+	 * @throws IOException if the creation of the (temporary) recording file fails
+	 */
+	static TimeshiftPlayer create(final Context context, final RadioService service, final long maxTimeshiftMs, final RecordingWriteScheduler writeScheduler) throws IOException {
 		if(context != null && service != null) {
 			switch (service.getRadioServiceType()) {
 				case RADIOSERVICE_TYPE_DAB: {
@@ -58,6 +85,8 @@ public final class TimeshiftPlayerFactory {
 									tsPlayer = new TimeshiftPlayerAacAuSdk16(context);
 								}
 
+								tsPlayer.setMaxTimeshiftDuration(maxTimeshiftMs);
+								tsPlayer.setWriteScheduler(writeScheduler);
 								tsPlayer.prepare(service);
 
 								return tsPlayer;
@@ -65,6 +94,8 @@ public final class TimeshiftPlayerFactory {
 								if(BuildConfig.DEBUG) Log.d(TAG, "Creating MPEG TimeshiftPlayer");
 
 								TimeshiftPlayerMpeg2 tsPlayer = new TimeshiftPlayerMpeg2(context);
+								tsPlayer.setMaxTimeshiftDuration(maxTimeshiftMs);
+								tsPlayer.setWriteScheduler(writeScheduler);
 								tsPlayer.prepare(service);
 
 								return tsPlayer;
@@ -97,6 +128,8 @@ public final class TimeshiftPlayerFactory {
 										tsPlayer = new TimeshiftPlayerAacAuSdk16(context);
 									}
 
+									tsPlayer.setMaxTimeshiftDuration(maxTimeshiftMs);
+									tsPlayer.setWriteScheduler(writeScheduler);
 									tsPlayer.prepare(service);
 
 									return tsPlayer;
@@ -104,6 +137,8 @@ public final class TimeshiftPlayerFactory {
 									if (BuildConfig.DEBUG) Log.d(TAG, "Creating MPEG TimeshiftPlayer");
 
 									TimeshiftPlayerMpeg2 tsPlayer = new TimeshiftPlayerMpeg2(context);
+									tsPlayer.setMaxTimeshiftDuration(maxTimeshiftMs);
+									tsPlayer.setWriteScheduler(writeScheduler);
 									tsPlayer.prepare(service);
 
 									return tsPlayer;
@@ -122,15 +157,123 @@ public final class TimeshiftPlayerFactory {
 		return null;
 	}
 
+	/**
+	 * Resumes the recording of the given service which a previous process left behind, e.g. after it was killed.
+	 * The timeshift buffer, labels, slides and {@link SkipItem}s recorded so far are available again and
+	 * new audio is appended to the recording. Only DAB+ recordings can be resumed.
+	 * @param context the applications context
+	 * @param service the service
+	 * @return a {@link TimeshiftPlayer} continuing the most recent recording of the service or {@code null} if there is none to resume
+	 * @throws IOException if reopening the recording fails
+	 */
+	public static TimeshiftPlayer resume(final Context context, final RadioService service) throws IOException {
+		if(context == null || service == null || !isAacAuService(service)) {
+			return null;
+		}
+
+		SessionManifest manifest = findSession(context.getExternalCacheDir(), SessionManifest.getServiceKey(service));
+		if(manifest == null) {
+			if(BuildConfig.DEBUG) Log.d(TAG, "No recording to resume for: " + service.getServiceLabel());
+			return null;
+		}
+
+		TimeshiftPlayerAacAu tsPlayer = null;
+		if (android.os.Build.VERSION.SDK_INT >= 21) {
+			tsPlayer = new TimeshiftPlayerAacAuSdk21(manifest.getRecordingDir());
+		} else {
+			tsPlayer = new TimeshiftPlayerAacAuSdk16(manifest.getRecordingDir());
+		}
+
+		long resumeStartNs = System.nanoTime();
+		tsPlayer.resume(service, manifest);
+		if(BuildConfig.DEBUG) Log.d(TAG, "Resumed recording in " + ((System.nanoTime() - resumeStartNs) / 1000000) + " ms");
+
+		return tsPlayer;
+	}
+
+	/**
+	 * Finds the most recent recording of a service
+	 * @return the {@link SessionManifest} of the recording or {@code null} if there is none
+	 */
+	private static SessionManifest findSession(File cacheDir, String serviceKey) {
+		File[] recordingDirs = (cacheDir != null) ? cacheDir.listFiles() : null;
+		if(recordingDirs == null) {
+			return null;
+		}
+
+		SessionManifest latestManifest = null;
+		long latestMillis = -1;
+		for(File recordingDir : recordingDirs) {
+			if(!recordingDir.isDirectory() || !recordingDir.getName().startsWith("ts_")) {
+				continue;
+			}
+
+			long recordingMillis;
+			try {
+				recordingMillis = Long.parseLong(recordingDir.getName().substring(3));
+			} catch(NumberFormatException numExc) {
+				continue;
+			}
+
+			if(recordingMillis > latestMillis) {
+				SessionManifest manifest = SessionManifest.read(recordingDir);
+				if(manifest != null && manifest.getServiceKey().equals(serviceKey)) {
+					latestManifest = manifest;
+					latestMillis = recordingMillis;
+				}
+			}
+		}
+
+		return latestManifest;
+	}
+
+	private static boolean isAacAuService(RadioService service) {
+		switch (service.getRadioServiceType()) {
+			case RADIOSERVICE_TYPE_EDI: {
+				if(((RadioServiceDabEdi)service).sbtEnabled()) {
+					return false;
+				}
+				//an EDI service without SBT is recorded like a DAB service
+			}
+			case RADIOSERVICE_TYPE_DAB: {
+				for(RadioServiceDabComponent component : ((RadioServiceDab)service).getServiceComponents()) {
+					if(component.isPrimary()) {
+						return component.getServiceComponentType() == RadioServiceMimeType.AUDIO_AAC_DAB_AU.getContententTypeId();
+					}
+				}
+				break;
+			}
+			default: {
+				break;
+			}
+		}
+
+		return false;
+	}
+
 	public static TimeshiftPlayerPcmAu createPcmPlayer(final Context context, final RadioService service) throws IOException {
+		return createPcmPlayer(context, service, 0);
+	}
+
+	/**
+	 * {@link TimeshiftPlayerPcmAu} factory method with a bounded timeshift depth
+	 * @param context the applications context
+	 * @param service the service
+	 * @param maxTimeshiftMs the maximum timeshift depth in milliseconds or {@code 0} for unlimited
+	 * @return a {@link TimeshiftPlayerPcmAu} for the given {@link RadioService} or {@code null} if context or service is {@code null}
+	 * @throws IOException if the creation of the (temporary) recording file fails
+	 */
+	public static TimeshiftPlayerPcmAu createPcmPlayer(final Context context, final RadioService service, final long maxTimeshiftMs) throws IOException {
 		TimeshiftPlayerPcmAu retPlayer = null;
 
 		if(context != null && service != null) {
 			if (android.os.Build.VERSION.SDK_INT >= 21) {
 				retPlayer = new TimeshiftPlayerPcmAuSdk21(context);
+				((TimeshiftPlayerPcmAuSdk21)retPlayer).setMaxTimeshiftDuration(maxTimeshiftMs);
 				((TimeshiftPlayerPcmAuSdk21)retPlayer).prepare(service);
 			} else {
 				retPlayer = new TimeshiftPlayerPcmAuSdk16(context);
+				((TimeshiftPlayerPcmAuSdk16)retPlayer).setMaxTimeshiftDuration(maxTimeshiftMs);
 				((TimeshiftPlayerPcmAuSdk16)retPlayer).prepare(service);
 			}
 		}
@@ -9,8 +9,6 @@ import android.content.pm.PackageManager;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.util.Log;
-import android.util.LongSparseArray;
-import android.util.Pair;
 
 import org.omri.radioservice.RadioService;
 import org.omri.radioservice.RadioServiceAudiodataListener;
@@ -26,14 +24,15 @@ import org.omri.radioservice.metadata.VisualDabSlideShow;
 import org.omri.radioservice.metadata.VisualMetadataListener;
 import org.omri.radioservice.metadata.VisualType;
 
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.irt.dabaudiodecoderplugininterface.IDabPluginCallback;
 import de.irt.dabaudiodecoderplugininterface.IDabPluginInterface;
@@ -63,6 +62,13 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 
 	private final static String TAG = "TimeshiftPlayerMpeg2";
 
+	//number of frames copied from the recording at once, also the maximum number of frames per decoder transaction
+	private static final int FRAME_BATCH_SIZE = 16;
+	//PCM samples per channel of a MPEG-1 Layer II frame, 16 bit each
+	private static final int SAMPLES_PER_FRAME = 1152;
+	//default lead of the submitted frames ahead of the playback position
+	private static final long DEFAULT_PLAYBACK_LEAD_MS = 200;
+
 	private Context mContext;
 
 	private RadioService mTimeshiftService = null;
@@ -70,14 +76,20 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 	private boolean mPlayWhenReady = false;
 	private boolean mPlayerPaused = false;
 
-	private FileOutputStream mFileOutStream = null;
-	private RandomAccessFile mInFile = null;
+	private TimeshiftFileWriter mFileWriter = null;
+	//writes the recording on the shared writer thread of a TimeshiftRecorderManager, null to write on the audio callback
+	private RecordingWriteScheduler mWriteScheduler = null;
+	private MappedAuReader mFrameReader = null;
+
+	//frames are copied from the recording in runs, one frame after the other is handed to the decoder
+	private byte[] mFrameBatch = null;
+	//the encoded data is marshalled during the call to the decoder plugin, so one array per number of frames is reused
+	private byte[][] mSubmitData = null;
+	private int mBatchFrames = 0;
+	private int mBatchIdx = 0;
+	private long mBatchFirstAu = 0;
 
 	private File mCacheDir = null;
-	private File mCacheVisDir = null;
-	private File mCacheTextDir = null;
-	private File mEncFile = null;
-	private String mOutputPath;
 
 	private boolean mPlaythreadRunning = false;
 	private Thread mPlayThread = null;
@@ -89,53 +101,75 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 
 	private long mReadAus = -1;
 	private long mMsAudioPerAu = -1;
-	private long mTimeshiftDuration = 0;
+	//derived from the index when a frame was committed, the segment listener runs on the writer thread too
+	private volatile long mTimeshiftDuration = 0;
 	private long mWrittenAus = -1;
+	//frames the writer thread failed to write, taken off mWrittenAus by the next audio callback
+	private final AtomicInteger mLostAus = new AtomicInteger();
+	//number of the first frame still in the recording, positions are reported relative to it
+	private volatile long mFirstAu = 0;
 	private int mMpegFrameSize = -1;
 
+	//maximum timeshift depth, 0 for unlimited
+	private long mMaxTimeshiftMs = 0;
+
 	private boolean mSkipable = false;
 	private boolean mItemRunning = false;
 	private boolean mItemToggleState = false;
 
-	private boolean mEofPause = false;
+	private List<SkipItem> mSkipItems = new CopyOnWriteArrayList<>();
 
-	private String mLastSlsPath = null;
-	private List<Pair<Long, Long>> mSkipEntries = new ArrayList<>();
+	private List<TimeshiftListener> mListeners = new CopyOnWriteArrayList<>();
 
-	private List<SkipItem> mSkipItems = new ArrayList<>();
+	//DLS labels and SLS slides by frame number
+	private MetadataLog mMetadataLog = null;
 
-	private List<TimeshiftListener> mListeners = new ArrayList<>();
-
-	private LongSparseArray<String> mSlideshowFileSparse = new LongSparseArray<>();
-	private LongSparseArray<String> mLabelFileSparse = new LongSparseArray<>();
+	private final AuOffsetIndex mAuIndex = new AuOffsetIndex();
 
 	private int mConfChans = 0;
 	private int mConfSampling = 0;
 
 	private List<RadioServiceAudiodataListener> mAudioListeners = new ArrayList<>();
+	private List<TimeshiftPcmListener> mPcmListeners = new CopyOnWriteArrayList<>();
 
 	//Decoder plugin
 	private boolean mHasMpegDecPlug = false;
 	private IDabPluginInterface mDecoderService;
 	private DabDecoderServiceConnection mDecoderConnection;
+	//frames handed to the decoder plugin per transaction
+	private volatile int mDecoderBatchFrames = 1;
+	//submission is paced by the decoded output, guarded by mDecodeLock
+	private final Object mDecodeLock = new Object();
+	private long mSubmittedFrames = 0;
+	private long mDecodedPcmBytes = 0;
+
+	//the pacing clock: frame mClockAu plays at mClockNs of the monotonic clock, the following frames in real time
+	private volatile long mPlaybackLeadMs = DEFAULT_PLAYBACK_LEAD_MS;
+	private long mClockNs = -1;
+	private long mClockAu = 0;
+	//the frame expected next, the clock restarts if the play position moved
+	private long mPacedAu = -1;
+	//notified when a frame was written or the play position or state changed
+	private final Object mPacingLock = new Object();
+	private volatile long mPacedFrames = 0;
+	private volatile long mUnderruns = 0;
+	private volatile long mUnderrunMs = 0;
+	private volatile long mMaxUnderrunMs = 0;
+	//the rate the pacing clock runs at, the clock restarts when the rate changes
+	private float mClockRate = 1.0f;
+
+	//the decoded PCM is time-stretched while catching up with the live position
+	private volatile float mPlaybackRate = 1.0f;
+	private final TimeStretcher mTimeStretcher = new TimeStretcher();
 
 	TimeshiftPlayerMpeg2(Context context) {
 		mContext = context;
 
 		mCacheDir = new File(context.getExternalCacheDir(), "ts_" + System.currentTimeMillis());
 		boolean dirCreated = mCacheDir.mkdir();
-		if(dirCreated) {
-			mCacheVisDir = new File(mCacheDir, "visuals");
-			mCacheVisDir.mkdir();
-
-			mCacheTextDir = new File(mCacheDir, "textuals");
-			mCacheTextDir.mkdir();
-		}
 
 		if(DEBUG) {
 			Log.d(TAG, "FileCacheDIR: " + mCacheDir.getAbsolutePath() + " : " + dirCreated);
-			Log.d(TAG, "VisCacheDIR: " + mCacheVisDir.getAbsolutePath());
-			Log.d(TAG, "TexCacheDIR: " + mCacheTextDir.getAbsolutePath());
 		}
 
 		mHasMpegDecPlug = mpegDecPluginInstalled();
@@ -158,6 +192,18 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 		mAudioListeners.remove(pcmListener);
 	}
 
+	@Override
+	public void addPcmListener(TimeshiftPcmListener pcmListener) {
+		if(pcmListener != null && !mPcmListeners.contains(pcmListener)) {
+			mPcmListeners.add(pcmListener);
+		}
+	}
+
+	@Override
+	public void removePcmListener(TimeshiftPcmListener pcmListener) {
+		mPcmListeners.remove(pcmListener);
+	}
+
 	/* **************** Decoder Service **************************** */
 	private boolean mpegDecPluginInstalled() {
 		if(DEBUG)Log.d(TAG, "Searching installed Codec Plugins!");
@@ -210,24 +256,163 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 		@Override
 		public void decodedPcmData(byte[] pcmData) throws RemoteException {
 			if (pcmData != null && pcmData.length > 0) {
+				framesDecoded(pcmData.length);
+
+				float rate = mPlaybackRate;
+				if(rate > 1.0f && mConfSampling > 0) {
+					mTimeStretcher.configure(mConfSampling, mConfChans);
+					mTimeStretcher.setRate(rate);
+					dispatchPcm(mTimeStretcher.process(ByteBuffer.wrap(pcmData)));
+					return;
+				}
+				if(mTimeStretcher.hasPending()) {
+					//the PCM held back for the next sequence continues at the normal rate
+					dispatchPcm(mTimeStretcher.flush());
+				}
+
 				for(RadioServiceAudiodataListener pcmListener : mAudioListeners) {
 					pcmListener.pcmAudioData(pcmData, mConfChans, mConfSampling);
 				}
+
+				if(!mPcmListeners.isEmpty()) {
+					//the plugin already delivers a copy, only wrap it
+					ByteBuffer pcmView = ByteBuffer.wrap(pcmData).asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+					for(TimeshiftPcmListener pcmListener : mPcmListeners) {
+						pcmView.clear();
+						pcmListener.pcmAudioData(pcmView, mConfChans, mConfSampling);
+					}
+				}
 			}
 		}
 	};
 
+	/**
+	 * Hands time-stretched PCM to the listeners, {@link TimeshiftPcmListener}s receive a read-only view of it
+	 */
+	private void dispatchPcm(ByteBuffer pcmBuffer) {
+		if(!pcmBuffer.hasRemaining()) {
+			return;
+		}
+
+		int pcmPos = pcmBuffer.position();
+		int pcmLimit = pcmBuffer.limit();
+		if(!mAudioListeners.isEmpty()) {
+			byte[] pcmData = new byte[pcmLimit - pcmPos];
+			pcmBuffer.get(pcmData);
+			pcmBuffer.position(pcmPos);
+
+			for(RadioServiceAudiodataListener pcmListener : mAudioListeners) {
+				pcmListener.pcmAudioData(pcmData, mConfChans, mConfSampling);
+			}
+		}
+
+		if(!mPcmListeners.isEmpty()) {
+			ByteBuffer pcmView = pcmBuffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+			for(TimeshiftPcmListener pcmListener : mPcmListeners) {
+				pcmView.limit(pcmLimit);
+				pcmView.position(pcmPos);
+				pcmListener.pcmAudioData(pcmView, mConfChans, mConfSampling);
+			}
+		}
+	}
+
+
+	/**
+	 * Sets the number of frames handed to the decoder plugin in one transaction. The frames are concatenated into one
+	 * buffer, which the plugin must be able to decode as a stream. Fewer transactions lower the CPU load of the
+	 * inter process calls, but the playback reacts later to pause and seek.
+	 * @param numFrames the number of frames per transaction, between {@code 1} (default) and {@code 16}
+	 */
+	public void setDecoderBatchFrames(int numFrames) {
+		mDecoderBatchFrames = Math.max(1, Math.min(numFrames, FRAME_BATCH_SIZE));
+	}
+
+	/**
+	 * Sets how far ahead of the playback position frames are submitted to the decoder plugin. A longer lead
+	 * bridges longer delays of the plugin or the storage, a shorter lead keeps less audio in flight.
+	 * Decoder transactions of several frames are submitted when their first frame is due.
+	 * @param leadMs the playback lead in milliseconds, {@code 200} by default
+	 */
+	public void setPlaybackLead(long leadMs) {
+		mPlaybackLeadMs = Math.max(0, leadMs);
+	}
+
+	/**
+	 * Returns the counters of the paced playback, e.g. to detect that the playback runs dry
+	 * @return a snapshot of the {@link PlaybackStatistics}
+	 */
+	public PlaybackStatistics getPlaybackStatistics() {
+		return new PlaybackStatistics(mPacedFrames, mUnderruns, mUnderrunMs, mMaxUnderrunMs, mPlaybackLeadMs);
+	}
+
+	private void framesDecoded(int pcmBytes) {
+		synchronized(mDecodeLock) {
+			mDecodedPcmBytes += pcmBytes;
+			mDecodeLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until the decoder plugin has decoded enough of the submitted frames to take the given number of frames.
+	 * The frames of the playback lead and one decoder transaction may be in flight, so the credit never holds
+	 * back frames the pacing clock submits.
+	 */
+	private void awaitDecoderCredit(int numFrames) throws InterruptedException {
+		int pcmBytesPerFrame = SAMPLES_PER_FRAME * 2 * Math.max(mConfChans, 1);
+		long leadFrames = (long)Math.ceil(mPlaybackLeadMs * mPlaybackRate / mMsAudioPerAu);
+		long maxInFlight = leadFrames + mDecoderBatchFrames;
+
+		synchronized(mDecodeLock) {
+			while(mPlaythreadRunning) {
+				long decodedFrames = mDecodedPcmBytes / pcmBytesPerFrame;
+				long inFlight = mSubmittedFrames - decodedFrames;
+				if(inFlight + numFrames <= maxInFlight) {
+					break;
+				}
+
+				//the frames in flight are decoded within their duration
+				long waitStartNs = System.nanoTime();
+				long waitMs = inFlight * mMsAudioPerAu;
+				mDecodeLock.wait(waitMs);
+				if(mDecodedPcmBytes / pcmBytesPerFrame == decodedFrames && (System.nanoTime() - waitStartNs) / 1000000 >= waitMs) {
+					//the plugin delivers no output for them, e.g. it was restarted
+					if(DEBUG)Log.w(TAG, "No decoded output for " + inFlight + " frames, continuing");
+					mSubmittedFrames = decodedFrames;
+				}
+			}
+
+			mSubmittedFrames += numFrames;
+		}
+	}
 
 	/* ************************************************************* */
 
+	/**
+	 * Sets the maximum timeshift depth. The oldest part of the recording is dropped when the depth is exceeded.
+	 * Must be called before {@link #prepare(RadioService)}.
+	 * @param maxTimeshiftMs the maximum timeshift depth in milliseconds or {@code 0} for unlimited
+	 */
+	void setMaxTimeshiftDuration(long maxTimeshiftMs) {
+		mMaxTimeshiftMs = maxTimeshiftMs;
+	}
+
+	/**
+	 * Sets the {@link RecordingWriteScheduler} to write the recording with. Must be called before {@link #prepare(RadioService)}.
+	 * @param writeScheduler the {@link RecordingWriteScheduler} or {@code null} to write on the audio callback
+	 */
+	void setWriteScheduler(RecordingWriteScheduler writeScheduler) {
+		mWriteScheduler = writeScheduler;
+	}
+
 	void prepare(RadioService timeshiftService) throws IOException {
 		mPlayWhenReady = false;
 
 		mTimeshiftService = timeshiftService;
 
-		mEncFile = File.createTempFile("dabtmp_" + System.currentTimeMillis(), ".dab", mCacheDir);
-		mOutputPath = mEncFile.getAbsolutePath();
-		mFileOutStream = new FileOutputStream(mEncFile);
+		String recordingName = "dabtmp_" + System.currentTimeMillis();
+		mFileWriter = new TimeshiftFileWriter(mCacheDir, recordingName, mAuIndex);
+		mFileWriter.setSegmentListener(mSegmentListener);
+		mMetadataLog = new MetadataLog(new File(mCacheDir, TimeshiftFileWriter.getMetadataFileName(recordingName)));
 
 		mPlayerPaused = false;
 		mTimeshiftService.subscribe(this);
@@ -252,20 +437,23 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 			mTimeshiftService.unsubscribe(this);
 		}
 
-		if(mFileOutStream != null) {
-			try {
-				mFileOutStream.close();
-			} catch(IOException ioExc) {
-				if(DEBUG)ioExc.printStackTrace();
+		if(mFileWriter != null) {
+			if(mWriteScheduler != null) {
+				mWriteScheduler.close(mFileWriter);
+			} else {
+				mFileWriter.close();
 			}
 		}
 
 		mPlayerPaused = false;
 		mStartTimeNs = -1;
-		mLastSlsPath = null;
-		mLabelFileSparse.clear();
-		mLabelFileSparse.clear();
-		mSlideshowFileSparse.clear();
+		if(mMetadataLog != null) {
+			mMetadataLog.close();
+		}
+
+		//a new recording starts with its own configuration
+		mConfChans = 0;
+		mConfSampling = 0;
 
 		if(deleteTemp) {
 			TimeshiftUtils.deleteFolder(mCacheDir);
@@ -281,6 +469,7 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 	@Override
 	public void pause(boolean pause) {
 		mPlayerPaused = pause;
+		wakePlayThread();
 	}
 
 	@Override
@@ -291,6 +480,18 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 	@Override
 	public void seek(long seekMilliseconds) {
 		mSeekToPos = seekMilliseconds;
+		wakePlayThread();
+	}
+
+	@Override
+	public void setPlaybackRate(float rate) {
+		mPlaybackRate = TimeStretcher.clampRate(rate);
+		wakePlayThread();
+	}
+
+	@Override
+	public float getPlaybackRate() {
+		return mPlaybackRate;
 	}
 
 	@Override
@@ -301,8 +502,9 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 	@Override
 	public void skipTo(SkipItem item) {
 		if(item != null) {
-			mSkipPos = item.getSkipPoint();
-			mReadAus = item.getWrittenAus();
+			mSkipPos = Math.max(item.getWrittenAus(), mFirstAu);
+			mReadAus = mSkipPos;
+			wakePlayThread();
 			if(item.getSkipVisual() != null) {
 				for(TimeshiftListener listener : mListeners) {
 					if(listener != null) {
@@ -321,7 +523,7 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 
 	@Override
 	public long getCurrentPosition() {
-		return mReadAus * mMsAudioPerAu;
+		return (mReadAus - mFirstAu) * mMsAudioPerAu;
 	}
 
 	@Override
@@ -339,12 +541,18 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 	/* ***************************************************** */
 	private void startPlayThread() {
 		if(!mPlaythreadRunning) {
-			try {
-				mInFile = new RandomAccessFile(mEncFile, "r");
-				mInFile.skipBytes(4);
-			} catch(IOException ioE) {
-				if(DEBUG) Log.e(TAG, "Error opening InFile");
+			mFrameReader = new MappedAuReader(mFileWriter, mAuIndex);
+			mFrameReader.seekToAu(Math.max(mReadAus + 1, mFirstAu));
+			mMetadataLog.seekCursor(mFrameReader.getNextAu());
+			discardFrameBatch();
+			synchronized(mDecodeLock) {
+				mSubmittedFrames = 0;
+				mDecodedPcmBytes = 0;
 			}
+
+			mClockNs = -1;
+			mPacedAu = -1;
+
 			mPlayerPaused = false;
 			mPlayThread = new Thread(PlayerRunnable);
 			mPlayThread.start();
@@ -372,6 +580,11 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 			}
 			mPlayThread = null;
 		}
+
+		if(mFrameReader != null) {
+			mFrameReader.close();
+			mFrameReader = null;
+		}
 	}
 
 	private Runnable PlayerRunnable = new Runnable() {
@@ -387,34 +600,70 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 			try {
 				//Seeking
 				if(mSeekToPos >= 0) {
-					seekToMs(mSeekToPos);
+					long seekToPos = mSeekToPos;
+					//an unreachable position is dropped instead of retried
+					mSeekToPos = -1;
+					seekToMs(seekToPos);
 				}
 				//Skip
 				if(mSkipPos >= 0) {
-					mInFile.seek(mSkipPos);
+					mFrameReader.seekToAu(mSkipPos);
+					mMetadataLog.seekCursor(mSkipPos);
 					mSkipPos = -1;
+					discardFrameBatch();
 				}
 
-				//Pause
+				//Pause, the clock restarts with the playback
 				if(mPlayerPaused) {
-					Thread.sleep(100);
+					mClockNs = -1;
+					synchronized(mPacingLock) {
+						if(mPlayerPaused) {
+							mPacingLock.wait(100);
+						}
+					}
 					continue;
 				}
 
-				//Handle EOF
-				if(mEofPause) {
-					Thread.sleep(1000);
+				//Handle EOF, catching up ends at the live position, wait for the writer
+				if(mBatchIdx >= mBatchFrames && !readFrameBatch()) {
+					if(mPlaybackRate != 1.0f) {
+						if(DEBUG)Log.d(TAG, "Caught up with the live position at frame: " + mFrameReader.getNextAu());
+						mPlaybackRate = 1.0f;
+					}
+					awaitWrittenFrame();
 					continue;
 				}
 
 				//Play
-				byte[] data = new byte[mMpegFrameSize];
-				mInFile.read(data);
-				++mReadAus;
+				int numFrames = Math.min(mDecoderBatchFrames, mBatchFrames - mBatchIdx);
+				if(!awaitPlaybackLead(mBatchFirstAu + mBatchIdx)) {
+					continue;
+				}
+				if(mDecoderService != null) {
+					awaitDecoderCredit(numFrames);
+				}
+
+				byte[] submitData = mSubmitData[numFrames];
+				if(submitData == null) {
+					submitData = new byte[numFrames * mMpegFrameSize];
+					mSubmitData[numFrames] = submitData;
+				}
+				System.arraycopy(mFrameBatch, mBatchIdx * mMpegFrameSize, submitData, 0, numFrames * mMpegFrameSize);
+				mReadAus = mBatchFirstAu + mBatchIdx + numFrames - 1;
+				mBatchIdx += numFrames;
+				mPacedAu = mReadAus + 1;
+				mPacedFrames += numFrames;
 
 				long curPoint = mReadAus;
-				VisualDabSlideShow curSls = (VisualDabSlideShow)TimeshiftUtils.deserializeVisual(mSlideshowFileSparse.get(curPoint));
-				TextualDabDynamicLabel curDls = (TextualDabDynamicLabel)TimeshiftUtils.deserializeTextual(mLabelFileSparse.get(curPoint));
+				long pendingAu = mMetadataLog.getPendingAu();
+				VisualDabSlideShow curSls = null;
+				TextualDabDynamicLabel curDls = null;
+				if(curPoint >= pendingAu) {
+					//the play position may have jumped over the pending frame, the latest metadata crossed is delivered
+					curSls = (VisualDabSlideShow)mMetadataLog.findVisual(pendingAu, curPoint);
+					curDls = (TextualDabDynamicLabel)mMetadataLog.findTextual(pendingAu, curPoint);
+					mMetadataLog.seekCursor(curPoint + 1);
+				}
 
 				if(curSls != null) {
 					for(TimeshiftListener listener : mListeners) {
@@ -433,14 +682,11 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 
 				try {
 					if(mDecoderService != null) {
-						mDecoderService.enqueueEncodedData(data);
+						mDecoderService.enqueueEncodedData(submitData);
 					}
 				} catch(RemoteException remExc) {
 					if(DEBUG)remExc.printStackTrace();
 				}
-			} catch(EOFException eofExc) {
-				if(DEBUG)eofExc.printStackTrace();
-				mEofPause = true;
 			} catch(IOException ioE) {
 				if(DEBUG)ioE.printStackTrace();
 			} catch(InterruptedException interE) {
@@ -449,70 +695,136 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 		} while(mPlaythreadRunning);
 	}
 
-	private void seekToMs(long milliSecondsPos) {
-		if(DEBUG) Log.d(TAG, "Seeking to: " + milliSecondsPos);
+	/**
+	 * Waits on the pacing clock until the frame is within the playback lead. The clock starts at the frame if the
+	 * playback started, moved or changed its rate, or if the frame is already late, then the lead is submitted at once.
+	 * @param frame the number of the next frame to submit
+	 * @return {@code true} if the frame is due, {@code false} if the wait ended early and the state must be checked again
+	 */
+	private boolean awaitPlaybackLead(long frame) throws InterruptedException {
+		long nowNs = System.nanoTime();
+		long leadNs = mPlaybackLeadMs * 1000000L;
+		float rate = mPlaybackRate;
+		if(mClockNs < 0 || frame != mPacedAu || rate != mClockRate) {
+			mClockNs = nowNs + leadNs;
+			mClockAu = frame;
+			mClockRate = rate;
+			return true;
+		}
 
-		//can't seek beyond the actual duration or too close to the end of cache file
-		if(milliSecondsPos >= mTimeshiftDuration) {
-			return;
+		//faster playback consumes the frames in less time
+		long playNs = mClockNs + (long)((frame - mClockAu) * mMsAudioPerAu * 1000000L / rate);
+		if(nowNs > playNs) {
+			//the frame should already be playing, the decoder ran dry
+			long lateMs = (nowNs - playNs) / 1000000L;
+			++mUnderruns;
+			mUnderrunMs += lateMs;
+			mMaxUnderrunMs = Math.max(mMaxUnderrunMs, lateMs);
+			if(DEBUG)Log.d(TAG, "Underrun at frame " + frame + ", late by " + lateMs + " ms");
+
+			mClockNs = nowNs + leadNs;
+			mClockAu = frame;
+			return true;
 		}
 
-		try {
-			long numAUsSeek = milliSecondsPos / mMsAudioPerAu;
-			mReadAus = numAUsSeek;
-			mInFile.seek(numAUsSeek*mMpegFrameSize);
+		long submitNs = playNs - leadNs;
+		if(nowNs >= submitNs) {
+			return true;
+		}
 
-			mInFile.getFD().sync();
+		long waitNs = submitNs - nowNs;
+		synchronized(mPacingLock) {
+			if(!mPlayerPaused && mSeekToPos < 0 && mSkipPos < 0) {
+				mPacingLock.wait(waitNs / 1000000L, (int)(waitNs % 1000000L));
+			}
+		}
+		return false;
+	}
 
-			long seek = mInFile.getChannel().position();
-			long maxSeek = mInFile.getChannel().size();
+	/**
+	 * Waits until the writer committed a frame behind the play position or the play position or state changed
+	 */
+	private void awaitWrittenFrame() throws InterruptedException {
+		synchronized(mPacingLock) {
+			if(mFileWriter.getCommittedAus() <= mFrameReader.getNextAu() && !mPlayerPaused && mSeekToPos < 0 && mSkipPos < 0) {
+				//the timeout only bounds a missed notification
+				mPacingLock.wait(Math.max(mPlaybackLeadMs, mMsAudioPerAu));
+			}
+		}
+	}
 
-			int nextByte = mInFile.readUnsignedByte();
+	/**
+	 * Wakes the play thread waiting on the pacing clock or for new frames
+	 */
+	private void wakePlayThread() {
+		synchronized(mPacingLock) {
+			mPacingLock.notifyAll();
+		}
+	}
 
-			//search audioframe start
-			while (seek < maxSeek) {
-				if(nextByte == 0xFF) {
-					nextByte = mInFile.readUnsignedByte();
+	/* Called after a frame was committed or lost */
+	private final RecordingWriteScheduler.WriteListener mFrameWritten = new RecordingWriteScheduler.WriteListener() {
+		@Override
+		public void auWritten() {
+			mTimeshiftDuration = mAuIndex.getDurationUs() / 1000;
+			wakePlayThread();
+		}
 
-					if((nextByte & 0xF0) == 0xF0) {
-						mInFile.seek(seek);
-						mInFile.getFD().sync();
-						mSeekToPos = -1;
-						break;
-					}
-				}
+		@Override
+		public void auLost() {
+			mLostAus.incrementAndGet();
+		}
+	};
 
-				nextByte = mInFile.readUnsignedByte();
-				++seek;
-			}
-		} catch(IOException iOE) {
-			if(DEBUG)iOE.printStackTrace();
+	/**
+	 * Copies the next run of committed frames from the recording
+	 * @return {@code true} if at least one frame was read, {@code false} at the end of the recording
+	 */
+	private boolean readFrameBatch() throws IOException {
+		if(mFrameBatch == null || mFrameBatch.length != FRAME_BATCH_SIZE * mMpegFrameSize) {
+			mFrameBatch = new byte[FRAME_BATCH_SIZE * mMpegFrameSize];
+			mSubmitData = new byte[FRAME_BATCH_SIZE + 1][];
 		}
 
-		TextualDabDynamicLabel foundDls = null;
-		VisualDabSlideShow foundSls = null;
+		mBatchIdx = 0;
+		mBatchFrames = mFrameReader.readFrames(mFrameBatch, mMpegFrameSize, FRAME_BATCH_SIZE);
+		//the reader continues at the first retained frame if the position was dropped
+		mBatchFirstAu = mFrameReader.getNextAu() - mBatchFrames;
+
+		return mBatchFrames > 0;
+	}
 
-		for(int i = 0; i < mLabelFileSparse.size(); i++) {
-			long labelKey = mLabelFileSparse.keyAt(i);
+	/**
+	 * Drops the frames read ahead after the play position was moved
+	 */
+	private void discardFrameBatch() {
+		mBatchIdx = 0;
+		mBatchFrames = 0;
+	}
 
-			if(labelKey >= mReadAus-20 && labelKey <= mReadAus+20) {
-				foundDls = (TextualDabDynamicLabel)TimeshiftUtils.deserializeTextual(mLabelFileSparse.valueAt(i));
+	private void seekToMs(long milliSecondsPos) {
+		if(DEBUG) Log.d(TAG, "Seeking to: " + milliSecondsPos);
 
-				if(DEBUG)Log.d(TAG, "Found SeekPos DLS at Idx: " + i + ", AUPos: " + labelKey + ", ReadAus: " + mReadAus);
-				break;
-			}
+		//can't seek beyond the actual duration or too close to the end of cache file
+		if(milliSecondsPos >= mTimeshiftDuration) {
+			return;
 		}
 
-		for(int i = 0; i < mSlideshowFileSparse.size(); i++) {
-			long slsKey = mSlideshowFileSparse.keyAt(i);
+		//every frame is indexed, no need to search the frame start
+		long numAUsSeek = mFirstAu + milliSecondsPos / mMsAudioPerAu;
+		if(mAuIndex.getOffset(numAUsSeek) < 0) {
+			if(DEBUG)Log.w(TAG, "SeekPos frame " + numAUsSeek + " not indexed, first frame: " + mAuIndex.getFirstAu());
+			return;
+		}
 
-			if(slsKey >= mReadAus-40 && slsKey <= mReadAus+40) {
-				foundSls = (VisualDabSlideShow)TimeshiftUtils.deserializeVisual(mSlideshowFileSparse.valueAt(i));
+		mReadAus = numAUsSeek;
+		mFrameReader.seekToAu(numAUsSeek);
+		discardFrameBatch();
 
-				if(DEBUG)Log.d(TAG, "Found SeekPos SLS at Idx: " + i + ", AUPos: " + slsKey + ", ReadAus: " + mReadAus);
-				break;
-			}
-		}
+		//the label and slide valid at the new position, the cursor continues behind it
+		TextualDabDynamicLabel foundDls = (TextualDabDynamicLabel)mMetadataLog.getLatestTextual(mReadAus);
+		VisualDabSlideShow foundSls = (VisualDabSlideShow)mMetadataLog.getLatestVisual(mReadAus);
+		mMetadataLog.seekCursor(mReadAus + 1);
 
 		if(foundDls != null) {
 			for (TimeshiftListener listener : mListeners) {
@@ -539,17 +851,9 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 			if(DEBUG) Log.d(TAG, "New textual: " + textual.getText());
 			TextualDabDynamicLabel dls = (TextualDabDynamicLabel)textual;
 
-			long skipPoint = -1;
-			try {
-				skipPoint = mFileOutStream.getChannel().position();
-			} catch(IOException ioExc) {
-				if(DEBUG)ioExc.printStackTrace();
-			}
+			long skipPoint = mFileWriter.getCommittedLength();
 
-			String dlsPathName = TimeshiftUtils.serializeTextual(textual, mCacheTextDir+"/"+mWrittenAus);
-			if(dlsPathName != null) {
-				mLabelFileSparse.append(mWrittenAus, dlsPathName);
-			}
+			mMetadataLog.appendTextual(mWrittenAus, textual);
 
 			//Only if the Textual is Dynamic Label Plus it may have toggles
 			if (dls.hasTags() && !mSkipable) {
@@ -594,12 +898,7 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 					isArtist = true;
 
 					if(isArtist) {
-						mSkipEntries.add(new Pair<>(mWrittenAus, skipPoint));
-
-						SkipItem skipItem = new SkipItem(mWrittenAus, skipPoint, mTimeshiftDuration, dlsPathName);
-						if (mLastSlsPath != null) {
-							skipItem.setSkipSls(mLastSlsPath);
-						}
+						SkipItem skipItem = new SkipItem(mWrittenAus, skipPoint, mTimeshiftDuration, mMetadataLog);
 						mSkipItems.add(skipItem);
 						for(TimeshiftListener listener : mListeners) {
 							if(listener != null) {
@@ -619,14 +918,42 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 	@Override
 	public void newVisualMetadata(Visual visual) {
 		if(visual.getVisualType() == VisualType.METADATA_VISUAL_TYPE_DAB_SLS) {
-			String visPath = TimeshiftUtils.serializeVisual(visual, mCacheVisDir+"/"+mWrittenAus);
-			if(visPath != null) {
-				mLastSlsPath = visPath;
-				mSlideshowFileSparse.append(mWrittenAus, visPath);
-			}
+			mMetadataLog.appendVisual(mWrittenAus, visual);
 		}
 	}
 
+	/* Segment listener */
+	private TimeshiftFileWriter.SegmentListener mSegmentListener = new TimeshiftFileWriter.SegmentListener() {
+		@Override
+		public void segmentStarted(long segmentNum, long firstAu, long firstPtsUs) {
+			//frames have no record header to rebuild the index from, the recording is not resumable
+		}
+
+		@Override
+		public void segmentDropped(long firstRetainedAu, long droppedUs) {
+			long droppedMs = droppedUs / 1000;
+			if(DEBUG)Log.d(TAG, "Dropped " + droppedMs + " ms, first retained frame: " + firstRetainedAu);
+
+			mFirstAu = firstRetainedAu;
+			mTimeshiftDuration = mAuIndex.getDurationUs() / 1000;
+
+			for(SkipItem skipItem : mSkipItems) {
+				if(skipItem.getWrittenAus() < firstRetainedAu) {
+					mSkipItems.remove(skipItem);
+					for(TimeshiftListener listener : mListeners) {
+						if(listener != null) {
+							listener.skipItemRemoved(skipItem);
+						}
+					}
+				} else {
+					skipItem.shiftRelativeTimepoint(droppedMs);
+				}
+			}
+
+			mMetadataLog.trimBefore(firstRetainedAu);
+		}
+	};
+
 	/* RawAudio listener */
 	@Override
 	public void rawAudioData(byte[] rawData, boolean sbr, boolean ps, RadioServiceMimeType type, int numChannels, int samplingRate) {
@@ -642,7 +969,14 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 			mReadAus = -1;
 			mLastDuration = 0;
 			mWrittenAus = 0;
+			mLostAus.set(0);
+			mFirstAu = 0;
+			mAuIndex.clear();
 			mMsAudioPerAu = (samplingRate == 48000 ? 24 : 48);
+			mFileWriter.setAuDurationUs(mMsAudioPerAu * 1000);
+			if(mMaxTimeshiftMs > 0) {
+				mFileWriter.setMaxRetainedAus(mMaxTimeshiftMs / mMsAudioPerAu);
+			}
 
 			//DAB MPEG-1L2 has a constant frame size
 			mMpegFrameSize = rawData.length;
@@ -652,18 +986,32 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 			mConfChans = numChannels;
 			mConfSampling = samplingRate;
 
+			//frames are read by the index, the segment headers and configuration records describe the recording for other readers
+			AudioConfig config = new AudioConfig(type.getContententTypeId(), samplingRate, numChannels, false, false, (int)(mMsAudioPerAu * 1000));
+			if(mWriteScheduler != null) {
+				mWriteScheduler.submitConfig(mFileWriter, config);
+			} else {
+				try {
+					mFileWriter.writeConfig(config);
+				} catch(IOException ioE) {
+					if(DEBUG)ioE.printStackTrace();
+				}
+			}
 		}
 
-		mTimeshiftDuration += mMsAudioPerAu;
-
-		try {
-			mFileOutStream.write(rawData);
-
-			//need to flush to have it ready on disk
-			mFileOutStream.flush();
+		if(mWriteScheduler != null) {
+			//lost frames are not in the recording, the count follows the committed frames again
+			mWrittenAus -= mLostAus.getAndSet(0);
+			mWriteScheduler.submitFrame(mFileWriter, rawData, mFrameWritten);
 			++mWrittenAus;
-		} catch(IOException ioE) {
-			if(DEBUG)ioE.printStackTrace();
+		} else {
+			try {
+				mFileWriter.writeFrame(rawData);
+				++mWrittenAus;
+				mFrameWritten.auWritten();
+			} catch(IOException ioE) {
+				if(DEBUG)ioE.printStackTrace();
+			}
 		}
 
 		/* ... */
@@ -673,14 +1021,10 @@ public class TimeshiftPlayerMpeg2 implements TimeshiftPlayer, Serializable, Radi
 
 			for(TimeshiftListener listener : mListeners) {
 				if(listener != null) {
-					listener.progress(((mReadAus * mMsAudioPerAu) / MILLI_PART), (mTimeshiftDuration / MILLI_PART));
+					listener.progress((getCurrentPosition() / MILLI_PART), (mTimeshiftDuration / MILLI_PART));
 				}
 			}
 
-			if(mEofPause) {
-				mEofPause = false;
-			}
-
 			//Start playback if playwhenReady was set and we have enough data buffered
 			if(mPlayWhenReady && !mPlaythreadRunning) {
 				if(((mTimeshiftDuration/MILLI_PART)) >= 2) {
@@ -22,4 +22,10 @@ import org.omri.radioservice.RadioService;
 public interface TimeshiftPlayerPcmAu extends TimeshiftPlayer {
 
 	void setNewService(RadioService newSrv);
+
+	/**
+	 * Returns the counters of the PCM re-encoding, e.g. to detect that the encoder can't keep up
+	 * @return a snapshot of the {@link EncoderStatistics}
+	 */
+	EncoderStatistics getEncoderStatistics();
 }
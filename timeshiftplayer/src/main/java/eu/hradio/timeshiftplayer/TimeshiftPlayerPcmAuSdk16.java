@@ -40,9 +40,13 @@ public class TimeshiftPlayerPcmAuSdk16 extends TimeshiftPlayerAacAuSdk16 impleme
 
 	private static final long serialVersionUID = -8535166233779545394L;
 
+
 	private static final String TAG = "TimeshiftPlayerPcmAu16";
 
-	private PcmResampler mPcmResampler = null;
+	//brings the PCM into the encoder format and cuts it into encoder frames
+	private PcmPipeline mPcmPipeline = null;
+	//the PCM frames waiting for the encoder
+	private volatile EncoderQueue mEncoderQueue = null;
 
 	TimeshiftPlayerPcmAuSdk16(Context context) {
 		super(context);
@@ -71,8 +75,8 @@ public class TimeshiftPlayerPcmAuSdk16 extends TimeshiftPlayerAacAuSdk16 impleme
 	public void stop(boolean deleteTmp) {
 		if(DEBUG)Log.d(TAG, "Stopping timeshift, delTemp: " + deleteTmp);
 
-		if(mPcmResampler != null) {
-			mPcmResampler.shutDown();
+		if(mPcmPipeline != null) {
+			mPcmPipeline.release();
 		}
 
 		super.stop(deleteTmp);
@@ -140,35 +144,11 @@ public class TimeshiftPlayerPcmAuSdk16 extends TimeshiftPlayerAacAuSdk16 impleme
 		}
 	}
 
-	private CircularByteBuffer mCircBuff = null;
-	private int mPcmDataRate = -1;
-	private int mPcmFrameSize = -1;
 	private int mNumChannels = 2;
 	@Override
 	public void pcmAudioData(byte[] pcmData, int numChannels, int samplingRate) {
 		//if(DEBUG)Log.d(TAG, "PcmData: " + pcmData.length + ", Channels: " + numChannels + ", Sampling: " + samplingRate);
-		if(mPcmResampler != null) {
-			if(mPcmResampler.getSourceSamplingrate() != samplingRate || mPcmResampler.getSourceNumChans() != numChannels) {
-				if(DEBUG)Log.d(TAG, "Reconfiguring Resampler from " + mPcmResampler.getSourceSamplingrate() + " Hz, " +
-						mPcmResampler.getSourceNumChans() + " channels to " +
-						samplingRate + " Hz, " + numChannels + " channels"
-				);
-
-				mPcmResampler.shutDown();
-				mPcmResampler = new PcmResampler(samplingRate, 48000, numChannels);
-			}
-		}
-
 		if(mStartTimeNs == -1) {
-			if(pcmData.length > 9000) {
-				if(DEBUG)Log.d(TAG, "PCMData too large: " + pcmData.length);
-				return;
-			} else if(pcmData.length > 5000) {
-				mPcmFrameSize = pcmData.length/2;
-			} else {
-				mPcmFrameSize = pcmData.length;
-			}
-
 			if(DEBUG)Log.d(TAG, "PCMData: " + pcmData.length + ", Channels: " + numChannels + ", Sampling: " +samplingRate);
 
 			mStartTimeNs = System.nanoTime();
@@ -176,19 +156,27 @@ public class TimeshiftPlayerPcmAuSdk16 extends TimeshiftPlayerAacAuSdk16 impleme
 			mReadAus = 0;
 			mLastDuration = 0;
 			mWrittenAus = 0;
-
-			if(DEBUG)Log.d(TAG, "Creating Resampler with: " + samplingRate + " Hz and a buffersize of " + pcmData.length);
-
-			mPcmResampler = new PcmResampler(samplingRate, 48000, numChannels);
+			mFirstAu = 0;
+			mAuIndex.clear();
+			//only used for the decoder timeouts, the timeline and the retention come from the exact AU duration
+			MS_AUDIO_PER_AU = EncoderQueue.AAC_FRAME_SAMPLES * 1000 / EncoderQueue.SAMPLING_RATE;
+			applyMaxTimeshiftDuration(EncoderQueue.AAC_FRAME_SAMPLES, EncoderQueue.SAMPLING_RATE);
+
+			if(mPcmPipeline != null) {
+				mPcmPipeline.release();
+			}
+			mEncoderQueue = new EncoderQueue();
+			mPcmPipeline = new PcmPipeline(EncoderQueue.SAMPLING_RATE, EncoderQueue.CHANNELS, EncoderQueue.AAC_FRAME_SAMPLES, mEncoderQueue);
 
 			//fixed output num channels
-			mNumChannels = 2;
+			mNumChannels = mPcmPipeline.getOutputChannels();
 
 			//fixed output sampling
-			mAudioTrackSamplerate = 48000;
+			mAudioTrackSamplerate = mPcmPipeline.getOutputSamplingRate();
 
 			//mAudioTrackChannelConfig = numChannels;
-			mAudioTrackChannelConfig = 2;
+			mAudioTrackChannelConfig = mPcmPipeline.getOutputChannels();
+			mOutputChannels = mPcmPipeline.getOutputChannels();
 
 			//48000 Hz
 			//2 Channels
@@ -196,34 +184,11 @@ public class TimeshiftPlayerPcmAuSdk16 extends TimeshiftPlayerAacAuSdk16 impleme
 			//1536 kbit/s = 192 kbyte/s = 192000 byte/s
 
 			//7680 byte / 192000 byte/s
-			mPcmDataRate = samplingRate * 2 /* bytes per frame */ * numChannels / 1000;
-
-			if(DEBUG)Log.d(TAG, "Creating CircularBuffer with " + (10 * mPcmFrameSize) + " bytes of buffer");
-			mCircBuff = new CircularByteBuffer(10 * mPcmFrameSize);
-
-			//MS_AUDIO_PER_AU = mPcmFrameSize / mPcmDataRate;
 
-			if(DEBUG)Log.d(TAG, "MS_AUDIO_PER_AU: " + MS_AUDIO_PER_AU + ", PcmFrameSize: " + mPcmFrameSize);
+			if(DEBUG)Log.d(TAG, "MS_AUDIO_PER_AU: " + MS_AUDIO_PER_AU + ", PcmFrameSize: " + EncoderQueue.FRAME_SIZE);
 
-			byte audioByte = (byte)(0xF0);
-			byte sampleByte = (byte)(0x03 << 2);
-			byte sbrByte = (byte)(0x00);
-			byte chanByte = (byte)(0x01);
-			byte params = (byte)(audioByte | sampleByte | sbrByte | chanByte);
-
-			try {
-				mFileOutStream.write(params);
-			} catch(IOException ioE) {
-				if(DEBUG)ioE.printStackTrace();
-			}
-
-			mConfCodec = 63;
-			mConfSampling = samplingRate;
-			mConfChans = 2;
-			mConfSbr = false;
-			mConfPs = false;
-
-			configureCodec();
+			//the timed records carry the exact durations, the nominal AU duration is recorded for readers
+			recordConfig(new AudioConfig(63, mPcmPipeline.getOutputSamplingRate(), mPcmPipeline.getOutputChannels(), false, false, EncoderQueue.AAC_FRAME_SAMPLES * 1000000 / EncoderQueue.SAMPLING_RATE));
 
 			try {
 				configureEncoder();
@@ -233,11 +198,7 @@ public class TimeshiftPlayerPcmAuSdk16 extends TimeshiftPlayerAacAuSdk16 impleme
 			}
 		}
 
-		if(numChannels < 2 || samplingRate < 48000) {
-			mCircBuff.put(mPcmResampler.resamplePcmData(pcmData));
-		} else {
-			mCircBuff.put(pcmData);
-		}
+		mPcmPipeline.push(pcmData, numChannels, samplingRate);
 
 		encodeFrame();
 		getEncodedFrame();
@@ -302,30 +263,23 @@ public class TimeshiftPlayerPcmAuSdk16 extends TimeshiftPlayerAacAuSdk16 impleme
 
 	private void encodeFrame() {
 		if(mMediaEncoder != null) {
-			while(mCircBuff.available() > 4096) {
+			while(mEncoderQueue.hasFrame()) {
 				int inBuffIdx = mMediaEncoder.dequeueInputBuffer(0);
 				if (inBuffIdx > -1) {
 					try {
-						byte[] pcmFrame = new byte[mEncInputBuffers[inBuffIdx].limit()];
-						int bytesRed = mCircBuff.get(pcmFrame);
-						long pts = (long)(((double)bytesRed / (double)mPcmDataRate) * 1000);
+						//the presentation time of the first sample of the frame
+						long pts = mEncoderQueue.nextInputPtsUs();
+						//the PCM is copied from the ring buffer straight into the encoder input
+						int bytesRed = mEncoderQueue.takeFrame(mEncInputBuffers[inBuffIdx]);
 						//if(DEBUG)Log.d(TAG, "EnqueuedData: PTS: " + pts + " µs");
 						if (bytesRed > 0) {
-							if (mEncInputBuffers[inBuffIdx].limit() >= pcmFrame.length) {
-								//if (DEBUG) Log.d(TAG, "BufferLimit: " + mInputBuffers[inBuffIdx].limit() + ", enqueuing: " + pcmFrame.length + " PCM bytes");
-
-								mEncInputBuffers[inBuffIdx].clear();
-								mEncInputBuffers[inBuffIdx].put(pcmFrame);
-
-								mMediaEncoder.queueInputBuffer(inBuffIdx, 0, pcmFrame.length, pts, 0);
-							} else {
-								if (DEBUG) Log.d(TAG, "PcmFrame too large BufferLimit: " + mEncInputBuffers[inBuffIdx].limit() + ", enqueuing: " + pcmFrame.length + " PCM bytes");
-							}
+							mMediaEncoder.queueInputBuffer(inBuffIdx, 0, bytesRed, pts, 0);
 						}
 					} catch (IllegalStateException illStateExc) {
 						if (DEBUG) Log.e(TAG, "IllegalStateException while inputting buffer: " + illStateExc.getMessage());
 					}
 				} else {
+					mEncoderQueue.encoderStalled();
 					return;
 				}
 			}
@@ -385,12 +339,8 @@ public class TimeshiftPlayerPcmAuSdk16 extends TimeshiftPlayerAacAuSdk16 impleme
 							if (((mEncBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != MediaCodec.BUFFER_FLAG_CODEC_CONFIG)) {
 								try {
 									//writeAdts(reArr);
-									if(MS_AUDIO_PER_AU == 120) {
-										//TODO inaccurate, use microseconds instead of milliseconds
-										MS_AUDIO_PER_AU = mEncBufferInfo.presentationTimeUs/1000;
-										if(DEBUG)Log.d(TAG, "MS_AUDIO_PER_AU set to: " + MS_AUDIO_PER_AU);
-									}
-									writeDabTs(reArr, mEncBufferInfo.presentationTimeUs);
+									writeTimedAu(reArr, mEncoderQueue.nextAuDurationUs());
+									mEncoderQueue.frameWritten();
 								} catch (IOException ioE) {
 									if (DEBUG) Log.e(TAG, "Error writing adts file");
 								}
@@ -403,20 +353,9 @@ public class TimeshiftPlayerPcmAuSdk16 extends TimeshiftPlayerAacAuSdk16 impleme
 		}
 	}
 
-	private void writeDabTs(byte[] aacData, long microSeconds) throws IOException {
-		int size = aacData.length;
-		byte[] sizeHdr = new byte[2];
-		sizeHdr[0] = (byte)((size & 0xFF00) >> 8);
-		sizeHdr[1] = (byte)(size & 0xFF);
-
-		mFileOutStream.write(SYNC_HDR);
-		mFileOutStream.write(sizeHdr);
-		mFileOutStream.write(aacData);
-
-		//need to flush to have it ready on disk
-		mFileOutStream.flush();
-		++mWrittenAus;
-		mTimeshiftDuration += microSeconds/1000;
-		//if(DEBUG)Log.d(TAG, "TimeshiftDuration: " + mTimeshiftDuration);
+	@Override
+	public EncoderStatistics getEncoderStatistics() {
+		EncoderQueue encoderQueue = mEncoderQueue;
+		return encoderQueue != null ? encoderQueue.getStatistics() : new EncoderStatistics(0, 0, 0, 0, 0, EncoderQueue.QUEUE_FRAMES);
 	}
 }
@@ -41,6 +41,9 @@ public class TimeshiftPlayerPcmAuSdk21 extends TimeshiftPlayerAacAuSdk21 impleme
 
 	private static final long serialVersionUID = -1310895166804312892L;
 
+	//how long the encoder pump blocks in the dequeue calls
+	private static final long ENCODER_DEQUEUE_TIMEOUT_US = 10000;
+
 	private static final String TAG = "TimeshiftPlayerPcmAu21";
 
 	@TargetApi(21)
@@ -85,11 +88,10 @@ public class TimeshiftPlayerPcmAuSdk21 extends TimeshiftPlayerAacAuSdk21 impleme
 	public void stop(boolean deleteTmp) {
 		if(DEBUG)Log.d(TAG, "Stopping timeshift, delTemp: " + deleteTmp);
 
-		stopEncodingThread();
-		stopGetEncodedFramesThread();
+		stopEncoderPump();
 
-		if(mPcmResampler != null) {
-			mPcmResampler.shutDown();
+		if(mPcmPipeline != null) {
+			mPcmPipeline.release();
 		}
 
 		super.stop(deleteTmp);
@@ -113,102 +115,50 @@ public class TimeshiftPlayerPcmAuSdk21 extends TimeshiftPlayerAacAuSdk21 impleme
 		//ByteBuffer ascBuffer = ByteBuffer.wrap(new byte[]{(byte) 0x12, (byte)0x10, (byte)0x00, (byte)0x00});
 		mMediaFormat.setByteBuffer("csd-0", ascBuffer);
 
-		try {
-			for (int i = 0; i < MediaCodecList.getCodecCount(); i++) {
-				MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-
-				if(codecInfo.isEncoder()) {
-					//dont need encoder
-					continue;
-				}
-
-				if(DEBUG)Log.d(TAG, "AvailableCodec Name: " + codecInfo.getName());
-
-				if(codecInfo.getName().equals("OMX.google.aac.decoder")) {
-					if(DEBUG)Log.d(TAG, "Found Google AAC decoder...choosing this one...");
-					mMediaCodec = MediaCodec.createByCodecName(codecInfo.getName());
-					break;
-				}
-			}
-
-			if(mMediaCodec == null) {
-				mMediaCodec = MediaCodec.createDecoderByType(mMediaFormat.getString(MediaFormat.KEY_MIME));
-			}
-		} catch(IOException ioExc) {
-			if(DEBUG)Log.e(TAG, "Decoder could not be created");
-			ioExc.printStackTrace();
-		}
-		if(mMediaCodec != null) {
-			try {
-				mBufferInfo = new MediaCodec.BufferInfo();
-
-				mMediaCodec.configure(mMediaFormat, null, null, 0);
-				MediaFormat outputFormat = mMediaCodec.getOutputFormat();
-				mMediaCodec.start();
-
-				if(DEBUG)Log.d(TAG, "Setting mDecode to true");
-				mDecode = true;
-			} catch (IllegalArgumentException illArgExc ){
-				if(DEBUG)Log.e(TAG, "MediaCodec IllegalArgumentException thrown: " + illArgExc.getMessage());
-			} catch(IllegalStateException illStateExc) {
-				if(DEBUG)Log.e(TAG, "MediaCodec IllegalStateException thrown: " + illStateExc.getMessage());
-			}
-		} else {
-			if(DEBUG)Log.e(TAG, "Configuring MediaCodec is null!");
-		}
+		startMediaCodec();
 	}
 
 	/* ... */
-	private CircularByteBuffer mCircBuff = null;
-	private int mPcmDataRate = -1;
-	private int mPcmFrameSize = -1;
 	private int mNumChannels = 2;
-	private PcmResampler mPcmResampler = null;
+	//brings the PCM into the encoder format and cuts it into encoder frames
+	private PcmPipeline mPcmPipeline = null;
+	//the PCM frames waiting for the encoder, consumed by the encoder pump
+	private volatile EncoderQueue mEncoderQueue = null;
 	@Override
 	public void pcmAudioData(byte[] pcmData, int numChannels, int samplingRate) {
 		//if(DEBUG)Log.d(TAG, "PcmData: " + pcmData.length + ", Channels: " + numChannels + ", Sampling: " + samplingRate);
-		if(mPcmResampler != null) {
-			if(mPcmResampler.getSourceSamplingrate() != samplingRate || mPcmResampler.getSourceNumChans() != numChannels) {
-				if(DEBUG)Log.d(TAG, "Reconfiguring Resampler from " + mPcmResampler.getSourceSamplingrate() + " Hz, " +
-						mPcmResampler.getSourceNumChans() + " channels to " +
-						samplingRate + " Hz, " + numChannels + " channels"
-				);
-
-				mPcmResampler.shutDown();
-				mPcmResampler = new PcmResampler(samplingRate, 48000, numChannels);
-			}
-		}
-
 		if(mStartTimeNs == -1) {
-			if(pcmData.length > 9000) {
-				if(DEBUG)Log.d(TAG, "PCMData too large: " + pcmData.length);
-				return;
-			} else if(pcmData.length > 5000) {
-				mPcmFrameSize = pcmData.length/2;
-			} else {
-				mPcmFrameSize = pcmData.length;
-			}
-
 			if(DEBUG)Log.d(TAG, "PCMData: " + pcmData.length + ", Channels: " + numChannels + ", Sampling: " +samplingRate);
 
+			//a running pump would still consume the old ring buffer and count AUs, it is stopped before the reset
+			stopEncoderPump();
+
 			mStartTimeNs = System.nanoTime();
 			mTimeshiftDuration = 0;
 			mReadAus = 0;
 			mLastDuration = 0;
 			mWrittenAus = 0;
-
-			if(DEBUG)Log.d(TAG, "Creating Resampler with: " + samplingRate + " Hz and a buffersize of " + pcmData.length);
-
-			mPcmResampler = new PcmResampler(samplingRate, 48000, numChannels);
+			mFirstAu = 0;
+			mAuIndex.clear();
+			//only used for the decoder timeouts, the timeline and the retention come from the exact AU duration
+			MS_AUDIO_PER_AU = EncoderQueue.AAC_FRAME_SAMPLES * 1000 / EncoderQueue.SAMPLING_RATE;
+			applyMaxTimeshiftDuration(EncoderQueue.AAC_FRAME_SAMPLES, EncoderQueue.SAMPLING_RATE);
+
+			if(mPcmPipeline != null) {
+				mPcmPipeline.release();
+			}
+			mEncoderQueue = new EncoderQueue();
+			mPcmPipeline = new PcmPipeline(EncoderQueue.SAMPLING_RATE, EncoderQueue.CHANNELS, EncoderQueue.AAC_FRAME_SAMPLES, mEncoderQueue);
 
 			//fixed output num channels
-			mNumChannels = 2;
+			mNumChannels = mPcmPipeline.getOutputChannels();
 
 			//fixed output sampling
-			mAudioTrackSamplerate = 48000;
+			mAudioTrackSamplerate = mPcmPipeline.getOutputSamplingRate();
 
 			//mAudioTrackChannelConfig = numChannels;
-			mAudioTrackChannelConfig = 2;
+			mAudioTrackChannelConfig = mPcmPipeline.getOutputChannels();
+			mOutputChannels = mPcmPipeline.getOutputChannels();
 
 			//48000 Hz
 			//2 Channels
@@ -216,52 +166,23 @@ public class TimeshiftPlayerPcmAuSdk21 extends TimeshiftPlayerAacAuSdk21 impleme
 			//1536 kbit/s = 192 kbyte/s = 192000 byte/s
 
 			//7680 byte / 192000 byte/s
-			//mPcmDataRate = samplingRate * 2 /* bytes per frame */ * numChannels / 1000;
-			mPcmDataRate = 48000 * 2 /* bytes per frame */ * 2 / 1000;
-
-			if(DEBUG)Log.d(TAG, "Creating CircularBuffer with " + (10 * mPcmFrameSize) + " bytes of buffer");
-			mCircBuff = new CircularByteBuffer(10 * mPcmFrameSize);
-
-			//MS_AUDIO_PER_AU = mPcmFrameSize / mPcmDataRate;
 
-			if(DEBUG)Log.d(TAG, "MS_AUDIO_PER_AU: " + MS_AUDIO_PER_AU + ", PcmFrameSize: " + mPcmFrameSize);
+			if(DEBUG)Log.d(TAG, "MS_AUDIO_PER_AU: " + MS_AUDIO_PER_AU + ", PcmFrameSize: " + EncoderQueue.FRAME_SIZE);
 
-			byte audioByte = (byte)(0xF0);
-			byte sampleByte = (byte)(0x03 << 2);
-			byte sbrByte = (byte)(0x00);
-			byte chanByte = (byte)(0x01);
-			byte params = (byte)(audioByte | sampleByte | sbrByte | chanByte);
-
-			try {
-				mFileOutStream.write(params);
-			} catch(IOException ioE) {
-				if(DEBUG)ioE.printStackTrace();
-			}
-
-			mConfCodec = 63;
-			mConfSampling = samplingRate;
-			mConfChans = 2;
-			mConfSbr = false;
-			mConfPs = false;
-
-			configureCodec();
+			//the timed records carry the exact durations, the nominal AU duration is recorded for readers
+			recordConfig(new AudioConfig(63, mPcmPipeline.getOutputSamplingRate(), mPcmPipeline.getOutputChannels(), false, false, EncoderQueue.AAC_FRAME_SAMPLES * 1000000 / EncoderQueue.SAMPLING_RATE));
 
 			try {
 				configureEncoder();
+				startEncoderPump();
 			} catch(IOException ioExc) {
 				if(DEBUG)Log.e(TAG, "Error configuring encoder: " + ioExc.getMessage());
 				if(DEBUG)ioExc.printStackTrace();
 			}
 		}
 
-		if(numChannels < 2 || samplingRate < 48000) {
-			mCircBuff.put(mPcmResampler.resamplePcmData(pcmData));
-		} else {
-			mCircBuff.put(pcmData);
-		}
-
-		encodeFrame();
-		getEncodedFrame();
+		//the encoder pump picks the frames up from the ring buffer
+		mPcmPipeline.push(pcmData, numChannels, samplingRate);
 
 		if(mPlayWhenReady && !mPlaythreadRunning) {
 			if(((mTimeshiftDuration/1000L)) >= 2) {
@@ -321,311 +242,136 @@ public class TimeshiftPlayerPcmAuSdk21 extends TimeshiftPlayerAacAuSdk21 impleme
 		mEncOutputBuffers = mMediaEncoder.getOutputBuffers();
 	}
 
-	private volatile boolean mEncodeThreadRunning = false;
-	private Thread mEncodeThread = null;
-	private void startEncodingThread() {
-		if(DEBUG)Log.d(TAG, "Starting encoding thread");
-		if(!mEncodeThreadRunning) {
-			mEncodeThread = new Thread(mEncodingRunnable);
-			mEncodeThread.start();
+	/* Encoder pump */
+	private volatile boolean mEncoderPumpRunning = false;
+	private Thread mEncoderPumpThread = null;
+
+	private void startEncoderPump() {
+		if(DEBUG)Log.d(TAG, "Starting encoder pump");
+		if(!mEncoderPumpRunning && mMediaEncoder != null) {
+			mEncoderPumpRunning = true;
+			mEncoderPumpThread = new Thread(mEncoderPumpRunnable, "EncoderPump");
+			mEncoderPumpThread.start();
 		}
 	}
 
-	private void stopEncodingThread() {
-		if(DEBUG)Log.d(TAG, "Stopping encoding thread");
-		if(mEncodeThreadRunning) {
-			mEncodeThreadRunning = false;
+	private void stopEncoderPump() {
+		if(DEBUG)Log.d(TAG, "Stopping encoder pump");
+		if(mEncoderPumpRunning) {
+			mEncoderPumpRunning = false;
 
-			if(mEncodeThread != null) {
+			if(mEncoderPumpThread != null) {
 				try {
-					mEncodeThread.join(0);
+					mEncoderPumpThread.join();
 				} catch(InterruptedException interExc) {
 					if(DEBUG)interExc.printStackTrace();
 				}
+				mEncoderPumpThread = null;
 			}
 		}
-	}
 
-	private Runnable mEncodingRunnable = new Runnable() {
-		@Override
-		public void run() {
-			mEncodeThreadRunning = true;
-			encodeFrames();
-		}
-	};
-
-	private void encodeFrames() {
-		while (mEncodeThreadRunning) {
-			if (mMediaEncoder != null) {
-				while (mCircBuff.available() > 4096) {
-					int inBuffIdx = mMediaEncoder.dequeueInputBuffer(0);
-					if (inBuffIdx > -1) {
-						try {
-							byte[] pcmFrame = new byte[mEncInputBuffers[inBuffIdx].limit()];
-							int bytesRed = mCircBuff.get(pcmFrame);
-							long pts = (long) (((double) bytesRed / (double) mPcmDataRate) * 1000);
-							//long pts = (long) ((double) bytesRed / (double) mPcmDataRate);
-							//if(DEBUG)Log.d(TAG, "EnqueuedData: PTS: " + pts + " µs");
-							if (bytesRed > 0) {
-								if (mEncInputBuffers[inBuffIdx].limit() >= pcmFrame.length) {
-									//if (DEBUG) Log.d(TAG, "BufferLimit: " + mInputBuffers[inBuffIdx].limit() + ", enqueuing: " + pcmFrame.length + " PCM bytes");
-
-									mEncInputBuffers[inBuffIdx].clear();
-									mEncInputBuffers[inBuffIdx].put(pcmFrame);
-
-									mMediaEncoder.queueInputBuffer(inBuffIdx, 0, pcmFrame.length, pts, 0);
-								} else {
-									if (DEBUG)
-										Log.d(TAG, "PcmFrame too large BufferLimit: " + mEncInputBuffers[inBuffIdx].limit() + ", enqueuing: " + pcmFrame.length + " PCM bytes");
-								}
-							}
-						} catch (IllegalStateException illStateExc) {
-							if (DEBUG)
-								Log.e(TAG, "IllegalStateException while inputting buffer: " + illStateExc.getMessage());
-						}
-					} else {
-						try {
-							Thread.sleep(100);
-						} catch(InterruptedException interExc) {
-							if(DEBUG)interExc.printStackTrace();
-						}
-					}
-				}
-			}
-		}
-	}
-
-	private void encodeFrame() {
 		if(mMediaEncoder != null) {
-			while(mCircBuff.available() > 4096) {
-				int inBuffIdx = mMediaEncoder.dequeueInputBuffer(0);
-				if (inBuffIdx > -1) {
-					try {
-						byte[] pcmFrame = new byte[mEncInputBuffers[inBuffIdx].limit()];
-						int bytesRed = mCircBuff.get(pcmFrame);
-						long pts = (long)(((double)bytesRed / (double)mPcmDataRate) * 1000);
-						//long pts = (long)((double)bytesRed / (double)mPcmDataRate);
-						//if(DEBUG)Log.d(TAG, "EnqueuedData: PTS: " + pts + " µs");
-						if (bytesRed > 0) {
-							if (mEncInputBuffers[inBuffIdx].limit() >= pcmFrame.length) {
-								//if (DEBUG) Log.d(TAG, "BufferLimit: " + mInputBuffers[inBuffIdx].limit() + ", enqueuing: " + pcmFrame.length + " PCM bytes");
-
-								mEncInputBuffers[inBuffIdx].clear();
-								mEncInputBuffers[inBuffIdx].put(pcmFrame);
-
-								mMediaEncoder.queueInputBuffer(inBuffIdx, 0, pcmFrame.length, pts, 0);
-							} else {
-								if (DEBUG) Log.d(TAG, "PcmFrame too large BufferLimit: " + mEncInputBuffers[inBuffIdx].limit() + ", enqueuing: " + pcmFrame.length + " PCM bytes");
-							}
-						}
-					} catch (IllegalStateException illStateExc) {
-						if (DEBUG) Log.e(TAG, "IllegalStateException while inputting buffer: " + illStateExc.getMessage());
-					}
-				} else {
-					return;
-				}
+			try {
+				mMediaEncoder.stop();
+			} catch(IllegalStateException illStateExc) {
+				if(DEBUG)Log.e(TAG, "IllegalStateException while stopping encoder: " + illStateExc.getMessage());
 			}
+			mMediaEncoder.release();
+			mMediaEncoder = null;
 		}
 	}
 
-	private volatile boolean mGetEncodeThreadRunning = false;
-	private Thread mGetEncodeThread = null;
-	private void startGetEncodedFramesThread() {
-		if(DEBUG)Log.d(TAG, "Starting getEncoded thread");
-		if(!mGetEncodeThreadRunning) {
-			mGetEncodeThread = new Thread(mGetEncodedFramesRunnable);
-			mGetEncodeThread.start();
-		}
-	}
-
-	private void stopGetEncodedFramesThread() {
-		if(DEBUG)Log.d(TAG, "Stopping getEncoded thread");
-		if(mGetEncodeThreadRunning) {
-			mGetEncodeThreadRunning = false;
-
-			if(mGetEncodeThread != null) {
+	/**
+	 * The only thread driving the encoder. It blocks in the dequeue calls of the encoder instead of polling,
+	 * if the encoder falls behind the PCM waits in the ring buffer until it is full and the ingest drops frames.
+	 */
+	private final Runnable mEncoderPumpRunnable = new Runnable() {
+		@Override
+		public void run() {
+			while(mEncoderPumpRunning) {
 				try {
-					mGetEncodeThread.join(0);
-				} catch(InterruptedException interExc) {
-					if(DEBUG)interExc.printStackTrace();
+					feedEncoder();
+					//waiting for output is only allowed if no PCM waits for the input
+					drainEncoder(mEncoderQueue.hasFrame() ? 0 : ENCODER_DEQUEUE_TIMEOUT_US);
+				} catch(IllegalStateException illStateExc) {
+					if(DEBUG)Log.e(TAG, "IllegalStateException in encoder pump: " + illStateExc.getMessage());
+					return;
 				}
 			}
 		}
-	}
-
-	private Runnable mGetEncodedFramesRunnable = new Runnable() {
-		@Override
-		public void run() {
-			mGetEncodeThreadRunning = true;
-			getEncodedFrames();
-		}
 	};
 
-	private void getEncodedFrames() {
-		while(mGetEncodeThreadRunning) {
-			if (mMediaEncoder != null) {
-				byte[] reArr = null;
-
-				int outbufIdx = MediaCodec.INFO_TRY_AGAIN_LATER;
-				do {
-					try {
-						outbufIdx = mMediaEncoder.dequeueOutputBuffer(mEncBufferInfo, 0);
-					} catch (IllegalStateException illStateExc) {
-						if (DEBUG) Log.e(TAG, "IllegalStateException thrown at deq outputBuffer: " + illStateExc.getMessage());
-					}
-
-					switch (outbufIdx) {
-						case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED: {
-							if (DEBUG) Log.i(TAG, "Outputbuffers changed");
-
-							mEncOutputBuffers = mMediaEncoder.getOutputBuffers();
-							break;
-						}
-						case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED: {
-							MediaFormat format = mMediaEncoder.getOutputFormat();
-							int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-							int chanCnt = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
-
-							if (DEBUG) Log.i(TAG, "Outputformat Changed: Sampling: " + sampleRate + " Chans: " + chanCnt);
-
-							break;
-						}
-						case MediaCodec.INFO_TRY_AGAIN_LATER: {
-
-							break;
-						}
-						default: {
-							if (outbufIdx >= 0) {
-								ByteBuffer encBuffer = mEncOutputBuffers[outbufIdx];
-								encBuffer.position(mEncBufferInfo.offset);
-								encBuffer.limit(mEncBufferInfo.offset + mEncBufferInfo.size);
-
-								reArr = new byte[mEncBufferInfo.size];
-								encBuffer.get(reArr);
-
-								//For ADTS format header
-								//reArr = new byte[mEncBufferInfo.size + 7];
-								//encBuffer.get(reArr, 7, mEncBufferInfo.size); //7 bytes preceeding for adts header
-
-								encBuffer.clear();
-
-								mMediaEncoder.releaseOutputBuffer(outbufIdx, false);
-
-								if (((mEncBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != MediaCodec.BUFFER_FLAG_CODEC_CONFIG)) {
-									try {
-										//writeAdts(reArr);
-										if (MS_AUDIO_PER_AU == 120) {
-											//TODO inaccurate, use microseconds instead of milliseconds
-											MS_AUDIO_PER_AU = mEncBufferInfo.presentationTimeUs / 1000;
-											if (DEBUG)
-												Log.d(TAG, "MS_AUDIO_PER_AU set to: " + MS_AUDIO_PER_AU);
-										}
-										writeDabTs(reArr, mEncBufferInfo.presentationTimeUs);
-									} catch (IOException ioE) {
-										if (DEBUG) Log.e(TAG, "Error writing adts file");
-									}
-								}
-								break;
-							} else {
-								try {
-									Thread.sleep(100);
-								} catch(InterruptedException interExc) {
-									if(DEBUG)interExc.printStackTrace();
-								}
-							}
-						}
-					}
-				} while (outbufIdx >= 0);
+	private void feedEncoder() {
+		while(mEncoderQueue.hasFrame()) {
+			int inBuffIdx = mMediaEncoder.dequeueInputBuffer(ENCODER_DEQUEUE_TIMEOUT_US);
+			if(inBuffIdx < 0) {
+				//the encoder is behind, the frames stay in the queue
+				mEncoderQueue.encoderStalled();
+				return;
 			}
+
+			//the presentation time of the first sample of the frame
+			long pts = mEncoderQueue.nextInputPtsUs();
+			//the PCM is copied from the ring buffer straight into the encoder input
+			int bytesRed = mEncoderQueue.takeFrame(mEncInputBuffers[inBuffIdx]);
+			//if(DEBUG)Log.d(TAG, "EnqueuedData: PTS: " + pts + " µs");
+			mMediaEncoder.queueInputBuffer(inBuffIdx, 0, bytesRed, pts, 0);
 		}
 	}
 
-	private void getEncodedFrame() {
-		if(mMediaEncoder != null) {
-			byte[] reArr = null;
+	private void drainEncoder(long timeoutUs) {
+		int outbufIdx = mMediaEncoder.dequeueOutputBuffer(mEncBufferInfo, timeoutUs);
+		while(outbufIdx != MediaCodec.INFO_TRY_AGAIN_LATER) {
+			switch (outbufIdx) {
+				case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED: {
+					if (DEBUG) Log.i(TAG, "Outputbuffers changed");
 
-			int outbufIdx = MediaCodec.INFO_TRY_AGAIN_LATER;
-			do {
-				try {
-					outbufIdx = mMediaEncoder.dequeueOutputBuffer(mEncBufferInfo, 0);
-				} catch (IllegalStateException illStateExc) {
-					if (DEBUG)
-						Log.e(TAG, "IllegalStateException thrown at deq outputBuffer: " + illStateExc.getMessage());
+					mEncOutputBuffers = mMediaEncoder.getOutputBuffers();
+					break;
 				}
+				case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED: {
+					MediaFormat format = mMediaEncoder.getOutputFormat();
+					int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+					int chanCnt = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
 
-				switch (outbufIdx) {
-					case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED: {
-						if (DEBUG) Log.i(TAG, "Outputbuffers changed");
+					if (DEBUG) Log.i(TAG, "Outputformat Changed: Sampling: " + sampleRate + " Chans: " + chanCnt);
 
-						mEncOutputBuffers = mMediaEncoder.getOutputBuffers();
-						break;
-					}
-					case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED: {
-						MediaFormat format = mMediaEncoder.getOutputFormat();
-						int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-						int chanCnt = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+					break;
+				}
+				default: {
+					if (outbufIdx >= 0) {
+						ByteBuffer encBuffer = mEncOutputBuffers[outbufIdx];
+						encBuffer.position(mEncBufferInfo.offset);
+						encBuffer.limit(mEncBufferInfo.offset + mEncBufferInfo.size);
 
-						if (DEBUG) Log.i(TAG, "Outputformat Changed: Sampling: " + sampleRate + " Chans: " + chanCnt);
+						byte[] reArr = new byte[mEncBufferInfo.size];
+						encBuffer.get(reArr);
 
-						break;
-					}
-					case MediaCodec.INFO_TRY_AGAIN_LATER: {
+						encBuffer.clear();
 
-						break;
-					}
-					default: {
-						if (outbufIdx >= 0) {
-							ByteBuffer encBuffer = mEncOutputBuffers[outbufIdx];
-							encBuffer.position(mEncBufferInfo.offset);
-							encBuffer.limit(mEncBufferInfo.offset + mEncBufferInfo.size);
-
-							reArr = new byte[mEncBufferInfo.size];
-							encBuffer.get(reArr);
-
-							//For ADTS format header
-							//reArr = new byte[mEncBufferInfo.size + 7];
-							//encBuffer.get(reArr, 7, mEncBufferInfo.size); //7 bytes preceeding for adts header
-
-							encBuffer.clear();
-
-							mMediaEncoder.releaseOutputBuffer(outbufIdx, false);
-
-							if (((mEncBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != MediaCodec.BUFFER_FLAG_CODEC_CONFIG)) {
-								try {
-									//writeAdts(reArr);
-									if(MS_AUDIO_PER_AU == 120) {
-										//TODO inaccurate, use microseconds instead of milliseconds
-										MS_AUDIO_PER_AU = mEncBufferInfo.presentationTimeUs/1000;
-										if(DEBUG)Log.d(TAG, "MS_AUDIO_PER_AU set to: " + MS_AUDIO_PER_AU);
-									}
-									writeDabTs(reArr, mEncBufferInfo.presentationTimeUs);
-								} catch (IOException ioE) {
-									if (DEBUG) Log.e(TAG, "Error writing adts file");
-								}
+						mMediaEncoder.releaseOutputBuffer(outbufIdx, false);
+
+						if (((mEncBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != MediaCodec.BUFFER_FLAG_CODEC_CONFIG)) {
+							try {
+								writeTimedAu(reArr, mEncoderQueue.nextAuDurationUs());
+								mEncoderQueue.frameWritten();
+							} catch (IOException ioE) {
+								if (DEBUG) Log.e(TAG, "Error writing adts file");
 							}
-							break;
 						}
 					}
+					break;
 				}
-			} while(outbufIdx >= 0);
+			}
+
+			outbufIdx = mMediaEncoder.dequeueOutputBuffer(mEncBufferInfo, 0);
 		}
 	}
 
-	private void writeDabTs(byte[] aacData, long microSeconds) throws IOException {
-		int size = aacData.length;
-		byte[] sizeHdr = new byte[2];
-		sizeHdr[0] = (byte)((size & 0xFF00) >> 8);
-		sizeHdr[1] = (byte)(size & 0xFF);
-
-		mFileOutStream.write(SYNC_HDR);
-		mFileOutStream.write(sizeHdr);
-		mFileOutStream.write(aacData);
-
-		//need to flush to have it ready on disk
-		mFileOutStream.flush();
-		++mWrittenAus;
-		mTimeshiftDuration += microSeconds/1000;
-		//if(DEBUG)Log.d(TAG, "TimeshiftDuration: " + mTimeshiftDuration);
+	@Override
+	public EncoderStatistics getEncoderStatistics() {
+		EncoderQueue encoderQueue = mEncoderQueue;
+		return encoderQueue != null ? encoderQueue.getStatistics() : new EncoderStatistics(0, 0, 0, 0, 0, EncoderQueue.QUEUE_FRAMES);
 	}
 	/* ... */
 
@@ -0,0 +1,140 @@
+package eu.hradio.timeshiftplayer;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.omri.radioservice.RadioService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static eu.hradio.timeshiftplayer.BuildConfig.DEBUG;
+
+/**
+ * Records several services of one ensemble in the background at the same time. Every service gets its own
+ * recording with its own index, all recordings are written by a single writer thread which batches the AUs
+ * of all services. A {@link TimeshiftPlayer} for playback can be taken for any of the recorded services at any time.
+ *
+ * Copyright (C) 2018 IRT GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Fabian Sattler, IRT GmbH
+ */
+public final class TimeshiftRecorderManager {
+
+	private static final String TAG = "TimeshiftRecorderMngr";
+
+	private final Context mContext;
+	private final long mMaxTimeshiftMs;
+	private final RecordingWriteScheduler mWriteScheduler = new RecordingWriteScheduler();
+
+	private final Map<RadioService, TimeshiftPlayer> mRecordings = new LinkedHashMap<>();
+	private boolean mReleased = false;
+
+	/**
+	 * Creates a {@link TimeshiftRecorderManager} with unlimited timeshift depth
+	 * @param context the applications context
+	 */
+	public TimeshiftRecorderManager(Context context) {
+		this(context, 0);
+	}
+
+	/**
+	 * Creates a {@link TimeshiftRecorderManager}
+	 * @param context the applications context
+	 * @param maxTimeshiftMs the maximum timeshift depth of every recording in milliseconds or {@code 0} for unlimited
+	 */
+	public TimeshiftRecorderManager(Context context, long maxTimeshiftMs) {
+		mContext = context;
+		mMaxTimeshiftMs = maxTimeshiftMs;
+	}
+
+	/**
+	 * Starts recording the given service. Does nothing if the service is already recorded.
+	 * @param service the {@link RadioService} to record
+	 * @return {@code true} if the service is recorded, {@code false} if no {@link TimeshiftPlayer} is available for the service
+	 * @throws IOException if the creation of the recording fails
+	 * @throws IllegalStateException if the {@link TimeshiftRecorderManager} was released
+	 */
+	public synchronized boolean startRecording(RadioService service) throws IOException {
+		if(mReleased) {
+			throw new IllegalStateException("TimeshiftRecorderManager was released");
+		}
+		if(mRecordings.containsKey(service)) {
+			return true;
+		}
+
+		TimeshiftPlayer player = TimeshiftPlayerFactory.create(mContext, service, mMaxTimeshiftMs, mWriteScheduler);
+		if(player == null) {
+			if(DEBUG)Log.w(TAG, "No recording available for: " + service.getServiceLabel());
+			return false;
+		}
+
+		if(DEBUG)Log.d(TAG, "Started recording: " + service.getServiceLabel() + ", recordings: " + (mRecordings.size() + 1));
+		mRecordings.put(service, player);
+		return true;
+	}
+
+	/**
+	 * Stops recording the given service and stops its {@link TimeshiftPlayer}
+	 * @param service the recorded {@link RadioService}
+	 * @param deleteTemp {@code true} to delete the recording, {@code false} otherwise
+	 */
+	public synchronized void stopRecording(RadioService service, boolean deleteTemp) {
+		TimeshiftPlayer player = mRecordings.remove(service);
+		if(player != null) {
+			if(DEBUG)Log.d(TAG, "Stopping recording: " + service.getServiceLabel());
+			player.stop(deleteTemp);
+		}
+	}
+
+	/**
+	 * Returns the {@link TimeshiftPlayer} of a recorded service to play it back. Pausing the player doesn't
+	 * affect the recording, end it with {@link #stopRecording(RadioService, boolean)} instead of stopping the player.
+	 * @param service the recorded {@link RadioService}
+	 * @return the {@link TimeshiftPlayer} of the service or {@code null} if the service is not recorded
+	 */
+	public synchronized TimeshiftPlayer getPlayer(RadioService service) {
+		return mRecordings.get(service);
+	}
+
+	/**
+	 * Returns the services currently recorded
+	 * @return the recorded {@link RadioService}s in the order their recording was started
+	 */
+	public synchronized List<RadioService> getRecordedServices() {
+		return new ArrayList<>(mRecordings.keySet());
+	}
+
+	/**
+	 * Stops all recordings and the writer thread. The {@link TimeshiftRecorderManager} can't be used afterwards.
+	 * @param deleteTemp {@code true} to delete the recordings, {@code false} otherwise
+	 */
+	public synchronized void release(boolean deleteTemp) {
+		if(mReleased) {
+			return;
+		}
+
+		for(TimeshiftPlayer player : mRecordings.values()) {
+			player.stop(deleteTemp);
+		}
+		mRecordings.clear();
+
+		mWriteScheduler.shutDown();
+		mReleased = true;
+	}
+}
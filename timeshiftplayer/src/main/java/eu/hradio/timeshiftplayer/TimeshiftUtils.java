@@ -2,15 +2,7 @@ package eu.hradio.timeshiftplayer;
 
 import android.util.Log;
 
-import org.omri.radioservice.metadata.Textual;
-import org.omri.radioservice.metadata.Visual;
-
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -35,80 +27,6 @@ class TimeshiftUtils {
 
 	private static final String TAG = "TimeshiftUtils";
 
-	static String serializeVisual(Visual vis, String pathName) {
-		try {
-			FileOutputStream visObjFileOut = new FileOutputStream(pathName);
-			ObjectOutputStream visObjOut = new ObjectOutputStream(visObjFileOut);
-			visObjOut.writeObject(vis);
-			visObjOut.close();
-			visObjFileOut.close();
-
-			return pathName;
-		} catch (IOException ioE) {
-			if(BuildConfig.DEBUG)ioE.printStackTrace();
-		}
-
-		return null;
-	}
-
-	static Visual deserializeVisual(String name) {
-		if(name == null) {
-			return null;
-		}
-
-		try {
-			FileInputStream visObjFileIn = new FileInputStream(name);
-			ObjectInputStream visObjIn = new ObjectInputStream(visObjFileIn);
-			Visual restoredVis = (Visual) visObjIn.readObject();
-
-			visObjFileIn.close();
-			visObjIn.close();
-
-			return restoredVis;
-		} catch(IOException | ClassNotFoundException exception) {
-			if(BuildConfig.DEBUG)exception.printStackTrace();
-		}
-
-		return null;
-	}
-
-	static String serializeTextual(Textual text, String pathName) {
-		try {
-			FileOutputStream textObjFileOut = new FileOutputStream(pathName);
-			ObjectOutputStream textObjOut = new ObjectOutputStream(textObjFileOut);
-			textObjOut.writeObject(text);
-			textObjOut.close();
-			textObjFileOut.close();
-
-			return pathName;
-		} catch (IOException ioE) {
-			if(BuildConfig.DEBUG)ioE.printStackTrace();
-		}
-
-		return null;
-	}
-
-	static Textual deserializeTextual(String name) {
-		if(name == null) {
-			return null;
-		}
-
-		try {
-			FileInputStream textObjFileIn = new FileInputStream(name);
-			ObjectInputStream textObjIn = new ObjectInputStream(textObjFileIn);
-			Textual restoredText = (Textual) textObjIn.readObject();
-
-			textObjFileIn.close();
-			textObjIn.close();
-
-			return restoredText;
-		} catch(IOException | ClassNotFoundException exception) {
-			if(BuildConfig.DEBUG)exception.printStackTrace();
-		}
-
-		return null;
-	}
-
 	static void deleteFolder(final File folder) {
 		if (folder != null) {
 			ExecutorService executor = Executors.newSingleThreadExecutor();